@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.commands.custom.v3;
+
+import net.kodehawa.mantarobot.commands.custom.v3.ast.Node;
+import net.kodehawa.mantarobot.commands.custom.v3.interpreter.CompiledNode;
+import net.kodehawa.mantarobot.commands.custom.v3.interpreter.InterpreterContext;
+import net.kodehawa.mantarobot.commands.custom.v3.interpreter.InterpreterVisitor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares running a v3 custom command the old way (parse on every run, walk the tree) against the compiled, cached programs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CCv3Benchmark {
+    @Param({
+            //Plain text with a couple of variables.
+            "Hello $(event.author.name), welcome to $(event.guild.name)!",
+            //Nested conditionals, what most "real" commands look like.
+            "@{if;$(event.args);equals;;Usage: $(event.prefix)hug <user>;@{if;$(event.args);usermention;;" +
+                    "$(event.author.name) hugs $(event.args)!;$(event.author.name) hugs... $(event.args)?}}",
+            //Variables set at runtime and fallbacks.
+            "@{set;greeting;Hi there}@{set;target;@{not-empty;$(event.args);$(event.author.name)}}" +
+                    "$(greeting), $(target). @{and;$(target);$(event.author.name);Talking to yourself?;Say hi back!}"
+    })
+    public String source;
+
+    private Map<String, String> vars;
+    private Node ast;
+    private CompiledNode compiled;
+
+    @Setup
+    public void setup() {
+        vars = new HashMap<>();
+        vars.put("event.author.name", "Kodehawa");
+        vars.put("event.guild.name", "Mantaro Hub");
+        vars.put("event.prefix", "~>");
+        vars.put("event.args", "<@155867458203287552>");
+
+        ast = new Parser(source).parse();
+        compiled = CCv3.compile(source);
+    }
+
+    @Benchmark
+    public String parseAndInterpret() {
+        return new Parser(source).parse().accept(new InterpreterVisitor(), context());
+    }
+
+    @Benchmark
+    public String interpretParsed() {
+        return ast.accept(new InterpreterVisitor(), context());
+    }
+
+    @Benchmark
+    public String cachedCompiled() {
+        return CCv3.compile(source).evaluate(context());
+    }
+
+    @Benchmark
+    public String compiled() {
+        return compiled.evaluate(context());
+    }
+
+    //Operations like set change the variables, so every run gets its own copy, same as every command invocation does.
+    private InterpreterContext context() {
+        return new InterpreterContext(new HashMap<>(vars), CCv3.defaultOperations(), null);
+    }
+}
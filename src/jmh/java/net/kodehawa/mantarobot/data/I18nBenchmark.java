@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups done on every command: a plain key, a key with random variants, a key missing from the language (en_US fallback)
+ * and a lookup under a root.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class I18nBenchmark {
+    private I18n english;
+    private I18n portuguese;
+
+    @Setup
+    public void setup() {
+        english = I18n.getForLanguage("en_US");
+        portuguese = I18n.getForLanguage("pt_BR");
+    }
+
+    @Benchmark
+    public String plainKey() {
+        return english.get("general.requested_by");
+    }
+
+    @Benchmark
+    public String variants() {
+        return english.get("general.ratelimit_quotes");
+    }
+
+    @Benchmark
+    public String fallback() {
+        return portuguese.get("test.inherited");
+    }
+
+    @Benchmark
+    public String withRoot() {
+        return english.withRoot("commands", "anime.no_results");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+package net.kodehawa.mantarobot.db.entities.helpers;
+
+import net.kodehawa.mantarobot.commands.currency.item.Item;
+import net.kodehawa.mantarobot.commands.currency.item.ItemStack;
+import net.kodehawa.mantarobot.commands.currency.item.Items;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the currency commands do with an inventory: check for an item, add a few stacks of loot,
+ * and load/save it as the item id -> amount map stored on rethink.
+ * Loading {@link Items} reads the config, like it does on the bot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryBenchmark {
+    private Inventory inventory;
+    private Map<Integer, Integer> saved;
+    private Item present;
+    private Item missing;
+    private List<ItemStack> loot;
+
+    @Setup
+    public void setup() {
+        inventory = new Inventory();
+        //Every other item, like someone who has been playing for a while.
+        for(int i = 0; i < Items.ALL.length; i += 2) {
+            inventory.process(new ItemStack(Items.ALL[i], 1 + i % 50));
+        }
+
+        saved = inventory.asRawMap();
+        present = Items.ALL[0];
+        missing = Items.ALL[1];
+
+        loot = new ArrayList<>();
+        for(int i = 0; i < 5; i++) {
+            loot.add(new ItemStack(Items.ALL[i * 3], 1));
+        }
+    }
+
+    @Benchmark
+    public boolean containsItem() {
+        return inventory.containsItem(present) && !inventory.containsItem(missing);
+    }
+
+    @Benchmark
+    public int getAmount() {
+        return inventory.getAmount(present);
+    }
+
+    @Benchmark
+    public Inventory useItem() {
+        inventory.process(new ItemStack(present, -1));
+        inventory.process(new ItemStack(present, 1));
+        return inventory;
+    }
+
+    @Benchmark
+    public Inventory addLoot() {
+        inventory.process(loot);
+        return inventory;
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> save() {
+        return inventory.asRawMap();
+    }
+
+    @Benchmark
+    public Inventory load() {
+        Inventory loaded = new Inventory();
+        loaded.replaceWith(saved);
+        return loaded;
+    }
+}
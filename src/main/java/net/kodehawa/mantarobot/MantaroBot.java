@@ -25,7 +25,6 @@ import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
 import net.kodehawa.mantarobot.commands.currency.item.Items;
-import net.kodehawa.mantarobot.commands.moderation.MuteTask;
 import net.kodehawa.mantarobot.commands.music.MantaroAudioManager;
 import net.kodehawa.mantarobot.commands.utils.birthday.BirthdayCacher;
 import net.kodehawa.mantarobot.core.MantaroCore;
@@ -37,6 +36,8 @@ import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.log.LogFilter;
 import net.kodehawa.mantarobot.log.LogUtils;
+import net.kodehawa.mantarobot.services.BlacklistService;
+import net.kodehawa.mantarobot.services.LeaderboardService;
 import net.kodehawa.mantarobot.utils.CompactPrintStream;
 import net.kodehawa.mantarobot.utils.Prometheus;
 import net.kodehawa.mantarobot.utils.SentryHelper;
@@ -152,10 +153,12 @@ public class MantaroBot extends ShardedJDA {
                         "Shards are still waking up!", DefaultCommandProcessor.REGISTRY.commands().size(), (end - start) / 1000));
 
         birthdayCacher = new BirthdayCacher();
-        final MuteTask muteTask = new MuteTask();
-        Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Mute Handler")).scheduleAtFixedRate(muteTask::handle, 0, 1, TimeUnit.MINUTES);
         //Yes, this is needed.
         Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "Ratelimit Map Handler")).scheduleAtFixedRate(Utils.ratelimitedUsers::clear, 0, 24, TimeUnit.HOURS);
+        //Other nodes can change the blacklist too.
+        executorService.scheduleAtFixedRate(BlacklistService::refresh, 0, 5, TimeUnit.MINUTES);
+        //Saves done on other nodes only show up on the leaderboards after this.
+        executorService.scheduleAtFixedRate(LeaderboardService::refresh, 0, 10, TimeUnit.MINUTES);
     }
 
     public static void main(String[] args) {
@@ -219,9 +222,6 @@ public class MantaroBot extends ShardedJDA {
     }
 
     public void startCheckingBirthdays() {
-        ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("Mantaro-BirthdayExecutor Thread-%d").build());
-        Prometheus.THREAD_POOL_COLLECTOR.add("birthday-tracker", executorService);
-
         //How much until tomorrow? That's the initial delay, then run it once a day.
         ZoneId z = ZoneId.of("America/Chicago");
         ZonedDateTime now = ZonedDateTime.now(z);
@@ -237,7 +237,7 @@ public class MantaroBot extends ShardedJDA {
             shard.startBirthdayTask(millisecondsUntilTomorrow);
         }
 
-        //Start the birthday cacher.
+        //Birthdays set on other nodes only show up after this.
         executorService.scheduleWithFixedDelay(birthdayCacher::cache, 22, 23, TimeUnit.HOURS);
     }
 
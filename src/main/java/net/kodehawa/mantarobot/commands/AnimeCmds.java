@@ -38,7 +38,6 @@ import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.utils.DiscordUtils;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
-import okhttp3.OkHttpClient;
 import org.apache.commons.text.StringEscapeUtils;
 
 import java.awt.*;
@@ -49,7 +48,6 @@ import java.util.stream.Collectors;
 @Module
 @SuppressWarnings("all" /* NO IT WONT FUCKING NPE */)
 public class AnimeCmds {
-    private final static OkHttpClient client = new OkHttpClient();
     private final Config config = MantaroData.config().get();
 
     @Subscribe
@@ -45,6 +45,7 @@ import net.kodehawa.mantarobot.core.modules.commands.help.HelpContent;
 import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.Mutation;
 import net.kodehawa.mantarobot.db.entities.DBUser;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.helpers.Inventory;
@@ -679,8 +680,11 @@ public class CurrencyCmds {
                                     return;
                                 }
 
-                                player.getInventory().process(new ItemStack(item, -1));
-                                giveToPlayer.getInventory().process(new ItemStack(item, 1));
+                                if(!transferItems(player, giveToPlayer, item, 1)) {
+                                    event.getChannel().sendMessageFormat(languageContext.get("commands.itemtransfer.multiple_items_error"), EmoteReference.ERROR).queue();
+                                    return;
+                                }
+
                                 new MessageBuilder().setContent(String.format(languageContext.get("commands.itemtransfer.success"),
                                             EmoteReference.OK, event.getMember().getEffectiveName(), 1, item.getName(), event.getGuild().getMember(giveTo).getEffectiveName()))
                                         .stripMentions(event.getGuild(), Message.MentionType.EVERYONE, Message.MentionType.HERE)
@@ -690,8 +694,6 @@ public class CurrencyCmds {
                                 event.getChannel().sendMessageFormat(languageContext.get("commands.itemtransfer.multiple_items_error"), EmoteReference.ERROR).queue();
                             }
 
-                            player.saveAsync();
-                            giveToPlayer.saveAsync();
                             return;
                         }
 
@@ -708,8 +710,10 @@ public class CurrencyCmds {
                                     return;
                                 }
 
-                                player.getInventory().process(new ItemStack(item, amount * -1));
-                                giveToPlayer.getInventory().process(new ItemStack(item, amount));
+                                if(!transferItems(player, giveToPlayer, item, amount)) {
+                                    event.getChannel().sendMessageFormat(languageContext.get("commands.itemtransfer.error"), EmoteReference.ERROR).queue();
+                                    return;
+                                }
 
                                 new MessageBuilder().setContent(String.format(languageContext.get("commands.itemtransfer.success"), EmoteReference.OK,
                                             event.getMember().getEffectiveName(), amount, item.getName(), event.getGuild().getMember(giveTo).getEffectiveName()))
@@ -722,9 +726,6 @@ public class CurrencyCmds {
                         } catch(NumberFormatException nfe) {
                             event.getChannel().sendMessageFormat(languageContext.get("general.invalid_number") + " " + languageContext.get("general.space_notice"), EmoteReference.ERROR).queue();
                         }
-
-                        player.saveAsync();
-                        giveToPlayer.saveAsync();
                     }
                 }
             }
@@ -847,18 +848,15 @@ public class CurrencyCmds {
 
                 long amountTransfer = Math.round(toSend * 0.92);
 
-                if(toTransfer.addMoney(amountTransfer)) {
-                    transferPlayer.removeMoney(toSend);
-                    transferPlayer.saveAsync();
-
+                //Checked again by the db: the money could have been spent somewhere else since we loaded the player.
+                if(MantaroData.db().transfer(Mutation.player(transferPlayer.getUserId()).addMoney(-toSend), Mutation.player(toTransfer.getUserId()).addMoney(amountTransfer))) {
                     event.getChannel().sendMessageFormat(languageContext.get("commands.transfer.success"), EmoteReference.CORRECT, toSend, amountTransfer,
                             event.getMessage().getMentionedUsers().get(0).getName()
                     ).queue();
 
-                    toTransfer.saveAsync();
                     rateLimiter.limit(toTransfer.getUserId());
                 } else {
-                    event.getChannel().sendMessageFormat(languageContext.get("commands.transfer.receipt_overflow_notice"), EmoteReference.ERROR).queue();
+                    event.getChannel().sendMessageFormat(languageContext.get("commands.transfer.no_money_notice"), EmoteReference.ERROR).queue();
                 }
             }
 
@@ -1052,6 +1050,11 @@ public class CurrencyCmds {
         });
     }
 
+    //Done by the db, as the amounts we loaded could have changed by now. Fails if the giver doesn't have enough anymore, or the receiver would go over the limit.
+    private static boolean transferItems(Player from, Player to, Item item, int amount) {
+        return MantaroData.db().transfer(Mutation.player(from.getUserId()).addItem(item, -amount), Mutation.player(to.getUserId()).addItem(item, amount));
+    }
+
     public static void applyPotionEffect(GuildMessageReceivedEvent event, Item item, Player p, Map<String, String> arguments, String content, boolean isPet, I18nContext languageContext) {
         final ManagedDatabase db = MantaroData.db();
         if((item.getItemType() == ItemType.POTION || item.getItemType() == ItemType.BUFF) && item instanceof Potion) {
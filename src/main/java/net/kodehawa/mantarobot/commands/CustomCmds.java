@@ -30,10 +30,12 @@ import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.commands.currency.TextChannelGround;
 import net.kodehawa.mantarobot.commands.custom.CustomCommandHandler;
+import net.kodehawa.mantarobot.commands.custom.CustomCommandIndex;
 import net.kodehawa.mantarobot.commands.custom.v3.Parser;
 import net.kodehawa.mantarobot.commands.custom.v3.SyntaxException;
 import net.kodehawa.mantarobot.commands.info.stats.manager.CommandStatsManager;
 import net.kodehawa.mantarobot.core.CommandRegistry;
+import net.kodehawa.mantarobot.core.GuildCommandFilter;
 import net.kodehawa.mantarobot.core.modules.Module;
 import net.kodehawa.mantarobot.core.modules.commands.SimpleTreeCommand;
 import net.kodehawa.mantarobot.core.modules.commands.SubCommand;
@@ -41,11 +43,11 @@ import net.kodehawa.mantarobot.core.modules.commands.base.Category;
 import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
 import net.kodehawa.mantarobot.core.modules.commands.help.HelpContent;
 import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
+import net.kodehawa.mantarobot.core.modules.commands.newstuff.MessageContext;
 import net.kodehawa.mantarobot.core.processor.DefaultCommandProcessor;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.CustomCommand;
 import net.kodehawa.mantarobot.db.entities.helpers.CustomCommandData;
-import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.utils.DiscordUtils;
 import net.kodehawa.mantarobot.utils.StringUtils;
 import net.kodehawa.mantarobot.utils.Utils;
@@ -55,12 +57,12 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static net.kodehawa.mantarobot.data.MantaroData.db;
 
@@ -69,35 +71,24 @@ import static net.kodehawa.mantarobot.data.MantaroData.db;
 @SuppressWarnings("unused")
 public class
 CustomCmds {
-    private static final Map<String, CustomCommand> customCommands = new ConcurrentHashMap<>();
     public final static Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z0-9_]+"),
             INVALID_CHARACTERS_PATTERN = Pattern.compile("[^a-zA-Z0-9_]"),
             NAME_WILDCARD_PATTERN = Pattern.compile("[a-zA-Z0-9_*]+");
     private static SecureRandom random = new SecureRandom();
 
 
-    public static boolean handle(String prefix, String cmdName, GuildMessageReceivedEvent event, I18nContext lang, String args) {
+    public static boolean handle(String prefix, String cmdName, GuildMessageReceivedEvent event, MessageContext context, String args) {
         CustomCommand customCommand = getCustomCommand(event.getGuild().getId(), cmdName);
-        GuildData guildData = db().getGuild(event.getGuild()).getData();
 
         if (customCommand == null)
             return false;
 
-        //CCS disable check start.
-        if (guildData.getDisabledCommands().contains(cmdName)) {
+        //CCS disable check.
+        if (!GuildCommandFilter.of(context.getDBGuild()).allowsCustom(event.getMember(), event.getChannel().getIdLong(), cmdName)) {
             return false;
         }
 
-        List<String> channelDisabledCommands = guildData.getChannelSpecificDisabledCommands().get(event.getChannel().getId());
-        if (channelDisabledCommands != null && channelDisabledCommands.contains(cmdName)) {
-            return false;
-        }
-
-        HashMap<String, List<String>> roleSpecificDisabledCommands = guildData.getRoleSpecificDisabledCommands();
-        if (event.getMember().getRoles().stream().anyMatch(r -> roleSpecificDisabledCommands.computeIfAbsent(r.getId(), s -> new ArrayList<>()).contains(cmdName)) && !CommandPermission.ADMIN.test(event.getMember())) {
-                return false;
-        }
-        //CCS disable check end.
+        I18nContext lang = context.getLanguageContext();
 
         List<String> values = customCommand.getValues();
         if(customCommand.getData().isNsfw() && !event.getChannel().isNSFW()) {
@@ -294,7 +285,6 @@ CustomCmds {
                 }
                 int size = customCommands.size();
                 customCommands.forEach(CustomCommand::deleteAsync);
-                customCommands.forEach(c -> CustomCmds.customCommands.remove(c.getId()));
                 event.getChannel().sendMessageFormat(languageContext.get("commands.custom.clear.success"), EmoteReference.PENCIL, size).queue();
             }
         }).createSubCommandAlias("clear", "clr");
@@ -373,13 +363,6 @@ CustomCmds {
                 //delete at DB
                 custom.deleteAsync();
 
-                //reflect at local
-                customCommands.remove(custom.getId());
-
-                //clear commands if none
-                if(customCommands.keySet().stream().noneMatch(s -> s.endsWith(":" + cmd)))
-                    customCommands.remove(cmd);
-
                 event.getChannel().sendMessageFormat(languageContext.get("commands.custom.remove.success"), EmoteReference.PENCIL, cmd).queue();
             }
         }).createSubCommandAlias("remove", "rm");
@@ -411,15 +394,16 @@ CustomCmds {
                 Map<String, Guild> mapped = MantaroBot.getInstance().getMutualGuilds(event.getAuthor()).stream()
                         .collect(Collectors.toMap(ISnowflake::getId, g -> g));
 
-                List<Pair<Guild, CustomCommand>> filtered = MantaroData.db()
-                        .getCustomCommandsByName(("*" + cmd + "*").replace("*", any)).stream()
-                        .map(customCommand -> {
-                            Guild guild = mapped.get(customCommand.getGuildId());
-                            return guild == null ? null : Pair.of(guild, customCommand);
-                        })
-                        .filter(Objects::nonNull)
-
-                        .collect(Collectors.toList());
+                List<Pair<Guild, CustomCommand>> filtered;
+                try(Stream<CustomCommand> matching = MantaroData.db().streamCustomCommandsMatching(mapped.keySet(), ("*" + cmd + "*").replace("*", any))) {
+                    filtered = matching
+                            .map(customCommand -> {
+                                Guild guild = mapped.get(customCommand.getGuildId());
+                                return guild == null ? null : Pair.of(guild, customCommand);
+                            })
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.toList());
+                }
 
                 if(filtered.size() == 0) {
                     event.getChannel().sendMessageFormat(languageContext.get("commands.custom.import.not_found"), EmoteReference.ERROR).queue();
@@ -439,9 +423,6 @@ CustomCmds {
                             //save at DB
                             custom.saveAsync();
 
-                            //reflect at local
-                            customCommands.put(custom.getId(), custom);
-
                             event.getChannel().sendMessageFormat(languageContext.get("commands.custom.import.success"),
                                     custom.getName(), pair.getKey().getName(), custom.getValues().size()
                             ).queue();
@@ -549,7 +530,6 @@ CustomCmds {
                 custom.getValues().set(where - 1, commandContent);
 
                 custom.saveAsync();
-                customCommands.put(custom.getId(), custom);
 
                 event.getChannel().sendMessage(String.format(languageContext.get("commands.custom.edit.success"), EmoteReference.CORRECT, where, custom.getName())).queue();
             }
@@ -602,7 +582,6 @@ CustomCmds {
                 custom.getValues().remove(where - 1);
 
                 custom.saveAsync();
-                customCommands.put(custom.getId(), custom);
 
                 event.getChannel().sendMessage(String.format(languageContext.get("commands.custom.deleteresponse.success"), EmoteReference.CORRECT, where, custom.getName())).queue();
             }
@@ -662,14 +641,6 @@ CustomCmds {
                 oldCustom.deleteAsync();
                 newCustom.saveAsync();
 
-                //reflect at local
-                customCommands.remove(oldCustom.getId());
-                customCommands.put(newCustom.getId(), newCustom);
-
-                //clear commands if none
-                if(customCommands.keySet().stream().noneMatch(s -> s.endsWith(":" + cmd)))
-                    customCommands.remove(cmd);
-
                 event.getChannel().sendMessageFormat(languageContext.get("commands.custom.rename.success"), EmoteReference.CORRECT, cmd, value).queue();
 
                 //easter egg :D
@@ -756,8 +727,6 @@ CustomCmds {
 
                 //save at DB
                 custom.saveAsync();
-                //reflect at local
-                customCommands.put(custom.getId(), custom);
 
                 event.getChannel().sendMessageFormat(languageContext.get("commands.custom.add.success"), EmoteReference.CORRECT, cmd).queue();
 
@@ -774,11 +743,8 @@ CustomCmds {
             return null;
         }
 
-        if(customCommands.containsKey(id + ":" + name)) {
-            return customCommands.get(id + ":" + name);
-        }
-
-        CustomCommand custom = db().getCustomCommand(id, name);
+        //Misses (which is most messages that get here) are answered from memory.
+        CustomCommand custom = CustomCommandIndex.get(id, name);
         //yes
         if(custom == null)
             return null;
@@ -798,9 +764,6 @@ CustomCmds {
             custom.saveAsync();
         }
 
-        //add to registry
-        customCommands.put(custom.getId(), custom);
-
         return custom;
     }
 }
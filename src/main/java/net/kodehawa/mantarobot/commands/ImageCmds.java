@@ -33,7 +33,6 @@ import net.kodehawa.mantarobot.core.modules.commands.help.HelpContent;
 import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.utils.cache.URLCache;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
-import okhttp3.OkHttpClient;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.Random;
@@ -61,8 +60,6 @@ public class ImageCmds {
     @Subscribe
     public void cat(CommandRegistry cr) {
         cr.register("cat", new SimpleCommand(Category.IMAGE) {
-            final OkHttpClient httpClient = new OkHttpClient();
-
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content, String[] args) {
                 try {
@@ -72,7 +69,7 @@ public class ImageCmds {
                             new MessageBuilder().append(EmoteReference.TALKING).append(
                                     catResponses[random.nextInt(catResponses.length)].replace("%mention%", event.getAuthor().getName()))
                                     .build()
-                            ).addFile(CACHE.getFile(url), "cat-" + result.getValue() + ".png")
+                            ).addFile(CACHE.getInput(url), "cat-" + result.getValue() + ".png")
                             .queue();
                 } catch(Exception e) {
                     event.getChannel().sendMessageFormat(languageContext.get("commands.imageboard.cat.error"), EmoteReference.ERROR).queue();
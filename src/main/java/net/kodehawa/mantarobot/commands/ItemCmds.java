@@ -238,17 +238,23 @@ public class ItemCmds {
                             message += languageContext.get("commands.cast.item_broke");
                         }
 
-                        user.getData().increaseDustLevel(3);
-                        user.save();
-
+                        boolean saved;
                         if(isSeasonal) {
                             seasonalPlayer.removeMoney(castCost);
-                            seasonalPlayer.save();
+                            saved = seasonalPlayer.trySave();
                         } else {
                             player.removeMoney(castCost);
-                            player.save();
+                            saved = player.trySave();
                         }
 
+                        if(!saved) {
+                            event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                            return;
+                        }
+
+                        user.getData().increaseDustLevel(3);
+                        user.save();
+
                         event.getChannel().sendMessageFormat(languageContext.get("commands.cast.success") + "\n" + message,
                                 EmoteReference.WRENCH, castItem.getEmoji(), castItem.getName(), castCost, recipeString.toString().trim()
                         ).queue();
@@ -466,17 +472,23 @@ public class ItemCmds {
                             message += languageContext.get("commands.repair.item_broke");
                         }
 
-                        user.getData().increaseDustLevel(3);
-                        user.save();
-
+                        boolean saved;
                         if(isSeasonal) {
                             seasonalPlayer.removeMoney(repairCost);
-                            seasonalPlayer.save();
+                            saved = seasonalPlayer.trySave();
                         } else {
                             player.removeMoney(repairCost);
-                            player.save();
+                            saved = player.trySave();
                         }
 
+                        if(!saved) {
+                            event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                            return;
+                        }
+
+                        user.getData().increaseDustLevel(3);
+                        user.save();
+
                         event.getChannel().sendMessageFormat(languageContext.get("commands.repair.success") + "\n" + message,
                                 EmoteReference.WRENCH, brokenItem.getEmoji(), brokenItem.getName(), repairedItem.getEmoji(), repairedItem.getName(), repairCost, recipeString.toString().trim()
                         ).queue();
@@ -18,10 +18,6 @@
 package net.kodehawa.mantarobot.commands;
 
 import com.google.common.eventbus.Subscribe;
-import com.rethinkdb.gen.ast.ReqlFunction1;
-import com.rethinkdb.model.OptArgs;
-import com.rethinkdb.net.Connection;
-import com.rethinkdb.net.Cursor;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
@@ -36,7 +32,8 @@ import net.kodehawa.mantarobot.core.modules.commands.help.HelpContent;
 import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.utils.Utils;
+import net.kodehawa.mantarobot.services.LeaderboardService;
+import net.kodehawa.mantarobot.services.LeaderboardService.Board;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.commands.IncreasingRateLimiter;
 import org.apache.commons.lang3.StringUtils;
@@ -50,7 +47,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.rethinkdb.RethinkDB.r;
 import static net.kodehawa.mantarobot.utils.Utils.handleDefaultIncreasingRatelimit;
 
 @Module
@@ -75,13 +71,9 @@ public class LeaderboardCmd {
                 return new SubCommand() {
                     @Override
                     protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
-                        List<Map<?, ?>> lb1 = getLeaderboard("playerstats", "gambleWinAmount",
-                                stats -> stats.pluck("id", "gambleWinAmount"), 5
-                        );
+                        List<Map<?, ?>> lb1 = LeaderboardService.get(Board.GAMBLE_AMOUNT, 5);
 
-                        List<Map<?, ?>> lb2 = getLeaderboard("playerstats", "slotsWinAmount",
-                                stats -> stats.pluck("id", "slotsWinAmount"), 5
-                        );
+                        List<Map<?, ?>> lb2 = LeaderboardService.get(Board.SLOTS_AMOUNT, 5);
 
                         event.getChannel().sendMessage(
                                 baseEmbed(event, languageContext.get("commands.leaderboard.header"))
@@ -124,9 +116,7 @@ public class LeaderboardCmd {
 
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
-                List<Map<?, ?>> c = getLeaderboard("playerstats", "gambleWins",
-                        player -> player.pluck("id", "gambleWins"), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(Board.GAMBLE_WINS, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.gamble"), EmoteReference.MONEY),"commands.leaderboard.gamble", c,
@@ -145,9 +135,7 @@ public class LeaderboardCmd {
 
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
-                List<Map<?, ?>> c = getLeaderboard("playerstats", "slotsWins",
-                        player -> player.pluck("id", "slotsWins"), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(Board.SLOTS_WINS, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.slots"), EmoteReference.MONEY),"commands.leaderboard.slots", c,
@@ -168,12 +156,8 @@ public class LeaderboardCmd {
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
                 Map<String, String> t = getArguments(content);
                 boolean isSeasonal = t.containsKey("season") || t.containsKey("s");
-                String tableName = isSeasonal ? "seasonalplayers" : "players";
 
-                List<Map<?, ?>> c = getLeaderboard(tableName, "money",
-                        player -> player.g("id"),
-                        player -> player.pluck("id", "money"), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(isSeasonal ? Board.SEASONAL_MONEY : Board.MONEY, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format((isSeasonal ? languageContext.get("commands.leaderboard.inner.seasonal_money") : languageContext.get("commands.leaderboard.inner.money")) , EmoteReference.MONEY),"commands.leaderboard.money", c,
@@ -192,10 +176,7 @@ public class LeaderboardCmd {
 
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
-                List<Map<?, ?>> c = getLeaderboard("players", "level",
-                        player -> player.g("id"),
-                        player -> player.pluck("id", "level", r.hashMap("data", "experience")), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(Board.LEVEL, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.lvl"), EmoteReference.ZAP),"commands.leaderboard.level", c,
@@ -217,12 +198,8 @@ public class LeaderboardCmd {
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
                 Map<String, String> t = getArguments(content);
                 boolean isSeasonal = t.containsKey("season") || t.containsKey("s");
-                String tableName = isSeasonal ? "seasonalplayers" : "players";
 
-                List<Map<?, ?>> c = getLeaderboard(tableName, "reputation",
-                        player -> player.g("id"),
-                        player -> player.pluck("id", "reputation"), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(isSeasonal ? Board.SEASONAL_REPUTATION : Board.REPUTATION, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.rep"), EmoteReference.REP),"commands.leaderboard.reputation", c,
@@ -241,10 +218,7 @@ public class LeaderboardCmd {
 
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
-                List<Map<?, ?>> c = getLeaderboard("players", "userDailyStreak",
-                        player -> player.g("id"),
-                        player -> player.pluck("id", r.hashMap("data", "dailyStrike")), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(Board.DAILY_STREAK, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.streak"), EmoteReference.POPPER),"commands.leaderboard.daily", c,
@@ -265,12 +239,8 @@ public class LeaderboardCmd {
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
                 Map<String, String> t = getArguments(content);
                 boolean isSeasonal = t.containsKey("season") || t.containsKey("s");
-                String tableName = isSeasonal ? "seasonalplayers" : "players";
 
-                List<Map<?, ?>> c = getLeaderboard(tableName, "waifuCachedValue",
-                        player -> player.g("id"),
-                        player -> player.pluck("id", r.hashMap("data", "waifuCachedValue")), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(isSeasonal ? Board.SEASONAL_WAIFU_VALUE : Board.WAIFU_VALUE, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.waifu"), EmoteReference.MONEY),"commands.leaderboard.waifu", c,
@@ -289,9 +259,7 @@ public class LeaderboardCmd {
 
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
-                List<Map<?, ?>> c = getLeaderboard("users", "timesClaimed",
-                        player -> player.pluck("id", r.hashMap("data", "timesClaimed")), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(Board.CLAIMS, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.claim"), EmoteReference.HEART),"commands.leaderboard.claim", c,
@@ -312,12 +280,8 @@ public class LeaderboardCmd {
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
                 Map<String, String> t = getArguments(content);
                 boolean isSeasonal = t.containsKey("season") || t.containsKey("s");
-                String tableName = isSeasonal ? "seasonalplayers" : "players";
 
-                List<Map<?, ?>> c = getLeaderboard(tableName, "gameWins",
-                        player -> player.g("id"),
-                        player -> player.pluck("id", r.hashMap("data", "gamesWon")), 10
-                );
+                List<Map<?, ?>> c = LeaderboardService.get(isSeasonal ? Board.SEASONAL_GAME_WINS : Board.GAME_WINS, 10);
 
                 event.getChannel().sendMessage(generateLeaderboardEmbed(event, languageContext,
                         String.format(languageContext.get("commands.leaderboard.inner.game"), EmoteReference.ZAP),"commands.leaderboard.game", c,
@@ -338,28 +302,6 @@ public class LeaderboardCmd {
         cr.registerAlias("leaderboard", "lb");
     }
 
-    private List<Map<?, ?>> getLeaderboard(String table, String index, ReqlFunction1 mapFunction, int limit) {
-        return getLeaderboard(table, index, m -> true, mapFunction, limit);
-    }
-
-    private List<Map<?, ?>> getLeaderboard(String table, String index, ReqlFunction1 filterFunction, ReqlFunction1 mapFunction, int limit) {
-        Cursor<Map<?, ?>> m;
-        try(Connection conn = Utils.newDbConnection()) {
-            m = r.table(table)
-                    .orderBy()
-                    .optArg("index", r.desc(index))
-                    .filter(filterFunction)
-                    .map(mapFunction)
-                    .limit(limit)
-                    .run(conn, OptArgs.of("read_mode", "outdated"));
-        }
-
-        List<Map<?, ?>> c = m.toList();
-        m.close();
-
-        return c;
-    }
-
     private EmbedBuilder generateLeaderboardEmbed(GuildMessageReceivedEvent event, I18nContext languageContext, String description, String leaderboardKey, List<Map<?, ?>> lb, Function<Map<?, ?>, Pair<User, String>> mapFunction, String format, boolean isSeasonal) {
         return new EmbedBuilder().setAuthor(isSeasonal ? String.format(languageContext.get("commands.leaderboard.header_seasonal"), config.getCurrentSeason().getDisplay()) : languageContext.get("commands.leaderboard.header"), null, event.getJDA().getSelfUser().getEffectiveAvatarUrl())
                 .setDescription(description)
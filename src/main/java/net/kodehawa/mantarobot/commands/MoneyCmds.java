@@ -40,6 +40,7 @@ import net.kodehawa.mantarobot.core.modules.commands.help.HelpContent;
 import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.Mutation;
 import net.kodehawa.mantarobot.db.entities.DBUser;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.PlayerStats;
@@ -211,7 +212,10 @@ public class MoneyCmds {
                     }
 
                     authorPlayerData.setLastDailyAt(System.currentTimeMillis());
-                    authorPlayer.save();
+                    if(!authorPlayer.trySave()) {
+                        event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                        return;
+                    }
                 }
 
                 String sellout = random.nextBoolean() ? "" : languageContext.get("commands.daily.sellout");
@@ -240,7 +244,10 @@ public class MoneyCmds {
 
                     unifiedPlayer.addMoney(money);
                     playerData.setLastDailyAt(System.currentTimeMillis());
-                    unifiedPlayer.save();
+                    if(!unifiedPlayer.save()) {
+                        event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                        return;
+                    }
 
                     event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "daily.given_credits") + crate, EmoteReference.CORRECT, money, mentionedUser.getName(), streak, sellout).queue();
                     return;
@@ -249,7 +256,10 @@ public class MoneyCmds {
                 unifiedPlayer.addMoney(money);
                 //Player object comes from UnifiedPlayer, so it should update here too.
                 playerData.setLastDailyAt(System.currentTimeMillis());
-                unifiedPlayer.save();
+                if(!unifiedPlayer.save()) {
+                    event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                    return;
+                }
 
                 event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "daily.credits") + crate, EmoteReference.CORRECT, money, streak, sellout).queue();
             }
@@ -360,7 +370,11 @@ public class MoneyCmds {
 
                 if(i >= 60000000) {
                     player.setLocked(true);
-                    player.save();
+                    if(!player.trySave()) {
+                        event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                        return;
+                    }
+
                     event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "gamble.confirmation_message"), EmoteReference.WARNING, i).queue();
                     InteractiveOperations.create(event.getChannel(), event.getAuthor().getIdLong(),30, new InteractiveOperation() {
                         @Override
@@ -371,8 +385,7 @@ public class MoneyCmds {
                                     return COMPLETED;
                                 } else if(e.getMessage().getContentRaw().equalsIgnoreCase("no")) {
                                     e.getChannel().sendMessage(EmoteReference.ZAP + "Cancelled bet.").queue();
-                                    player.setLocked(false);
-                                    player.saveAsync();
+                                    unlock(player.getUserId());
                                     return COMPLETED;
                                 }
                             }
@@ -383,8 +396,7 @@ public class MoneyCmds {
                         @Override
                         public void onExpire() {
                             event.getChannel().sendMessageFormat(languageContext.get("general.operation_timed_out"), EmoteReference.ERROR2).queue();
-                            player.setLocked(false);
-                            player.saveAsync();
+                            unlock(player.getUserId());
                         }
                     });
                     return;
@@ -451,8 +463,7 @@ public class MoneyCmds {
 
                 if(r.nextInt(100) == 0) { //1 in 100 chance of it dropping a loot crate.
                     ground.dropItem(Items.LOOT_CRATE);
-                    if(player.getData().addBadgeIfAbsent(Badge.LUCKY))
-                        player.saveAsync();
+                    player.getData().addBadgeIfAbsent(Badge.LUCKY);
                 }
 
                 List<ItemStack> loot = ground.collectItems();
@@ -462,6 +473,8 @@ public class MoneyCmds {
                     moneyFound = moneyFound + random.nextInt(moneyFound);
                 }
 
+                //Only told once the player got saved, else nothing of this happened.
+                String message;
                 if(!loot.isEmpty()) {
                     String s = ItemStack.toString(ItemStack.reduce(loot));
                     String overflow;
@@ -473,22 +486,22 @@ public class MoneyCmds {
 
                     if(moneyFound != 0) {
                         if(unifiedPlayer.addMoney(moneyFound)) {
-                            channel.sendMessageFormat(languageContext.withRoot("commands", "loot.with_item.found"),
-                                    EmoteReference.POPPER, s, moneyFound, overflow).queue();
+                            message = String.format(languageContext.withRoot("commands", "loot.with_item.found"),
+                                    EmoteReference.POPPER, s, moneyFound, overflow);
                         } else {
-                            channel.sendMessageFormat(languageContext.withRoot("commands", "loot.with_item.found_but_overflow"),
-                                    EmoteReference.POPPER, s, moneyFound, overflow).queue();
+                            message = String.format(languageContext.withRoot("commands", "loot.with_item.found_but_overflow"),
+                                    EmoteReference.POPPER, s, moneyFound, overflow);
                         }
                     } else {
-                        channel.sendMessageFormat(languageContext.withRoot("commands", "loot.with_item.found_only_item_but_overflow"), EmoteReference.MEGA, s, overflow).queue();
+                        message = String.format(languageContext.withRoot("commands", "loot.with_item.found_only_item_but_overflow"), EmoteReference.MEGA, s, overflow);
                     }
 
                 } else {
                     if(moneyFound != 0) {
                         if(unifiedPlayer.addMoney(moneyFound)) {
-                            channel.sendMessageFormat(languageContext.withRoot("commands", "loot.without_item.found"), EmoteReference.POPPER, moneyFound).queue();
+                            message = String.format(languageContext.withRoot("commands", "loot.without_item.found"), EmoteReference.POPPER, moneyFound);
                         } else {
-                            channel.sendMessageFormat(languageContext.withRoot("commands", "loot.without_item.found_but_overflow"), EmoteReference.POPPER, moneyFound).queue();
+                            message = String.format(languageContext.withRoot("commands", "loot.without_item.found_but_overflow"), EmoteReference.POPPER, moneyFound);
                         }
                     } else {
                         int dust = dbUser.getData().increaseDustLevel(r.nextInt(2));
@@ -499,11 +512,16 @@ public class MoneyCmds {
                             msg += languageContext.withRoot("commands", "loot.easter");
                         }
 
-                        channel.sendMessage(EmoteReference.SAD + msg).queue();
+                        message = EmoteReference.SAD + msg;
                     }
                 }
 
-                unifiedPlayer.saveAsync();
+                if(!unifiedPlayer.save()) {
+                    channel.sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                    return;
+                }
+
+                channel.sendMessage(message).queue();
             }
 
             @Override
@@ -686,27 +704,20 @@ public class MoneyCmds {
                 if(!handleDefaultIncreasingRatelimit(rateLimiter, event.getAuthor(), event, languageContext))
                     return;
 
+                //What we loaded could have been spent somewhere else in the meantime, so the db gets the final say on whether there's enough.
+                String userId = event.getAuthor().getId();
+                Mutation<?> bet = season ? Mutation.seasonPlayer(userId, getConfig().getCurrentSeason()) : Mutation.player(userId);
                 if(coinSelect) {
-                    if(playerInventory.containsItem(Items.SLOT_COIN)) {
-                        playerInventory.process(new ItemStack(Items.SLOT_COIN, -amountN));
-                        if(season)
-                            seasonalPlayer.saveAsync();
-                        else
-                            player.saveAsync();
-
-                        slotsChance = slotsChance + 10;
-                    } else {
+                    if(!playerInventory.containsItem(Items.SLOT_COIN) || db.mutate(bet.addItem(Items.SLOT_COIN, -amountN)) == null) {
                         event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "slots.errors.no_tickets"), EmoteReference.SAD).queue();
                         return;
                     }
+
+                    slotsChance = slotsChance + 10;
                 } else {
-                    if(season) {
-                        seasonalPlayer.removeMoney(money);
-                        seasonalPlayer.saveAsync();
-                    }
-                    else {
-                        player.removeMoney(money);
-                        player.saveAsync();
+                    if(db.mutate(bet.addMoney(-money)) == null) {
+                        event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "slots.errors.not_enough_money"), EmoteReference.SAD).queue();
+                        return;
                     }
                 }
 
@@ -744,20 +755,21 @@ public class MoneyCmds {
                     stats.incrementSlotsWins();
                     stats.addSlotsWin(gains);
 
+                    //Badges always go to the global player, even when playing for the season.
+                    Mutation<Player> badges = Mutation.player(userId);
                     if((gains + money) > SLOTS_MAX_MONEY) {
-                        player.getData().addBadgeIfAbsent(Badge.LUCKY_SEVEN);
+                        badges.addBadge(Badge.LUCKY_SEVEN);
                     }
 
                     if(coinSelect && amountN > ItemStack.MAX_STACK_SIZE - random.nextInt(650))
-                        player.getData().addBadgeIfAbsent(Badge.SENSELESS_HOARDING);
+                        badges.addBadge(Badge.SENSELESS_HOARDING);
 
                     if(season) {
-                        seasonalPlayer.addMoney(gains + money);
-                        seasonalPlayer.saveAsync();
-                    }
-                    else {
-                        player.addMoney(gains + money);
-                        player.saveAsync();
+                        db.mutate(Mutation.seasonPlayer(userId, getConfig().getCurrentSeason()).addMoney(gains + money));
+                        if(!badges.isEmpty())
+                            db.mutate(badges);
+                    } else {
+                        db.mutate(badges.addMoney(gains + money));
                     }
                 } else {
                     stats.getData().incrementSlotsLose();
@@ -934,16 +946,22 @@ public class MoneyCmds {
                     }
                 }
 
-                event.getChannel().sendMessage(message).queue();
+                boolean saved;
                 if(isSeasonal) {
                     seasonalPlayer.addMoney(money);
-                    seasonalPlayer.saveAsync();
+                    //The global player too, due to badges.
+                    saved = seasonalPlayer.trySave() && player.trySave();
                 } else {
                     player.addMoney(money);
+                    saved = player.trySave();
                 }
 
-                //Due to badges.
-                player.saveAsync();
+                if(!saved) {
+                    event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                    return;
+                }
+
+                event.getChannel().sendMessage(message).queue();
             }
 
             @Override
@@ -961,22 +979,21 @@ public class MoneyCmds {
 
     private void proceedGamble(GuildMessageReceivedEvent event, I18nContext languageContext, Player player, int luck, Random r, long i, long gains, long bet) {
         PlayerStats stats = MantaroData.db().getPlayerStats(event.getMember());
+        boolean locked = player.isLocked();
+        String message;
 
         if(luck > r.nextInt(140)) {
             if(player.addMoney(gains)) {
                 if(gains > Integer.MAX_VALUE / 2) {
-                    if(!player.getData().hasBadge(Badge.GAMBLER)) {
-                        player.getData().addBadgeIfAbsent(Badge.GAMBLER);
-                        player.saveAsync();
-                    }
+                    player.getData().addBadgeIfAbsent(Badge.GAMBLER);
                 }
 
                 stats.incrementGambleWins();
                 stats.addGambleWin(gains);
 
-                event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "gamble.win"), EmoteReference.DICE, gains).queue();
+                message = String.format(languageContext.withRoot("commands", "gamble.win"), EmoteReference.DICE, gains);
             } else {
-                event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "gamble.win_overflow"), EmoteReference.DICE, gains).queue();
+                message = String.format(languageContext.withRoot("commands", "gamble.win_overflow"), EmoteReference.DICE, gains);
             }
         } else {
             if(bet == GAMBLE_MAX_MONEY) {
@@ -987,11 +1004,28 @@ public class MoneyCmds {
             player.setMoney(Math.max(0, player.getMoney() - i));
 
             stats.getData().incrementGambleLose();
-            event.getChannel().sendMessageFormat(languageContext.withRoot("commands", "gamble.lose"), EmoteReference.DICE, (player.getMoney() == 0 ? languageContext.withRoot("commands", "gamble.lose_all") + " " + oldMoney : i), EmoteReference.SAD).queue();
+            message = String.format(languageContext.withRoot("commands", "gamble.lose"), EmoteReference.DICE, (player.getMoney() == 0 ? languageContext.withRoot("commands", "gamble.lose_all") + " " + oldMoney : i), EmoteReference.SAD);
         }
 
         player.setLocked(false);
-        player.saveAsync();
+        if(!player.trySave()) {
+            //Something else wrote the player while this ran, so the bet never happened. Still unlock it if we locked it.
+            if(locked)
+                unlock(player.getUserId());
+
+            event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+            return;
+        }
+
         stats.saveAsync();
+        event.getChannel().sendMessage(message).queue();
+    }
+
+    //Unlocks the current copy of a player, whatever happened to the one we had.
+    private static void unlock(String userId) {
+        MantaroData.db().updatePlayer(userId, p -> {
+            p.setLocked(false);
+            return true;
+        });
     }
 }
@@ -24,6 +24,7 @@ import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.kodehawa.mantarobot.commands.moderation.ExpiryScheduler;
 import net.kodehawa.mantarobot.commands.moderation.ModLog;
 import net.kodehawa.mantarobot.core.CommandRegistry;
 import net.kodehawa.mantarobot.core.modules.Module;
@@ -35,11 +36,10 @@ import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
-import net.kodehawa.mantarobot.db.entities.MantaroObj;
+import net.kodehawa.mantarobot.db.entities.ExpiringAction;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.options.core.Option;
 import net.kodehawa.mantarobot.options.core.OptionType;
-import net.kodehawa.mantarobot.utils.Pair;
 import net.kodehawa.mantarobot.utils.StringUtils;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
@@ -103,7 +103,6 @@ public class MuteCmds {
                 //Regex from: Fabricio20
                 final String finalReason = muteTimePattern.matcher(reason).replaceAll("");
 
-                MantaroObj data = db.getMantaroData();
                 Member member = Utils.findMember(event, event.getMember(), affected);
                 if(member == null)
                     return;
@@ -130,8 +129,7 @@ public class MuteCmds {
                         return;
                     }
 
-                    data.getMutes().put(user.getIdLong(), Pair.of(event.getGuild().getId(), time));
-                    data.save();
+                    ExpiryScheduler.schedule(ExpiringAction.Type.MUTE, event.getGuild().getId(), user.getId(), time);
                     dbGuild.save();
                 } else {
                     if(time > 0) {
@@ -140,8 +138,7 @@ public class MuteCmds {
                             return;
                         }
 
-                        data.getMutes().put(user.getIdLong(), Pair.of(event.getGuild().getId(), time));
-                        data.save();
+                        ExpiryScheduler.schedule(ExpiringAction.Type.MUTE, event.getGuild().getId(), user.getId(), time);
                         dbGuild.save();
                     } else {
                         event.getChannel().sendMessageFormat(languageContext.get("commands.mute.no_time"), EmoteReference.ERROR).queue();
@@ -325,6 +322,7 @@ public class MuteCmds {
                     Member m = event.getGuild().getMember(user);
 
                     guildData.getMutedTimelyUsers().remove(user.getIdLong());
+                    ExpiryScheduler.cancel(ExpiringAction.Type.MUTE, event.getGuild().getId(), user.getId());
                     if(!event.getGuild().getSelfMember().canInteract(m)) {
                         event.getChannel().sendMessageFormat(languageContext.get("commands.mute.self_hierarchy_error"), EmoteReference.ERROR).queue();
                         return;
@@ -47,6 +47,7 @@ import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.MantaroObj;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.helpers.PlayerData;
+import net.kodehawa.mantarobot.services.BlacklistService;
 import net.kodehawa.mantarobot.utils.Pair;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
@@ -88,12 +89,14 @@ public class OwnerCmd {
                         obj.getBlackListedGuilds().add(args[2]);
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Blacklisted Guild: " + MantaroBot.getInstance().getGuildById(args[2])).queue();
                         obj.saveAsync();
+                        BlacklistService.update(obj);
                         return;
                     } else if(args[1].equals("remove")) {
                         if(!obj.getBlackListedGuilds().contains(args[2])) return;
                         obj.getBlackListedGuilds().remove(args[2]);
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Unblacklisted Guild: " + args[2]).queue();
                         obj.saveAsync();
+                        BlacklistService.update(obj);
                         return;
                     }
 
@@ -112,6 +115,7 @@ public class OwnerCmd {
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Blacklisted User: " + MantaroBot.getInstance().getUserById(args[2])).queue();
 
                         obj.saveAsync();
+                        BlacklistService.update(obj);
                         return;
                     } else if(args[1].equals("remove")) {
                         if(!obj.getBlackListedUsers().contains(args[2])) {
@@ -123,6 +127,7 @@ public class OwnerCmd {
                         event.getChannel().sendMessage(EmoteReference.CORRECT + "Unblacklisted User: " + MantaroBot.getInstance().getUserById(args[2])).queue();
 
                         obj.saveAsync();
+                        BlacklistService.update(obj);
                         return;
                     }
 
@@ -253,10 +253,20 @@ public class PetCmds {
                 }
 
                 Pet pet = generatePet(event.getAuthor().getId(), name);
-                playerData.getProfilePets().put(name, pet);
+                //The egg and the pet have to be saved together: if the player got written in the meantime, this gets done again on a fresh copy.
+                boolean incubated = managedDatabase.updatePlayer(event.getAuthor().getId(), p -> {
+                    if(!p.getInventory().containsItem(Items.INCUBATOR_EGG) || p.getData().getProfilePets().containsKey(name))
+                        return false;
+
+                    p.getData().getProfilePets().put(name, pet);
+                    p.getInventory().process(new ItemStack(Items.INCUBATOR_EGG, -1));
+                    return true;
+                });
 
-                player.getInventory().process(new ItemStack(Items.INCUBATOR_EGG, -1));
-                player.save();
+                if(!incubated) {
+                    event.getChannel().sendMessageFormat(languageContext.get("commands.petactions.incubate.no_egg"), EmoteReference.ERROR).queue();
+                    return;
+                }
 
                 event.getChannel().sendMessageFormat(languageContext.get("commands.petactions.incubate.success"), EmoteReference.POPPER, name, pet.getData().getId()).queue();
             }
@@ -326,8 +336,7 @@ public class PetCmds {
                     }
 
                     if(message.equalsIgnoreCase("yes")) {
-                        Player player2 = managedDatabase.getPlayer(event.getAuthor());
-                        PlayerData playerData2 = player.getData();
+                        PlayerData playerData2 = managedDatabase.getPlayer(event.getAuthor()).getData();
                         Map<String, Pet> playerPetsConfirmed = playerData2.getProfilePets();
                         if (!playerPetsConfirmed.containsKey(originalName)) {
                             event.getChannel().sendMessageFormat(languageContext.get("commands.petactions.rename.no_pet"), EmoteReference.ERROR).queue();
@@ -339,16 +348,22 @@ public class PetCmds {
                             return Operation.COMPLETED;
                         }
 
-                        if(player2.getMoney() < renameCost) {
+                        //The charge and the new name have to be saved together: if the player got written in the meantime, this gets done again on a fresh copy.
+                        boolean renamed = managedDatabase.updatePlayer(event.getAuthor().getId(), p -> {
+                            Map<String, Pet> pets = p.getData().getProfilePets();
+                            if(!pets.containsKey(originalName) || pets.containsKey(rename) || !p.removeMoney(renameCost))
+                                return false;
+
+                            pets.put(rename, pets.remove(originalName));
+                            return true;
+                        });
+
+                        if(!renamed) {
                             event.getChannel().sendMessageFormat(languageContext.get("commands.petactions.rename.not_enough_money"), EmoteReference.ERROR, renameCost).queue();
                             return Operation.COMPLETED;
                         }
 
-                        Pet renamedPet = playerData2.getProfilePets().remove(originalName);
-                        playerData2.getProfilePets().put(rename, renamedPet);
-                        player2.removeMoney(500);
-
-                        player2.save();
+                        Pet renamedPet = playerPetsConfirmed.get(originalName);
                         new MessageBuilder().setContent(String.format(languageContext.get("commands.petactions.rename.success"), EmoteReference.ERROR, originalName, rename, renamedPet.getData().getId(), renameCost))
                                 .stripMentions(event.getJDA())
                                 .sendTo(event.getChannel())
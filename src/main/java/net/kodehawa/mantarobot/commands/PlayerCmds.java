@@ -61,7 +61,6 @@ import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.commands.IncreasingRateLimiter;
 import net.kodehawa.mantarobot.utils.commands.RateLimit;
 import net.kodehawa.mantarobot.utils.commands.RateLimiter;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
@@ -83,7 +82,6 @@ import static net.kodehawa.mantarobot.utils.Utils.*;
 @Module
 @SuppressWarnings("unused")
 public class PlayerCmds {
-    private final OkHttpClient client = new OkHttpClient();
 
     @Subscribe
     public void rep(CommandRegistry cr) {
@@ -154,7 +152,10 @@ public class PlayerCmds {
 
                 UnifiedPlayer player = UnifiedPlayer.of(user, getConfig().getCurrentSeason());
                 player.addReputation(1L);
-                player.save();
+                if(!player.save()) {
+                    event.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                    return;
+                }
 
                 new MessageBuilder().setContent(String.format(languageContext.get("commands.rep.success"), EmoteReference.CORRECT,  member.getEffectiveName()))
                         .stripMentions(event.getGuild(), Message.MentionType.EVERYONE, Message.MentionType.HERE)
@@ -810,7 +811,7 @@ public class PlayerCmds {
                 url = url.substring(0, url.length() - 3) + "png";
             }
 
-            Response res = client.newCall(new Request.Builder()
+            Response res = httpClient.newCall(new Request.Builder()
                     .url(url)
                     .addHeader("User-Agent", MantaroInfo.USER_AGENT)
                     .build()
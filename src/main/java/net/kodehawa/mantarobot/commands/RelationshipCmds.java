@@ -46,6 +46,7 @@ import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
+import net.kodehawa.mantarobot.db.Mutation;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.DBUser;
 import net.kodehawa.mantarobot.db.entities.Marriage;
@@ -194,7 +195,6 @@ public class RelationshipCmds {
                                 //USE THOSE VARIABLES TO MODIFY DATA, NOT THE ONES USED TO CHECK BEFORE THE CONFIRMATION MESSAGE. THIS IS EXTREMELY IMPORTANT.
                                 //Else we end up with really annoying to debug bugs, lol.
                                 Player proposingPlayer = managedDatabase.getPlayer(proposingUser);
-                                Player proposedToPlayer = managedDatabase.getPlayer(proposedToUser);
                                 DBUser proposingUserDB = managedDatabase.getUser(proposingUser);
                                 DBUser proposedToUserDB = managedDatabase.getUser(proposedToUser);
 
@@ -216,20 +216,20 @@ public class RelationshipCmds {
                                 // ---------------- START OF INVENTORY CHECKS ----------------
                                 //LAST inventory check and ring assignment is gonna happen using those.
                                 final Inventory proposingPlayerFinalInventory = proposingPlayer.getInventory();
-                                final Inventory proposedToPlayerInventory = proposedToPlayer.getInventory();
 
                                 if(proposingPlayerFinalInventory.getAmount(Items.RING) < 2) {
                                     event.getChannel().sendMessageFormat(languageContext.get("commands.marry.ring_check_fail"), EmoteReference.ERROR).queue();
                                     return Operation.COMPLETED;
                                 }
 
-                                //Remove the ring from the proposing player inventory.
-                                proposingPlayerFinalInventory.process(new ItemStack(Items.RING, -1));
-
-                                //Silently scrape the rings if the receipt has more than 5000 rings.
-                                if(proposedToPlayerInventory.getAmount(Items.RING) < 5000) {
-                                    proposedToPlayerInventory.process(new ItemStack(Items.RING, 1));
+                                //Remove the ring from the proposing player inventory. Done by the db, as the rings could have been used since we loaded the player.
+                                if(managedDatabase.mutate(Mutation.player(proposingUser.getId()).addItem(Items.RING, -1)) == null) {
+                                    event.getChannel().sendMessageFormat(languageContext.get("commands.marry.ring_check_fail"), EmoteReference.ERROR).queue();
+                                    return Operation.COMPLETED;
                                 }
+
+                                //Silently scrape the rings if the receipt has more than 5000 rings (the mutation just gets rejected).
+                                managedDatabase.mutate(Mutation.player(proposedToUser.getId()).addItem(Items.RING, 1));
                                 // ---------------- END OF INVENTORY CHECKS ----------------
 
                                 // ---------------- START OF MARRIAGE ASSIGNMENT ----------------
@@ -254,20 +254,12 @@ public class RelationshipCmds {
                                         EmoteReference.POPPER, ie.getAuthor().getName(), ie.getAuthor().getDiscriminator(), proposingUser.getName(), proposingUser.getDiscriminator()
                                 ).queue();
 
-                                //Add the badge to the married couple.
-                                proposingPlayer.getData().addBadgeIfAbsent(Badge.MARRIED);
-                                proposedToPlayer.getData().addBadgeIfAbsent(Badge.MARRIED);
-
-                                //Give a love letter both to the proposing player and the one who was proposed to.
-                                if(proposingPlayerFinalInventory.getAmount(Items.LOVE_LETTER) < 5000)
-                                    proposingPlayerFinalInventory.process(new ItemStack(Items.LOVE_LETTER, 1));
-
-                                if(proposedToPlayerInventory.getAmount(Items.LOVE_LETTER) < 5000)
-                                    proposedToPlayerInventory.process(new ItemStack(Items.LOVE_LETTER, 1));
-
-                                //Badge assignment saving.
-                                proposingPlayer.save();
-                                proposedToPlayer.save();
+                                //Add the badge to the married couple, and give a love letter both to the proposing player and the one who was proposed to.
+                                //The letters are separate mutations, so someone who already has 5000 of them still gets the badge.
+                                for(User user : new User[] { proposingUser, proposedToUser }) {
+                                    managedDatabase.mutate(Mutation.player(user.getId()).addBadge(Badge.MARRIED));
+                                    managedDatabase.mutate(Mutation.player(user.getId()).addItem(Items.LOVE_LETTER, 1));
+                                }
 
                                 return Operation.COMPLETED;
                             }
@@ -23,6 +23,7 @@ import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.MessageBuilder;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.User;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
@@ -44,6 +45,7 @@ import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.db.entities.ReminderObj;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.utils.DiscordUtils;
 import net.kodehawa.mantarobot.utils.StringUtils;
@@ -127,6 +129,11 @@ public class UtilsCmds {
                         String birthdayFormat = format1.format(bd1);
                         user.getData().setBirthday(birthdayFormat);
                         user.save();
+
+                        BirthdayCacher cacher = MantaroBot.getInstance().getBirthdayCacher();
+                        if(cacher != null)
+                            cacher.add(event.getAuthor().getIdLong(), birthdayFormat);
+
                         event.getChannel().sendMessageFormat(languageContext.get("commands.birthday.added_birthdate"), EmoteReference.CORRECT, birthdayFormat).queue();
                     }
                 };
@@ -153,6 +160,11 @@ public class UtilsCmds {
                 DBUser user = MantaroData.db().getUser(event.getAuthor());
                 user.getData().setBirthday(null);
                 user.save();
+
+                BirthdayCacher cacher = MantaroBot.getInstance().getBirthdayCacher();
+                if(cacher != null)
+                    cacher.remove(event.getAuthor().getIdLong());
+
                 event.getChannel().sendMessageFormat(languageContext.get("commands.birthday.reset"), EmoteReference.CORRECT).queue();
             }
         });
@@ -198,27 +210,18 @@ public class UtilsCmds {
                     //Why would this happen is out of my understanding.
                     if(cacher != null) {
                         //same as above unless testing?
-                        if(cacher.cachedBirthdays.isEmpty()) {
+                        if(cacher.isEmpty()) {
                             event.getChannel().sendMessageFormat(languageContext.get("commands.birthday.no_global_birthdays"), EmoteReference.SAD).queue();
                             return;
                         }
 
-                        //O(1) lookups. Probably.
-                        HashSet<String> ids = event.getGuild().getMemberCache().stream().map(m -> m.getUser().getId()).collect(Collectors.toCollection(HashSet::new));
-                        Map<String, BirthdayCacher.BirthdayData> guildCurrentBirthdays = new HashMap<>();
-
-                        //Try not to die. I mean get calendar month and sum 1.
-                        String calendarMonth = String.valueOf(calendar.get(Calendar.MONTH) + 1);
-                        String currentMonth = (calendarMonth.length() == 1 ? 0 : "") + calendarMonth;
-
-                        //~100k repetitions rip
-                        for(Map.Entry<String, BirthdayCacher.BirthdayData> birthdays : cacher.cachedBirthdays.entrySet()) {
-                            //Why was the birthday saved on this outdated format again?
-                            //Check if this guild contains x user and that the month matches.
-                            if(ids.contains(birthdays.getKey()) && birthdays.getValue().month.equals(currentMonth)) {
-                                //Insert into current month bds.
-                                guildCurrentBirthdays.put(birthdays.getKey(), birthdays.getValue());
-                            }
+                        //Only the people born this month, then check if they're on this guild.
+                        Map<Member, BirthdayCacher.BirthdayData> guildCurrentBirthdays = new HashMap<>();
+                        for(long id : cacher.getByMonth(calendar.get(Calendar.MONTH) + 1)) {
+                            Member member = event.getGuild().getMemberById(id);
+                            BirthdayCacher.BirthdayData data = cacher.get(id);
+                            if(member != null && data != null)
+                                guildCurrentBirthdays.put(member, data);
                         }
 
                         //No birthdays to be seen here? (This month)
@@ -229,8 +232,8 @@ public class UtilsCmds {
 
                         //Build the message.
                         String birthdays = guildCurrentBirthdays.entrySet().stream()
-                                .sorted(Comparator.comparingInt(i -> Integer.parseInt(i.getValue().day)))
-                                .map((entry) -> String.format("+ %-20s : %s ", event.getGuild().getMemberById(entry.getKey()).getEffectiveName(), entry.getValue().getBirthday()))
+                                .sorted(Comparator.comparingInt(i -> i.getValue().dayOfYear))
+                                .map((entry) -> String.format("+ %-20s : %s ", entry.getKey().getEffectiveName(), entry.getValue().getBirthday()))
                                 .collect(Collectors.joining("\n"));
 
                         List<String> parts = DiscordUtils.divideString(1000, birthdays);
@@ -312,7 +315,7 @@ public class UtilsCmds {
                 String definition, part_of_speech, headword, example;
 
                 try {
-                    main = new JSONObject(Utils.wgetOkHttp("http://api.pearson.com/v2/dictionaries/laes/entries?headword=" + word));
+                    main = new JSONObject(Utils.wgetOkHttp("http://api.pearson.com/v2/dictionaries/laes/entries?headword=" + word, 1, TimeUnit.HOURS));
                     JSONArray results = main.getJSONArray("results");
                     JSONObject result = results.getJSONObject(0);
                     JSONArray senses = result.getJSONArray("senses");
@@ -417,15 +420,13 @@ public class UtilsCmds {
                                 .stripMentions(event.getGuild(), Message.MentionType.EVERYONE, Message.MentionType.ROLE, Message.MentionType.HERE)
                                 .sendTo(event.getChannel()).queue();
 
-                        //TODO save to db
                         new Reminder.Builder()
                                 .id(user.getId())
                                 .guild(event.getGuild().getId())
                                 .reminder(toRemind)
                                 .current(System.currentTimeMillis())
                                 .time(time + System.currentTimeMillis())
-                                .build()
-                                .schedule(); //automatic
+                                .schedule();
                     }
                 };
             }
@@ -450,16 +451,16 @@ public class UtilsCmds {
 
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
-                List<Reminder> reminders = Reminder.CURRENT_REMINDERS.get(event.getAuthor().getId());
+                List<ReminderObj> reminders = Reminder.getReminders(event.getAuthor().getId());
 
-                if(reminders == null || reminders.isEmpty()) {
+                if(reminders.isEmpty()) {
                     event.getChannel().sendMessageFormat(languageContext.get("commands.remindme.no_reminders"), EmoteReference.ERROR).queue();
                     return;
                 }
 
                 StringBuilder builder = new StringBuilder();
                 AtomicInteger i = new AtomicInteger();
-                for(Reminder r : reminders) {
+                for(ReminderObj r : reminders) {
                     builder.append("**").append(i.incrementAndGet()).append(".-**").append("R: *").append(r.reminder).append("*, Due in: **")
                             .append(Utils.getHumanizedTime(r.time - System.currentTimeMillis())).append("**").append("\n");
                 }
@@ -481,7 +482,7 @@ public class UtilsCmds {
             @Override
             protected void call(GuildMessageReceivedEvent event, I18nContext languageContext, String content) {
                 try {
-                    List<Reminder> reminders = Reminder.CURRENT_REMINDERS.get(event.getAuthor().getId());
+                    List<ReminderObj> reminders = Reminder.getReminders(event.getAuthor().getId());
 
                     if(reminders.isEmpty()) {
                         event.getChannel().sendMessageFormat(languageContext.get("commands.remindme.no_reminders"), EmoteReference.ERROR).queue();
@@ -489,7 +490,7 @@ public class UtilsCmds {
                     }
 
                     if(reminders.size() == 1) {
-                        reminders.get(0).cancel();
+                        Reminder.cancel(reminders.get(0));
                         event.getChannel().sendMessageFormat(languageContext.get("commands.remindme.cancel.success"), EmoteReference.CORRECT).queue();
                     } else {
                         reminders = reminders.stream().filter(reminder -> reminder.time - System.currentTimeMillis() > 3).collect(Collectors.toList());
@@ -499,7 +500,7 @@ public class UtilsCmds {
                                         .setDescription(r1)
                                         .setFooter(String.format(languageContext.get("general.timeout"), 10), null).build(),
                                 sr -> {
-                                    sr.cancel();
+                                    Reminder.cancel(sr);
                                     event.getChannel().sendMessage(EmoteReference.CORRECT + "Cancelled your reminder").queue();
                                 });
                     }
@@ -567,7 +568,7 @@ public class UtilsCmds {
                     url = "http://api.urbandictionary.com/v0/define?term=" + URLEncoder.encode(commandArguments[0], "UTF-8");
                 } catch(UnsupportedEncodingException ignored) { }
 
-                String json = Utils.wgetOkHttp(url);
+                String json = Utils.wgetOkHttp(url, 10, TimeUnit.MINUTES);
                 UrbanData data = GsonDataManager.GSON_PRETTY.fromJson(json, UrbanData.class);
 
                 if (commandArguments.length > 2) {
@@ -642,7 +643,7 @@ public class UtilsCmds {
                                             "http://api.openweathermap.org/data/2.5/weather?q=%s&appid=%s",
                                             URLEncoder.encode(content, "UTF-8"),
                                             MantaroData.config().get().weatherAppId
-                                    )
+                                    ), 5, TimeUnit.MINUTES
                             ),
                             WeatherData.class
                     );
@@ -21,13 +21,16 @@ import lombok.extern.slf4j.Slf4j;
 import net.kodehawa.mantarobot.MantaroInfo;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.utils.Utils;
-import okhttp3.OkHttpClient;
+import net.kodehawa.mantarobot.utils.http.Http;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.apache.commons.lang3.tuple.Pair;
 import org.json.JSONObject;
 
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static net.kodehawa.mantarobot.utils.Utils.httpClient;
 
 @Slf4j
 public class WeebAPIRequester {
@@ -36,7 +39,6 @@ public class WeebAPIRequester {
     private final String API_BASE_URL = "https://api.weeb.sh/images";
     private final String AUTH_HEADER = "Bearer " + MantaroData.config().get().weebapiKey;
     private final String RANDOM_IMAGE = "/random";
-    private final OkHttpClient httpClient = new OkHttpClient();
 
     public Pair<String, String> getRandomImageByType(String type, boolean nsfw, String filetype) {
         HashMap<String, Object> queryParams = new HashMap<>();
@@ -49,7 +51,7 @@ public class WeebAPIRequester {
         if(filetype != null)
             queryParams.put("filetype", filetype);
 
-        String r = request(RANDOM_IMAGE, Utils.urlEncodeUTF8(queryParams));
+        String r = request(RANDOM_IMAGE, Utils.urlEncodeUTF8(queryParams), false);
         if(r == null)
             return Pair.of(null, null);
 
@@ -69,7 +71,7 @@ public class WeebAPIRequester {
         if(filetype != null)
             queryParams.put("filetype", filetype);
 
-        String r = request(RANDOM_IMAGE, Utils.urlEncodeUTF8(queryParams));
+        String r = request(RANDOM_IMAGE, Utils.urlEncodeUTF8(queryParams), false);
         if(r == null)
             return null;
 
@@ -77,7 +79,7 @@ public class WeebAPIRequester {
     }
 
     public JSONObject getTypes() {
-        String r = request(ALL_TYPES, null);
+        String r = request(ALL_TYPES, null, true);
         if(r == null)
             return null;
 
@@ -85,14 +87,15 @@ public class WeebAPIRequester {
     }
 
     public JSONObject getTags() {
-        String r = request(ALL_TAGS, null);
+        String r = request(ALL_TAGS, null, true);
         if(r == null)
             return null;
 
         return new JSONObject(r);
     }
 
-    private String request(String endpoint, String e) {
+    //Random images can't be shared between requests, but the tag and type lists can.
+    private String request(String endpoint, String e, boolean shared) {
         try {
             StringBuilder builder = new StringBuilder(endpoint);
             if(e != null) {
@@ -106,6 +109,9 @@ public class WeebAPIRequester {
                     .addHeader("Authorization", AUTH_HEADER)
                     .build();
 
+            if(shared)
+                return Http.fetch(r, 1, TimeUnit.HOURS).string();
+
             Response r1 = httpClient.newCall(r).execute();
             String response = r1.body().string();
 
@@ -23,16 +23,15 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 import net.kodehawa.mantarobot.MantaroInfo;
+import net.kodehawa.mantarobot.utils.http.Http;
 import okhttp3.Request;
-import okhttp3.Response;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
-
-import static net.kodehawa.mantarobot.utils.Utils.httpClient;
+import java.util.concurrent.TimeUnit;
 
 public class KitsuRetriever {
     private static Gson gson = new Gson();
@@ -45,9 +44,8 @@ public class KitsuRetriever {
                     .get()
                     .build();
 
-            Response response = httpClient.newCall(request).execute();
-            String body = response.body().string();
-            response.close();
+            //Searches don't change often, and the same one tends to be repeated by a few people.
+            String body = Http.fetch(request, 1, TimeUnit.HOURS).string();
 
             Type collectionType = new TypeToken<List<CharacterData>>() {}.getType();
 
@@ -67,9 +65,7 @@ public class KitsuRetriever {
                     .get()
                     .build();
 
-            Response response = httpClient.newCall(request).execute();
-            String body = response.body().string();
-            response.close();
+            String body = Http.fetch(request, 1, TimeUnit.HOURS).string();
 
             Type collectionType = new TypeToken<List<AnimeData>>() {}.getType();
 
@@ -53,6 +53,9 @@ public class Item {
     private String alias;
     @Getter
     private boolean petOnly;
+    //Position on Items.ALL, which is what gets saved on inventories. -1 if the item isn't there.
+    @Getter
+    private int id = -1;
     
     public Item(ItemType type, String emoji, String name, String alias, String translatedName, String desc, long value, boolean sellable, boolean buyable, boolean hidden, long maxSize, TriPredicate<GuildMessageReceivedEvent, Pair<I18nContext, String>, Boolean> action, String recipe, boolean petOnly, int... recipeTypes) {
         this.emoji = emoji;
@@ -186,4 +189,8 @@ public class Item {
     public long maxSize() {
         return maxSize;
     }
+
+    void setId(int id) {
+        this.id = id;
+    }
 }
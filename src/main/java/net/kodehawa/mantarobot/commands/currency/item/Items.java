@@ -195,6 +195,14 @@ public class Items {
 
     };
 
+    static {
+        for(int i = 0; i < ALL.length; i++) {
+            //Same as the index lookup this replaced: the first position wins.
+            if(ALL[i].getId() == -1)
+                ALL[i].setId(i);
+        }
+    }
+
 
     public static void setItemActions() {
         final SecureRandom random = new SecureRandom();
@@ -513,7 +521,7 @@ public class Items {
     }
 
     public static int idOf(Item item) {
-        return Arrays.asList(ALL).indexOf(item);
+        return item.getId();
     }
 
     private static boolean openLootCrate(GuildMessageReceivedEvent event, I18nContext lang, ItemType.LootboxType type, int item, EmoteReference typeEmote, int bound, boolean season) {
@@ -695,13 +703,12 @@ public class Items {
                 playerInventory.process(new ItemStack(brokenItem, 1));
             }
 
-            event.getChannel().sendMessageFormat(lang.get("commands.mine.pick_broke") + broken, EmoteReference.SAD).queue();
-
-            if(isSeasonal)
-                seasonPlayer.save();
-            else
-                player.save();
+            if(!(isSeasonal ? seasonPlayer.trySave() : player.trySave())) {
+                event.getChannel().sendMessageFormat(lang.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                return false;
+            }
 
+            event.getChannel().sendMessageFormat(lang.get("commands.mine.pick_broke") + broken, EmoteReference.SAD).queue();
             return false;
         } else {
             return true;
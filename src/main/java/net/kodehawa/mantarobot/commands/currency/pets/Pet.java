@@ -30,8 +30,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import static net.kodehawa.mantarobot.db.entities.helpers.Inventory.Resolver.unserialize;
-
 @Getter
 @Setter
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -62,7 +60,7 @@ public class Pet {
         this.data = data;
         this.element = element;
         this.age = age;
-        this.petInventory.replaceWith(unserialize(inventory));
+        this.petInventory.replaceWith(inventory);
     }
 
     public static Pet create(String owner, String name, Type element) {
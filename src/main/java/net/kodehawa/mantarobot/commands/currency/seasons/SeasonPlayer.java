@@ -25,7 +25,7 @@ import lombok.Setter;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
 import net.kodehawa.mantarobot.commands.currency.seasons.helpers.SeasonalPlayerData;
-import net.kodehawa.mantarobot.db.ManagedObject;
+import net.kodehawa.mantarobot.db.VersionedObject;
 import net.kodehawa.mantarobot.db.entities.helpers.Inventory;
 
 import javax.annotation.Nonnull;
@@ -33,10 +33,7 @@ import java.beans.ConstructorProperties;
 import java.util.HashMap;
 import java.util.Map;
 
-import static net.kodehawa.mantarobot.db.entities.helpers.Inventory.Resolver.serialize;
-import static net.kodehawa.mantarobot.db.entities.helpers.Inventory.Resolver.unserialize;
-
-public class SeasonPlayer implements ManagedObject {
+public class SeasonPlayer implements VersionedObject {
     public static final String DB_TABLE = "seasonalplayers";
     @Getter
     private final SeasonalPlayerData data;
@@ -50,6 +47,11 @@ public class SeasonPlayer implements ManagedObject {
     private Long reputation;
     @Getter
     private Season season;
+    //How many times this player was written, see VersionedObject.
+    @Getter
+    @Setter
+    @JsonProperty("version")
+    private long version;
     private final transient Inventory inventory = new Inventory();
 
     @JsonCreator
@@ -60,7 +62,7 @@ public class SeasonPlayer implements ManagedObject {
         this.season = season;
         this.reputation = reputation == null ? 0 : reputation;
         this.data = data;
-        this.inventory.replaceWith(unserialize(inventory));
+        this.inventory.replaceWith(inventory);
     }
 
     public static SeasonPlayer of(User user, Season season) {
@@ -139,7 +141,7 @@ public class SeasonPlayer implements ManagedObject {
 
     @JsonProperty("inventory")
     public Map<Integer, Integer> rawInventory() {
-        return serialize(inventory.asList());
+        return inventory.asRawMap();
     }
 
     @JsonIgnore
@@ -101,9 +101,14 @@ public class UnifiedPlayer {
         return true;
     }
 
-    public void save() {
-        player.save();
-        seasonalPlayer.save();
+    /**
+     * Saves both players right away.
+     *
+     * @return False if either save got rejected because the player was written since it was loaded, see {@link Player#trySave()}.
+     */
+    public boolean save() {
+        //Seasonal first: if it gets rejected the global one (the one that matters) isn't saved either, so nothing changed.
+        return seasonalPlayer.trySave() && player.trySave();
     }
 
     public void saveAsync() {
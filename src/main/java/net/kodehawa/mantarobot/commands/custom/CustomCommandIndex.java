@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.commands.custom;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import io.prometheus.client.Counter;
+import net.kodehawa.mantarobot.db.entities.CustomCommand;
+
+import javax.annotation.Nullable;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static net.kodehawa.mantarobot.data.MantaroData.db;
+
+/**
+ * Keeps the names of the custom commands of every active guild in memory, so a message that doesn't match any custom command
+ * (a typo, or another bot's prefix) doesn't need a database lookup to find that out.
+ * Only the names get loaded for a guild; the commands themselves get loaded (and cached) the first time they're used.
+ * <p>
+ * {@link CustomCommand} updates this on every save and delete, so adding, removing or renaming a command is reflected right away.
+ * Async saves and deletes update it again once they're written, so a guild that got loaded while one was still on its way doesn't stay cached
+ * without it. Guilds that haven't been used in a while get evicted.
+ */
+public class CustomCommandIndex {
+    private static final Counter lookups = Counter.build()
+            .name("custom_command_lookups").help("Custom command lookups (hit, miss)")
+            .labelNames("result")
+            .register();
+
+    private static final Cache<String, Set<String>> names = CacheBuilder.newBuilder()
+            .maximumSize(20000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+    //Counts saves and deletes, per group of guilds. Used to tell if one happened while the names of a guild were being loaded.
+    private static final AtomicLongArray writes = new AtomicLongArray(1024);
+
+    //Keyed by the command id. Optional.empty() means the command is in the index but it wasn't found on the db.
+    private static final LoadingCache<String, Optional<CustomCommand>> commands = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build(new CacheLoader<String, Optional<CustomCommand>>() {
+                @Override
+                public Optional<CustomCommand> load(String id) {
+                    String[] parts = id.split(":", 2);
+                    return Optional.ofNullable(db().getCustomCommand(parts[0], parts[1]));
+                }
+            });
+
+    /**
+     * @param guildId The guild to look in.
+     * @param name    The name of the command.
+     * @return Whether the guild has a custom command with this name.
+     */
+    public static boolean exists(String guildId, String name) {
+        boolean exists = names(guildId).contains(name);
+        lookups.labels(exists ? "hit" : "miss").inc();
+        return exists;
+    }
+
+    /**
+     * @param guildId The guild to look in.
+     * @param name    The name of the command.
+     * @return The custom command, or null if the guild doesn't have a command with this name.
+     */
+    @Nullable
+    public static CustomCommand get(String guildId, String name) {
+        if(!exists(guildId, name))
+            return null;
+
+        return commands.getUnchecked(guildId + ":" + name).orElse(null);
+    }
+
+    /**
+     * Called when a custom command gets saved, and again once an async save got written.
+     */
+    public static void saved(CustomCommand command) {
+        //Before looking for the set: a load that already started will see this and drop what it loaded.
+        writes.incrementAndGet(stripe(command.getGuildId()));
+        Set<String> set = names.getIfPresent(command.getGuildId());
+        //If the guild isn't loaded, it'll pick this up when it gets loaded.
+        if(set != null) {
+            set.add(command.getName());
+        }
+
+        commands.put(command.getId(), Optional.of(command));
+    }
+
+    /**
+     * Called when a custom command gets deleted, and again once an async delete got written.
+     */
+    public static void deleted(CustomCommand command) {
+        writes.incrementAndGet(stripe(command.getGuildId()));
+        Set<String> set = names.getIfPresent(command.getGuildId());
+        if(set != null) {
+            set.remove(command.getName());
+        }
+
+        commands.invalidate(command.getId());
+    }
+
+    private static Set<String> names(String guildId) {
+        Set<String> set = names.getIfPresent(guildId);
+        if(set != null)
+            return set;
+
+        long[] loadedAt = {-1};
+        try {
+            set = names.get(guildId, () -> {
+                loadedAt[0] = writes.get(stripe(guildId));
+                Set<String> loaded = ConcurrentHashMap.newKeySet();
+                loaded.addAll(db().getCustomCommandNames(guildId));
+                return loaded;
+            });
+        } catch(ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        //A command got saved or deleted while we were loading (saved and deleted can't update a set that isn't cached yet), so this might
+        //be missing it: load it again next time.
+        if(loadedAt[0] >= 0 && writes.get(stripe(guildId)) != loadedAt[0]) {
+            names.asMap().remove(guildId, set);
+        }
+
+        return set;
+    }
+
+    private static int stripe(String guildId) {
+        return (guildId.hashCode() & Integer.MAX_VALUE) % writes.length();
+    }
+}
@@ -16,103 +16,136 @@
 
 package net.kodehawa.mantarobot.commands.custom.legacy;
 
+import com.google.common.base.Suppliers;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.events.guild.member.GenericGuildMemberEvent;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 
 import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.Set;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static net.kodehawa.mantarobot.utils.StringUtils.splitArgs;
-import static net.kodehawa.mantarobot.utils.Utils.iterate;
 import static org.apache.commons.lang3.StringUtils.capitalize;
 
+/**
+ * The variables available to custom commands and greeting/level up messages.
+ * Values are only computed when something asks for them (and then remembered), as most messages only use one or two of them.
+ * Computed values behave like regular entries of this map, but the ones nobody asked for yet don't show up when iterating it.
+ */
 public class DynamicModifiers extends LinkedHashMap<String, String> {
     private static final long serialVersionUID = 1;
     private static final Pattern GETTER_MODIFIER = Pattern.compile("\\$\\([A-Za-z0-9.]+?\\)");
+    private static final Pattern BACKSLASH = Pattern.compile("[^\\\\]\\\\[^\\\\]");
+
+    private final transient Map<String, Supplier<String>> lazy = new HashMap<>();
 
     private static String k(String... parts) {
         return String.join(".", parts);
     }
 
+    /**
+     * Replaces every $(variable) in the string, in a single pass. Unknown variables get replaced with their name.
+     */
     public String resolve(String string) {
         if (!string.contains("$("))
             return string;
 
-        Set<String> dejaVu = new HashSet<>();
-        for (String key : iterate(GETTER_MODIFIER, string)) {
-            if (dejaVu.contains(key)) continue;
-            String mapKey = key.substring(2, key.length() - 1);
-            string = string.replace(key, getOrDefault(mapKey, mapKey).replaceAll("[^\\\\]\\\\[^\\\\]","\\\\"));
-            if (!string.contains("$(")) break;
-            dejaVu.add(key);
-        }
+        Matcher matcher = GETTER_MODIFIER.matcher(string);
+        if (!matcher.find())
+            return string;
 
-        return string;
+        StringBuilder sb = new StringBuilder(string.length());
+        int last = 0;
+        do {
+            String key = matcher.group();
+            String mapKey = key.substring(2, key.length() - 1);
+            String value = getOrDefault(mapKey, mapKey);
+            //Channels without a topic, for example.
+            if (value == null) {
+                value = "";
+            } else if (value.indexOf('\\') != -1) {
+                value = BACKSLASH.matcher(value).replaceAll("\\\\");
+            }
+
+            sb.append(string, last, matcher.start()).append(value);
+            last = matcher.end();
+        } while (matcher.find());
+
+        return sb.append(string, last, string.length()).toString();
     }
 
     public DynamicModifiers mapGuild(String prefix, Guild guild) {
         return this
-            .set(prefix, guild.getName())
-            .set(prefix, "name", guild.getName())
-            .mapMember(k(prefix, "owner"), guild.getOwner())
-            .set(prefix, "region", guild.getRegion().getName())
-            .set(prefix, "totalusers", String.valueOf(guild.getMembers().size()));
+            .set(prefix, guild::getName)
+            .set(prefix, "name", guild::getName)
+            .mapMember(k(prefix, "owner"), guild::getOwner)
+            .set(prefix, "region", () -> guild.getRegion().getName())
+            .set(prefix, "totalusers", () -> String.valueOf(guild.getMemberCache().size()));
     }
 
     public DynamicModifiers mapMember(String prefix, Member member) {
+        return mapMember(prefix, () -> member);
+    }
+
+    private DynamicModifiers mapMember(String prefix, Supplier<Member> supplier) {
+        Supplier<Member> member = Suppliers.memoize(supplier::get);
         return this
-                .set(prefix, member.getAsMention())
-                .set(prefix, "username", member.getUser().getName())
-                .set(prefix, "discriminator", member.getUser().getDiscriminator())
-                .set(prefix, "name", member.getEffectiveName())
+                .set(prefix, () -> member.get().getAsMention())
+                .set(prefix, "username", () -> member.get().getUser().getName())
+                .set(prefix, "discriminator", () -> member.get().getUser().getDiscriminator())
+                .set(prefix, "name", () -> member.get().getEffectiveName())
                 //TODO: i want this to compile already come on
                 //.set(prefix, "game", member.getGame() != null ? member.getGame().getName() : "None")
-                .set(prefix, "status", capitalize(member.getOnlineStatus().getKey()))
-                .set(prefix, "mention", member.getAsMention())
-                .set(prefix, "avatar", member.getUser().getEffectiveAvatarUrl())
-                .set(prefix, "id", member.getUser().getId());
+                .set(prefix, "status", () -> capitalize(member.get().getOnlineStatus().getKey()))
+                .set(prefix, "mention", () -> member.get().getAsMention())
+                .set(prefix, "avatar", () -> member.get().getUser().getEffectiveAvatarUrl())
+                .set(prefix, "id", () -> member.get().getUser().getId());
     }
 
     public DynamicModifiers mapEvent(String botPrefix, String prefix, GuildMessageReceivedEvent event) {
-        return this.set(prefix, event.getMember().getAsMention() + "@" + event.getChannel().getAsMention())
-                .set(prefix, "timestamp", new Date(System.currentTimeMillis()).toString())
+        return this.set(prefix, () -> event.getMember().getAsMention() + "@" + event.getChannel().getAsMention())
+                .set(prefix, "timestamp", () -> new Date(System.currentTimeMillis()).toString())
                 .mapChannel(k(prefix, "channel"), event.getChannel())
                 .mapGuild(k(prefix, "guild"), event.getGuild())
-                .mapMember(k(prefix, "me"), event.getGuild().getSelfMember())
-                .mapMember(k(prefix, "author"), event.getMember())
-                .mapMessage(k(prefix, "message"), new CustomMessage(event.getMessage(), botPrefix));
+                .mapMember(k(prefix, "me"), event.getGuild()::getSelfMember)
+                .mapMember(k(prefix, "author"), event::getMember)
+                .mapMessage(k(prefix, "message"), () -> new CustomMessage(event.getMessage(), botPrefix));
     }
 
     public DynamicModifiers mapEvent(String prefix, GenericGuildMemberEvent event) {
         return this
-            .set(prefix, event.getMember().getAsMention() + "@" + event.getGuild().getName())
+            .set(prefix, () -> event.getMember().getAsMention() + "@" + event.getGuild().getName())
             .mapGuild(k(prefix, "guild"), event.getGuild())
-            .mapMember(k(prefix, "me"), event.getGuild().getSelfMember())
-            .mapMember(k(prefix, "user"), event.getMember());
+            .mapMember(k(prefix, "me"), event.getGuild()::getSelfMember)
+            .mapMember(k(prefix, "user"), event::getMember);
     }
 
     public DynamicModifiers mapMessage(String prefix, CustomMessage message) {
+        return mapMessage(prefix, () -> message);
+    }
+
+    private DynamicModifiers mapMessage(String prefix, Supplier<CustomMessage> supplier) {
+        Supplier<CustomMessage> message = Suppliers.memoize(supplier::get);
         return this
-            .set(prefix, message.getContentRaw())
-            .set(prefix, "raw", message.getContentRaw())
-            .set(prefix, "textual", message.getContentDisplay())
-            .set(prefix, "stripped", message.getContentStripped());
+            .set(prefix, () -> message.get().getContentRaw())
+            .set(prefix, "raw", () -> message.get().getContentRaw())
+            .set(prefix, "textual", () -> message.get().getContentDisplay())
+            .set(prefix, "stripped", () -> message.get().getContentStripped());
     }
 
     public DynamicModifiers mapChannel(String prefix, TextChannel channel) {
         return this
-            .set(prefix, channel.getAsMention())
-            .set(prefix, "topic", channel.getTopic())
-            .set(prefix, "name", channel.getName())
-            .set(prefix, "id", channel.getId())
-            .set(prefix, "mention", channel.getAsMention());
+            .set(prefix, channel::getAsMention)
+            .set(prefix, "topic", channel::getTopic)
+            .set(prefix, "name", channel::getName)
+            .set(prefix, "id", channel::getId)
+            .set(prefix, "mention", channel::getAsMention);
     }
 
     public DynamicModifiers set(String key, String value) {
@@ -125,4 +158,48 @@ public class DynamicModifiers extends LinkedHashMap<String, String> {
     public DynamicModifiers set(String prefix, String key, String value) {
         return set(k(prefix, key), value);
     }
+
+    /**
+     * Sets a variable whose value will be computed the first time it's used.
+     */
+    public DynamicModifiers set(String key, Supplier<String> value) {
+        if (!containsKey(key))
+            lazy.put(key, value);
+
+        return this;
+    }
+
+    public DynamicModifiers set(String prefix, String key, Supplier<String> value) {
+        return set(k(prefix, key), value);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return super.containsKey(key) || lazy.containsKey(key);
+    }
+
+    @Override
+    public String get(Object key) {
+        return getOrDefault(key, null);
+    }
+
+    @Override
+    public String getOrDefault(Object key, String defaultValue) {
+        if (super.containsKey(key))
+            return super.get(key);
+
+        Supplier<String> supplier = lazy.remove(key);
+        if (supplier == null)
+            return defaultValue;
+
+        String value = supplier.get();
+        super.put((String) key, value);
+        return value;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        lazy.remove(key);
+        return super.put(key, value);
+    }
 }
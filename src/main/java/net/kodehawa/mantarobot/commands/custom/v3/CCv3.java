@@ -17,6 +17,9 @@
 
 package net.kodehawa.mantarobot.commands.custom.v3;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import net.dv8tion.jda.api.MessageBuilder;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
@@ -24,14 +27,17 @@ import net.kodehawa.mantarobot.commands.MiscCmds;
 import net.kodehawa.mantarobot.commands.custom.EmbedJSON;
 import net.kodehawa.mantarobot.commands.custom.legacy.DynamicModifiers;
 import net.kodehawa.mantarobot.commands.custom.v3.ast.Node;
+import net.kodehawa.mantarobot.commands.custom.v3.interpreter.CompiledNode;
 import net.kodehawa.mantarobot.commands.custom.v3.interpreter.InterpreterContext;
-import net.kodehawa.mantarobot.commands.custom.v3.interpreter.InterpreterVisitor;
+import net.kodehawa.mantarobot.commands.custom.v3.interpreter.NodeCompiler;
 import net.kodehawa.mantarobot.commands.custom.v3.interpreter.Operation;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.data.GsonDataManager;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -42,6 +48,10 @@ public class CCv3 {
     private static final Pattern USER_MENTION_PATTERN = Pattern.compile("(?:<@!?)?(\\d{1,20})>?");
     private static final Map<String, Operation> DEFAULT_OPERATIONS = new HashMap<>();
     private static final Pattern FILTER = Pattern.compile("([a-zA-Z0-9]{24}\\.[a-zA-Z0-9]{6}\\.[a-zA-Z0-9_\\-])\\w+");
+    //Keyed by the source itself, so editing a command's response just means the new one gets compiled the first time it runs.
+    private static final Cache<String, CompiledNode> COMPILED = CacheBuilder.newBuilder()
+            .maximumSize(5000)
+            .build();
 
     static {
         Map<String, BiPredicate<String, String>> comparators = new HashMap<>();
@@ -228,11 +238,42 @@ public class CCv3 {
         });
     }
 
+    /**
+     * Parses and compiles a v3 source, or returns the already compiled one if this source was compiled before.
+     *
+     * @param source The source, without the "v3:" prefix.
+     * @return The compiled program.
+     * @throws SyntaxException If the source isn't valid.
+     */
+    public static CompiledNode compile(String source) {
+        try {
+            return COMPILED.get(source, () -> compile(new Parser(source).parse()));
+        } catch(ExecutionException | UncheckedExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public static CompiledNode compile(Node ast) {
+        return ast.accept(new NodeCompiler(), DEFAULT_OPERATIONS);
+    }
+
+    public static Map<String, Operation> defaultOperations() {
+        return Collections.unmodifiableMap(DEFAULT_OPERATIONS);
+    }
+
     public static void process(String prefix, GuildMessageReceivedEvent event, Node ast, boolean preview) {
+        process(prefix, event, compile(ast), preview);
+    }
+
+    public static void process(String prefix, GuildMessageReceivedEvent event, CompiledNode program, boolean preview) {
         InterpreterContext context = new InterpreterContext(new DynamicModifiers()
                 .mapEvent(prefix, "event", event), DEFAULT_OPERATIONS, event);
 
-        String result = ast.accept(new InterpreterVisitor(), context);
+        String result = program.evaluate(context);
         EmbedJSON embed = context.get("embed");
 
         if(embed == null && result.isEmpty()) {
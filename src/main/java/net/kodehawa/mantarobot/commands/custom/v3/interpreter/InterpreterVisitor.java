@@ -19,7 +19,8 @@ package net.kodehawa.mantarobot.commands.custom.v3.interpreter;
 
 import net.kodehawa.mantarobot.commands.custom.v3.ast.*;
 
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
 
 public class InterpreterVisitor implements NodeVisitor<String, InterpreterContext> {
     @Override
@@ -39,10 +40,13 @@ public class InterpreterVisitor implements NodeVisitor<String, InterpreterContex
         if(op == null) {
             return "";
         }
-        return op.apply(context, node.args().stream()
-                .map(n -> (Operation.Argument) () -> n.accept(this, context))
-                .collect(Collectors.toList())
-        );
+
+        List<Operation.Argument> args = new ArrayList<>(node.args().size());
+        for(Node n : node.args()) {
+            args.add(() -> n.accept(this, context));
+        }
+
+        return op.apply(context, args);
     }
 
     @Override
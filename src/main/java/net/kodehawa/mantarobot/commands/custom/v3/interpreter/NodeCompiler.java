@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.commands.custom.v3.interpreter;
+
+import net.kodehawa.mantarobot.commands.custom.v3.ast.*;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a tree into a {@link CompiledNode}, which can be evaluated any number of times without walking the tree again.
+ * Operations whose name is a literal (almost all of them) get looked up once, here, instead of every time they run.
+ * The context is the operation map those names are looked up in.
+ */
+public class NodeCompiler implements NodeVisitor<CompiledNode, Map<String, Operation>> {
+    private static final CompiledNode EMPTY = __ -> "";
+
+    @Override
+    public CompiledNode visitLiteral(LiteralNode node, Map<String, Operation> operations) {
+        String value = node.value();
+        return __ -> value;
+    }
+
+    @Override
+    public CompiledNode visitVariable(VariableNode node, Map<String, Operation> operations) {
+        if(node.name() instanceof LiteralNode) {
+            String name = ((LiteralNode) node.name()).value();
+            return context -> context.vars().getOrDefault(name, "");
+        }
+
+        CompiledNode name = node.name().accept(this, operations);
+        return context -> context.vars().getOrDefault(name.evaluate(context), "");
+    }
+
+    @Override
+    public CompiledNode visitOperation(OperationNode node, Map<String, Operation> operations) {
+        CompiledNode[] args = compile(node.args(), operations);
+
+        if(node.name() instanceof LiteralNode) {
+            Operation op = operations.get(((LiteralNode) node.name()).value());
+            if(op == null) {
+                return EMPTY;
+            }
+
+            return context -> op.apply(context, new Arguments(args, context));
+        }
+
+        CompiledNode name = node.name().accept(this, operations);
+        return context -> {
+            Operation op = context.operations().get(name.evaluate(context));
+            if(op == null) {
+                return "";
+            }
+
+            return op.apply(context, new Arguments(args, context));
+        };
+    }
+
+    @Override
+    public CompiledNode visitMulti(MultiNode node, Map<String, Operation> operations) {
+        CompiledNode[] children = compile(node.children(), operations);
+        return context -> {
+            StringBuilder sb = new StringBuilder();
+            for(CompiledNode child : children) {
+                sb.append(child.evaluate(context));
+            }
+
+            return sb.toString();
+        };
+    }
+
+    private CompiledNode[] compile(List<Node> nodes, Map<String, Operation> operations) {
+        CompiledNode[] compiled = new CompiledNode[nodes.size()];
+        for(int i = 0; i < compiled.length; i++) {
+            compiled[i] = nodes.get(i).accept(this, operations);
+        }
+
+        return compiled;
+    }
+
+    //Arguments are only evaluated when (and every time) an operation asks for them, same as with the interpreter.
+    private static class Arguments extends AbstractList<Operation.Argument> {
+        private final CompiledNode[] args;
+        private final InterpreterContext context;
+
+        Arguments(CompiledNode[] args, InterpreterContext context) {
+            this.args = args;
+            this.context = context;
+        }
+
+        @Override
+        public Operation.Argument get(int index) {
+            CompiledNode arg = args[index];
+            return () -> arg.evaluate(context);
+        }
+
+        @Override
+        public int size() {
+            return args.length;
+        }
+    }
+}
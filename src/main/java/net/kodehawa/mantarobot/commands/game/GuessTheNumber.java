@@ -112,9 +112,13 @@ public class GuessTheNumber extends Game<Object> {
                         if(number > 90)
                             player.getData().addBadgeIfAbsent(Badge.APPROACHING_DESTINY);
 
-                        unifiedPlayer.save();
-
                         TextChannelGround.of(e).dropItemWithChance(Items.FLOPPY_DISK, 3);
+                        if(!unifiedPlayer.save()) {
+                            lobby.getChannel().sendMessageFormat(languageContext.get("general.save_conflict"), EmoteReference.ERROR).queue();
+                            lobby.startNextGame(true);
+                            return Operation.COMPLETED;
+                        }
+
                         new MessageBuilder().setContent(String.format(languageContext.get("commands.game.lobby.won_game"), EmoteReference.MEGA, e.getMember().getEffectiveName(), gains))
                                 .stripMentions(e.getGuild(), Message.MentionType.EVERYONE, Message.MentionType.HERE)
                                 .sendTo(lobby.getChannel())
@@ -65,8 +65,8 @@ public abstract class Game<T> {
             }
         }
 
-        if(MantaroData.db().getGuild(lobby.getChannel().getGuild()).getData().getGuildCustomPrefix() != null &&
-                e.getMessage().getContentRaw().startsWith(MantaroData.db().getGuild(lobby.getChannel().getGuild()).getData().getGuildCustomPrefix())) {
+        String customPrefix = MantaroData.db().getGuild(lobby.getChannel().getGuild()).getData().getGuildCustomPrefix();
+        if(customPrefix != null && e.getMessage().getContentRaw().startsWith(customPrefix)) {
             return Operation.IGNORED;
         }
 
@@ -101,9 +101,13 @@ public abstract class Game<T> {
                     seasonalPlayer.getData().setGamesWon(seasonalPlayer.getData().getGamesWon() + 1);
 
                 player.getData().setGamesWon(player.getData().getGamesWon() + 1);
-                unifiedPlayer.save();
-
                 TextChannelGround.of(e).dropItemWithChance(Items.FLOPPY_DISK, 3);
+                if(!unifiedPlayer.save()) {
+                    lobby.getChannel().sendMessageFormat(lobby.getLanguageContext().get("general.save_conflict"), EmoteReference.ERROR).queue();
+                    lobby.startNextGame(true);
+                    return Operation.COMPLETED;
+                }
+
                 new MessageBuilder().setContent(String.format(lobby.getLanguageContext().get("commands.game.lobby.won_game"), EmoteReference.MEGA, e.getMember().getEffectiveName(), gains))
                         .stripMentions(e.getGuild(), Message.MentionType.EVERYONE, Message.MentionType.HERE)
                         .sendTo(lobby.getChannel())
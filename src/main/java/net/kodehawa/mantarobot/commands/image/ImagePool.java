@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.commands.image;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.prometheus.client.Counter;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import net.kodehawa.lib.imageboards.ImageBoard;
+import net.kodehawa.lib.imageboards.entities.BoardImage;
+import net.kodehawa.lib.imageboards.entities.Rating;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Images ready to be sent for an imageboard search, so popular searches don't hit the imageboard on every request.
+ * <p>
+ * There's a pool per board, rating and set of tags. Images are handed out once each, in random order. When a pool gets down to
+ * {@link #LOW_WATERMARK} images it searches again in the background, on a random results page, keeping up to {@link #HIGH_WATERMARK}
+ * of the results that aren't in the pool already. Only a request that finds its pool empty has to wait for the imageboard.
+ * Images with minor tags never make it into a pool. Guild tag blacklists are up to whoever takes the image.
+ */
+public class ImagePool {
+    private static final int LOW_WATERMARK = 10;
+    private static final int HIGH_WATERMARK = 100;
+    //Refills pick a random page up to this one, so a popular search doesn't keep handing out the same images.
+    private static final int MAX_PAGES = 25;
+
+    private static final Counter requests = Counter.build()
+            .name("imageboard_pool_requests").help("Imageboard image requests, by whether the pool had an image ready")
+            .labelNames("board", "result")
+            .register();
+    private static final Counter refills = Counter.build()
+            .name("imageboard_pool_refills").help("Imageboard searches done to refill pools, by result")
+            .labelNames("board", "result")
+            .register();
+
+    //Unused pools go away, as there can be a lot of different tag combinations.
+    private static final Cache<Key, ImagePool> pools = CacheBuilder.newBuilder()
+            .maximumSize(2000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    private final ImageBoard<?> api;
+    private final String board;
+    private final Rating rating;
+    private final List<String> tags;
+    //All guarded by this.
+    private final Deque<BoardImage> images = new ArrayDeque<>();
+    //The URLs of the images in the pool, so a refill doesn't add the same image twice.
+    private final Set<String> urls = new HashSet<>();
+    private final List<CompletableFuture<BoardImage>> waiting = new ArrayList<>();
+    private boolean refilling;
+    //Pages past this one came back empty, so there's no point in searching them again.
+    private int pages = MAX_PAGES;
+
+    private ImagePool(ImageBoard<?> api, String board, Rating rating, List<String> tags) {
+        this.api = api;
+        this.board = board;
+        this.rating = rating;
+        this.tags = tags;
+    }
+
+    /**
+     * @param api    The imageboard to search on.
+     * @param board  The name of the imageboard, for metrics.
+     * @param rating The rating to search for, or null if the imageboard doesn't use them.
+     * @param tags   The tags to search for. Case, order and duplicates don't matter.
+     * @return The pool for the search.
+     */
+    public static ImagePool of(ImageBoard<?> api, String board, Rating rating, List<String> tags) {
+        List<String> normalized = Collections.unmodifiableList(tags.stream()
+                .map(tag -> tag.trim().toLowerCase())
+                .filter(tag -> !tag.isEmpty())
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList()));
+
+        try {
+            return pools.get(new Key(api, rating, normalized), () -> new ImagePool(api, board, rating, normalized));
+        } catch(ExecutionException e) {
+            //The loader can't throw.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Takes an image out of the pool, waiting for a search if there's none ready.
+     *
+     * @return A future completed with the image, null if the search found nothing, or completed exceptionally if the search failed.
+     */
+    public CompletableFuture<BoardImage> take() {
+        CompletableFuture<BoardImage> future = new CompletableFuture<>();
+        boolean refill;
+        synchronized(this) {
+            BoardImage image = poll();
+            if(image != null)
+                future.complete(image);
+            else
+                waiting.add(future);
+
+            refill = !refilling && images.size() <= LOW_WATERMARK;
+            if(refill)
+                refilling = true;
+        }
+
+        requests.labels(board, future.isDone() ? "hit" : "miss").inc();
+        if(refill)
+            refill();
+
+        return future;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void refill() {
+        int page;
+        synchronized(this) {
+            page = 1 + ThreadLocalRandom.current().nextInt(pages);
+        }
+
+        api.search(page, HIGH_WATERMARK, String.join(" ", tags), rating).async(result -> {
+            List<BoardImage> results = result == null ? new ArrayList<>() : (List<BoardImage>) result;
+            //Past the last page: look again on the ones before it.
+            if(results.isEmpty() && page > 1) {
+                synchronized(this) {
+                    pages = Math.min(pages, page - 1);
+                }
+
+                refill();
+                return;
+            }
+
+            List<BoardImage> found = results.stream()
+                    .filter(image -> image.getURL() != null && !ImageboardUtils.hasMinorTags(String.join(", ", image.getTags()), image.getRating()))
+                    .collect(Collectors.toList());
+            Collections.shuffle(found);
+            refills.labels(board, found.isEmpty() ? "empty" : "success").inc();
+
+            List<CompletableFuture<BoardImage>> served;
+            List<BoardImage> taken = new ArrayList<>();
+            synchronized(this) {
+                refilling = false;
+                for(BoardImage image : found) {
+                    if(images.size() >= HIGH_WATERMARK)
+                        break;
+                    if(urls.add(image.getURL()))
+                        images.add(image);
+                }
+
+                served = new ArrayList<>(waiting);
+                waiting.clear();
+                for(int i = 0; i < served.size() && !images.isEmpty(); i++) {
+                    taken.add(poll());
+                }
+            }
+
+            for(int i = 0; i < served.size(); i++) {
+                //More requests waited than images were found: the rest get repeats.
+                BoardImage image = i < taken.size() ? taken.get(i) :
+                        found.isEmpty() ? null : found.get(ThreadLocalRandom.current().nextInt(found.size()));
+                served.get(i).complete(image);
+            }
+        }, failure -> {
+            refills.labels(board, "failure").inc();
+
+            List<CompletableFuture<BoardImage>> served;
+            synchronized(this) {
+                refilling = false;
+                served = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+
+            served.forEach(future -> future.completeExceptionally(failure));
+        });
+    }
+
+    //Guarded by this.
+    private BoardImage poll() {
+        BoardImage image = images.poll();
+        if(image != null)
+            urls.remove(image.getURL());
+
+        return image;
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+        private final ImageBoard<?> api;
+        private final Rating rating;
+        private final List<String> tags;
+    }
+}
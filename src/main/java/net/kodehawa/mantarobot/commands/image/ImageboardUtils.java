@@ -31,15 +31,11 @@ import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.Player;
-import net.kodehawa.mantarobot.db.entities.helpers.PlayerData;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
 public class ImageboardUtils {
-    private static final Random r = new Random();
     private static final Map<ImageBoard<?>, Integer> maxQuerySize = ImmutableMap.of(
             DefaultImageBoards.KONACHAN, 5,
             DefaultImageBoards.YANDERE, 5,
@@ -62,7 +58,6 @@ public class ImageboardUtils {
         boolean needRating = list.size() >= 2;
         final TextChannel channel = event.getChannel();
         final Player player = MantaroData.db().getPlayer(event.getAuthor());
-        final PlayerData playerData = player.getData();
 
         if(needRating && !nsfwOnly) {
             rating = Rating.lookupFromString(list.get(1));
@@ -94,7 +89,6 @@ public class ImageboardUtils {
             finalRating = null;
         }
 
-        int page = Math.max(1, r.nextInt(25));
         int limit = Optional.ofNullable(maxQuerySize.get(api)).orElse(10);
 
         if(list.size() > limit) {
@@ -117,6 +111,15 @@ public class ImageboardUtils {
                         return;
                     }
 
+                    int number;
+                    try {
+                        number = Integer.parseInt(arguments[1]);
+                    } catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                        sendPooledImage(ImagePool.of(api, imageboard, finalRating, list), "commands.imageboard.error_tag", imageboard, player, event, languageContext);
+                        return;
+                    }
+
+                    //Asking for a specific result of the search, so it can't come from the pool.
                     api.search(list, finalRating).async(requestedImages -> {
                         //account for this
                         if(isListNull(requestedImages, languageContext, event)) return;
@@ -130,86 +133,64 @@ public class ImageboardUtils {
                                 return;
                             }
 
-                            int number;
-                            try {
-                                number = Integer.parseInt(arguments[1]);
-                            } catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
-                                number = r.nextInt(filter.size() > 0 ? filter.size() - 1 : filter.size());
-                            }
-
-                            BoardImage image = filter.get(number);
-                            String imageTags = image.getTags().stream().collect(Collectors.joining(", "));
-
-                            if(foundMinorTags(event, languageContext, imageTags, image.getRating())) {
-                                return;
-                            }
-
-                            if(image.getTags().stream().anyMatch(tag -> dbGuild.getData().getBlackListedImageTags().contains(tag))) {
-                                channel.sendMessageFormat(languageContext.get("commands.imageboard.blacklisted_tag"), EmoteReference.ERROR).queue();
-                                return;
-                            }
-
-                            imageEmbed(languageContext, image.getURL(), String.valueOf(image.getWidth()), String.valueOf(image.getHeight()), imageTags, image.getRating(), imageboard, channel);
-                            if(image.getRating().equals(Rating.EXPLICIT)) {
-                                if(playerData.addBadgeIfAbsent(Badge.LEWDIE)) {
-                                    player.saveAsync();
-                                }
-
-                                TextChannelGround.of(event).dropItemWithChance(13, 3);
-                            }
+                            sendImage(filter.get(number), imageboard, player, event, languageContext);
                         } catch(Exception e) {
                             channel.sendMessageFormat(languageContext.get("commands.imageboard.no_results"), EmoteReference.SAD).queue();
                         }
                     }, failure -> channel.sendMessageFormat(languageContext.get("commands.imageboard.error_tag"), EmoteReference.SAD).queue());
-                } catch (NumberFormatException numberEx) {
-                    channel.sendMessageFormat(languageContext.get("commands.imageboard.wrong_argument"), EmoteReference.ERROR, imageboard).queue(
-                            message -> message.delete().queueAfter(10, TimeUnit.SECONDS)
-                    );
                 } catch(Exception exception) {
                     channel.sendMessageFormat(languageContext.get("commands.imageboard.error_tag"), EmoteReference.SAD).queue();
                 }
 
                 break;
             case RANDOM:
-                api.search(list, finalRating).async(requestedImages -> {
-                    try {
-                        if(isListNull(requestedImages, languageContext, event)) return;
+                sendPooledImage(ImagePool.of(api, imageboard, finalRating, list), "commands.imageboard.error_random", imageboard, player, event, languageContext);
+                break;
+        }
+    }
 
-                        List<BoardImage> filter = (List<BoardImage>) requestedImages;
+    private static void sendPooledImage(ImagePool pool, String errorKey, String imageboard, Player player, GuildMessageReceivedEvent event, I18nContext languageContext) {
+        final TextChannel channel = event.getChannel();
+        pool.take().whenComplete((image, failure) -> {
+            if(failure != null) {
+                channel.sendMessageFormat(languageContext.get(errorKey), EmoteReference.SAD).queue();
+                return;
+            }
 
-                        if(filter.isEmpty()) {
-                            channel.sendMessageFormat(languageContext.get("commands.imageboard.no_images"), EmoteReference.SAD).queue();
-                            return;
-                        }
+            if(image == null) {
+                channel.sendMessageFormat(languageContext.get("commands.imageboard.no_images"), EmoteReference.SAD).queue();
+                return;
+            }
 
-                        int number = r.nextInt(filter.size());
-                        BoardImage image = filter.get(number);
-                        String tags = image.getTags().stream().collect(Collectors.joining(", "));
+            try {
+                sendImage(image, imageboard, player, event, languageContext);
+            } catch(Exception e) {
+                channel.sendMessageFormat(languageContext.get(errorKey), EmoteReference.SAD).queue();
+            }
+        });
+    }
 
-                        DBGuild dbGuild = MantaroData.db().getGuild(event.getGuild());
+    private static void sendImage(BoardImage image, String imageboard, Player player, GuildMessageReceivedEvent event, I18nContext languageContext) {
+        final TextChannel channel = event.getChannel();
+        String tags = String.join(", ", image.getTags());
 
-                        if(foundMinorTags(event, languageContext, tags, image.getRating())) {
-                            return;
-                        }
+        if(foundMinorTags(event, languageContext, tags, image.getRating())) {
+            return;
+        }
 
-                        if(image.getTags().stream().anyMatch(tag -> dbGuild.getData().getBlackListedImageTags().contains(tag))) {
-                            channel.sendMessageFormat(languageContext.get("commands.imageboard.blacklisted_tag"), EmoteReference.ERROR).queue();
-                            return;
-                        }
+        DBGuild dbGuild = MantaroData.db().getGuild(event.getGuild());
+        if(image.getTags().stream().anyMatch(tag -> dbGuild.getData().getBlackListedImageTags().contains(tag))) {
+            channel.sendMessageFormat(languageContext.get("commands.imageboard.blacklisted_tag"), EmoteReference.ERROR).queue();
+            return;
+        }
 
-                        imageEmbed(languageContext, image.getURL(), String.valueOf(image.getWidth()), String.valueOf(image.getHeight()), tags, image.getRating(), imageboard, channel);
-                        if(image.getRating().equals(Rating.EXPLICIT)) {
-                            if(playerData.addBadgeIfAbsent(Badge.LEWDIE)) {
-                                player.saveAsync();
-                            }
+        imageEmbed(languageContext, image.getURL(), String.valueOf(image.getWidth()), String.valueOf(image.getHeight()), tags, image.getRating(), imageboard, channel);
+        if(image.getRating().equals(Rating.EXPLICIT)) {
+            if(player.getData().addBadgeIfAbsent(Badge.LEWDIE)) {
+                player.saveAsync();
+            }
 
-                            TextChannelGround.of(event).dropItemWithChance(13, 3);
-                        }
-                    } catch(Exception e) {
-                        channel.sendMessageFormat(languageContext.get("commands.imageboard.error_random"), EmoteReference.SAD).queue();
-                    }
-                }, failure -> channel.sendMessageFormat(languageContext.get("commands.imageboard.error_random"), EmoteReference.SAD).queue());
-                break;
+            TextChannelGround.of(event).dropItemWithChance(13, 3);
         }
     }
 
@@ -231,7 +212,16 @@ public class ImageboardUtils {
     }
 
     private static boolean foundMinorTags(GuildMessageReceivedEvent event, I18nContext languageContext, String tags, Rating rating) {
-        boolean trigger = (tags.contains("loli") || tags.contains("shota") ||
+        if(!hasMinorTags(tags, rating)) {
+            return false;
+        }
+
+        event.getChannel().sendMessageFormat(languageContext.get("commands.imageboard.loli_content_disallow"), EmoteReference.WARNING).queue();
+        return true;
+    }
+
+    static boolean hasMinorTags(String tags, Rating rating) {
+        return (tags.contains("loli") || tags.contains("shota") ||
                 tags.contains("lolicon") || tags.contains("shotacon") ||
                 //lol @ e621
                 tags.contains("child") || tags.contains("young")) ||
@@ -241,14 +231,7 @@ public class ImageboardUtils {
                 tags.contains("underage") || tags.contains("under_age")
                 //lol @ rule34 / @ e621
                 || tags.contains("cub")
-                && !rating.equals(Rating.SAFE);
-
-        if(!trigger) {
-            return false;
-        }
-
-        event.getChannel().sendMessageFormat(languageContext.get("commands.imageboard.loli_content_disallow"), EmoteReference.WARNING).queue();
-        return true;
+                && rating != Rating.SAFE;
     }
 
     private static boolean isListNull(List<?> l, I18nContext languageContext, GuildMessageReceivedEvent event) {
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+package net.kodehawa.mantarobot.commands.moderation;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.shard.MantaroShard;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.ExpiringAction;
+import net.kodehawa.mantarobot.db.entities.MantaroObj;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+import net.kodehawa.mantarobot.utils.Mapifier;
+import net.kodehawa.mantarobot.utils.Pair;
+import net.kodehawa.mantarobot.utils.Prometheus;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * Undoes timed mutes when they expire.
+ * <p>
+ * Every action is its own document on the {@link ExpiringAction#DB_TABLE} table, so they survive restarts. The ones expiring
+ * within the next hour on guilds of this node are loaded (through the {@code expiresAt} index) into a priority queue, and the
+ * executor wakes up exactly when the first of them is due. Everything here runs on that single executor thread, so the queue
+ * needs no locking, and database writes are waited for so a load never sees an action that was already handled.
+ */
+@Slf4j
+public class ExpiryScheduler {
+    //Only what expires in this window is kept in memory, the rest stays in the database until a later load picks it up.
+    private static final long HORIZON = TimeUnit.HOURS.toMillis(1);
+    //Has to be shorter than the horizon, or something could expire before it gets loaded.
+    private static final long LOAD_INTERVAL = TimeUnit.MINUTES.toMillis(30);
+    //When the shard the guild is on isn't connected yet.
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Counter expiredActions = Counter.build()
+            .name("expired_actions").help("Handled expiring actions (type, result)")
+            .labelNames("type", "result")
+            .register();
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Mantaro-ExpiryScheduler Thread-%d").build()
+    );
+
+    //The action currently scheduled for each id. Queue entries that don't match it were cancelled or replaced and get skipped.
+    private static final Map<String, ExpiringAction> pending = new HashMap<>();
+    private static final PriorityQueue<ExpiringAction> queue = new PriorityQueue<>(Comparator.comparingLong(ExpiringAction::getExpiresAt));
+    private static long loadedUntil;
+    private static ScheduledFuture<?> wakeUp;
+    private static long wakeUpAt = Long.MAX_VALUE;
+
+    static {
+        Prometheus.THREAD_POOL_COLLECTOR.add("expiry-scheduler", executor);
+    }
+
+    /**
+     * Moves the mutes still stored on {@link MantaroObj} to their own documents, then starts loading the actions due soon.
+     */
+    public static void start() {
+        executor.execute(ExpiryScheduler::migrate);
+        executor.scheduleAtFixedRate(ExpiryScheduler::load, 0, LOAD_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules an action, replacing the previous one of the same type for this user on this guild.
+     *
+     * @param type      What to undo.
+     * @param guildId   The guild it happened on.
+     * @param userId    The user it happened to.
+     * @param expiresAt When to undo it, in epoch millis.
+     */
+    public static void schedule(ExpiringAction.Type type, String guildId, String userId, long expiresAt) {
+        ExpiringAction action = ExpiringAction.of(type, guildId, userId, expiresAt);
+        executor.execute(() -> {
+            try {
+                persist(action);
+            } catch(Exception e) {
+                log.error("Error saving expiring action {}", action.getId(), e);
+            }
+
+            pending.remove(action.getId());
+            //Later ones will come with the load that covers them.
+            if(action.getExpiresAt() < loadedUntil)
+                enqueue(action);
+        });
+    }
+
+    /**
+     * Cancels an action, if there's one scheduled. For example, when someone gets unmuted by hand.
+     */
+    public static void cancel(ExpiringAction.Type type, String guildId, String userId) {
+        String id = ExpiringAction.id(type, guildId, userId);
+        executor.execute(() -> {
+            pending.remove(id);
+            try {
+                remove(id);
+            } catch(Exception e) {
+                log.error("Error deleting expiring action {}", id, e);
+            }
+        });
+    }
+
+    private static void migrate() {
+        try {
+            MantaroObj data = MantaroData.db().getMantaroData();
+            Map<Long, Pair<String, Long>> mutes = data.getMutes();
+            if(mutes == null || mutes.isEmpty())
+                return;
+
+            for(Map.Entry<Long, Pair<String, Long>> entry : mutes.entrySet()) {
+                Pair<String, Long> mute = entry.getValue();
+                persist(ExpiringAction.of(ExpiringAction.Type.MUTE, mute.getLeft(), String.valueOf(entry.getKey()), mute.getRight()));
+            }
+
+            log.info("Moved {} mutes to their own documents", mutes.size());
+            mutes.clear();
+            data.save();
+        } catch(Exception e) {
+            log.error("Error moving mutes to their own documents", e);
+        }
+    }
+
+    private static void load() {
+        try {
+            long until = System.currentTimeMillis() + HORIZON;
+            for(ExpiringAction action : MantaroData.db().getExpiringActions(until)) {
+                //Guilds on other nodes are handled by those nodes.
+                if(!isLocal(action.getGuildId()))
+                    continue;
+
+                //What's in memory is newer: it's either the same document or a retry of it.
+                if(!pending.containsKey(action.getId()))
+                    enqueue(action);
+            }
+
+            loadedUntil = until;
+        } catch(Exception e) {
+            log.error("Error loading expiring actions", e);
+        }
+    }
+
+    private static void enqueue(ExpiringAction action) {
+        pending.put(action.getId(), action);
+        queue.add(action);
+        reschedule();
+    }
+
+    private static void reschedule() {
+        ExpiringAction head;
+        while((head = queue.peek()) != null && pending.get(head.getId()) != head) {
+            queue.poll();
+        }
+
+        if(head == null || head.getExpiresAt() >= wakeUpAt)
+            return;
+
+        if(wakeUp != null)
+            wakeUp.cancel(false);
+
+        wakeUpAt = head.getExpiresAt();
+        wakeUp = executor.schedule(ExpiryScheduler::fire, Math.max(0, wakeUpAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private static void fire() {
+        wakeUp = null;
+        wakeUpAt = Long.MAX_VALUE;
+
+        long now = System.currentTimeMillis();
+        ExpiringAction action;
+        while((action = queue.peek()) != null && action.getExpiresAt() <= now) {
+            queue.poll();
+            if(pending.get(action.getId()) != action)
+                continue;
+
+            pending.remove(action.getId());
+            String type = action.getType().name().toLowerCase();
+            try {
+                if(!isReady(action.getGuildId())) {
+                    enqueue(new ExpiringAction(action.getId(), action.getType(), action.getGuildId(), action.getUserId(), now + RETRY_DELAY));
+                    expiredActions.labels(type, "retry").inc();
+                    continue;
+                }
+
+                switch(action.getType()) {
+                    case MUTE:
+                        unmute(action);
+                        break;
+                }
+
+                expiredActions.labels(type, "success").inc();
+            } catch(Exception e) {
+                log.error("Error handling expiring action {}", action.getId(), e);
+                expiredActions.labels(type, "error").inc();
+            }
+
+            try {
+                remove(action.getId());
+            } catch(Exception e) {
+                log.error("Error deleting expiring action {}", action.getId(), e);
+            }
+        }
+
+        reschedule();
+    }
+
+    private static boolean isLocal(String guildId) {
+        return MantaroBot.getInstance().getShardForGuild(guildId) != null;
+    }
+
+    private static boolean isReady(String guildId) {
+        MantaroShard shard = MantaroBot.getInstance().getShardForGuild(guildId);
+        return shard.getJDA() != null && shard.getJDA().getStatus() == JDA.Status.CONNECTED;
+    }
+
+    private static void unmute(ExpiringAction action) {
+        Guild guild = MantaroBot.getInstance().getGuildById(action.getGuildId());
+        if(guild == null) {
+            log.debug("Removed mute {} because guild == null", action.getId());
+            return;
+        }
+
+        Member member = guild.getMemberById(action.getUserId());
+        if(member == null) {
+            log.debug("Removed mute {} because member == null", action.getId());
+            return;
+        }
+
+        DBGuild dbGuild = MantaroData.db().getGuild(guild);
+        GuildData guildData = dbGuild.getData();
+        Role mutedRole = guildData.getMutedRole() == null ? null : guild.getRoleById(guildData.getMutedRole());
+        if(mutedRole == null) {
+            log.debug("Removed mute {} because role == null", action.getId());
+            return;
+        }
+
+        log.debug("Unmuted {} because time ran out", action.getId());
+        guild.removeRoleFromMember(member, mutedRole).queue();
+
+        guildData.setCases(guildData.getCases() + 1);
+        dbGuild.saveAsync();
+        ModLog.log(guild.getSelfMember(), member.getUser(), "Mute timeout expired", "none", ModLog.ModAction.UNMUTE, guildData.getCases());
+    }
+
+    //Not through ManagedDatabase: those writes don't wait for rethink, and a load right after could bring back what we just deleted.
+    private static void persist(ExpiringAction action) {
+        r.table(ExpiringAction.DB_TABLE)
+                .insert(Mapifier.toMap(action))
+                .optArg("conflict", "replace")
+                .run(MantaroData.conn());
+    }
+
+    private static void remove(String id) {
+        r.table(ExpiringAction.DB_TABLE).get(id).delete().run(MantaroData.conn());
+    }
+}
@@ -78,7 +78,7 @@ public class ModLog {
     }
 
     public enum ModAction {
-        TEMP_BAN, BAN, KICK, MUTE, UNMUTE, WARN, PRUNE
+        TEMP_BAN, BAN, UNBAN, KICK, MUTE, UNMUTE, WARN, PRUNE
     }
 }
 
@@ -14,95 +14,204 @@
  * along with Mantaro.  If not, see http://www.gnu.org/licenses/
  *
  */
-
 package net.kodehawa.mantarobot.commands.utils;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.MessageBuilder;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Message;
-import net.dv8tion.jda.api.entities.User;
 import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.core.shard.MantaroShard;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.db.entities.ReminderObj;
+import net.kodehawa.mantarobot.utils.Mapifier;
 import net.kodehawa.mantarobot.utils.Prometheus;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
 
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * Delivers reminders. They're stored on the {@link ReminderObj#DB_TABLE} table, so they survive restarts.
+ * <p>
+ * Only the reminders due within the next hour, asked on guilds of this node, are kept in memory: they get loaded every half an hour
+ * through the {@code time} index (which is also what picks up whatever was due while the bot was down). In memory they sit on a hashed timing
+ * wheel with one second ticks, and everything due on the same tick gets delivered together, with one DM per user.
+ * The wheel is only touched from the executor thread.
+ */
+@Slf4j
 public class Reminder {
-    public static final Map<String, List<Reminder>> CURRENT_REMINDERS = new HashMap<>();
-    private static final ScheduledExecutorService service = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder().setNameFormat("Mantaro-ReminderPool Thread-%d").build());
-    private Future<?> scheduledReminder;
-
-    public final String id;
-    public final String reminder;
-    public final long time;
-    private final long scheduledAtMillis;
-    private final String userId;
-    private final long offset;
-    private final String guildId;
+    private static final long TICK = TimeUnit.SECONDS.toMillis(1);
+    //Power of two, so the bucket is just a mask away.
+    private static final int WHEEL_SIZE = 512;
+    private static final long HORIZON = TimeUnit.HOURS.toMillis(1);
+    //Has to be shorter than the horizon, or something could be due before it gets loaded.
+    private static final long LOAD_INTERVAL = TimeUnit.MINUTES.toMillis(30);
+
+    private static final Counter remindersDelivered = Counter.build()
+            .name("reminders").help("Delivered reminders (result)")
+            .labelNames("result")
+            .register();
+
+    private static final ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("Mantaro-ReminderPool Thread-%d").build());
+
+    private static final List<List<Timeout>> wheel = new ArrayList<>(WHEEL_SIZE);
+    //The reminder currently scheduled for each id. Wheel entries that don't match it were cancelled and get skipped.
+    private static final Map<String, ReminderObj> pending = new HashMap<>();
+    private static final long start = System.currentTimeMillis();
+    private static long tick;
+    private static long loadedUntil;
 
     static {
+        for(int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+
         Prometheus.THREAD_POOL_COLLECTOR.add("reminder", service);
+        service.scheduleAtFixedRate(Reminder::advance, TICK, TICK, TimeUnit.MILLISECONDS);
     }
 
-    private Reminder(String id, String userId, String guildId, String reminder, long scheduledAt, long time, long offset) {
-        this.id = id;
-        this.userId = userId;
-        this.guildId = guildId;
-        this.reminder = reminder;
-        this.time = time;
-        this.scheduledAtMillis = scheduledAt;
-        this.offset = offset;
-
-        CURRENT_REMINDERS.computeIfAbsent(userId, (wew) -> new ArrayList<>());
-        DBUser user = MantaroData.db().getUser(userId);
-        user.getData().setReminderN(user.getData().getReminderN() + 1);
-        user.saveAsync();
+    /**
+     * Starts loading the pending reminders. Needs the shards to exist, to tell which guilds are on this node.
+     */
+    public static void start() {
+        service.scheduleAtFixedRate(Reminder::load, 0, LOAD_INTERVAL, TimeUnit.MILLISECONDS);
     }
 
-    public void schedule() {
-        CURRENT_REMINDERS.computeIfPresent(userId, (id, list) -> {
-            list.add(this);
-            return list;
+    /**
+     * @param userId The user to look up.
+     * @return The pending reminders of the user, the ones due first first.
+     */
+    public static List<ReminderObj> getReminders(String userId) {
+        return MantaroData.db().getReminders(userId);
+    }
+
+    public static void cancel(ReminderObj reminder) {
+        r.table(ReminderObj.DB_TABLE).get(reminder.getId()).delete().run(MantaroData.conn());
+        service.execute(() -> pending.remove(reminder.getId()));
+    }
+
+    private static void schedule(ReminderObj reminder) {
+        //Waited for, so it shows up when listing right after this.
+        r.table(ReminderObj.DB_TABLE).insert(Mapifier.toMap(reminder)).run(MantaroData.conn());
+        service.execute(() -> {
+            //Later ones will come with the load that covers them.
+            if(reminder.getTime() < loadedUntil)
+                enqueue(reminder);
         });
+    }
+
+    private static void load() {
+        try {
+            long until = System.currentTimeMillis() + HORIZON;
+            for(ReminderObj reminder : MantaroData.db().getPendingReminders(until)) {
+                //Guilds on other nodes are handled by those nodes.
+                if(MantaroBot.getInstance().getShardForGuild(reminder.getGuildId()) == null)
+                    continue;
+
+                if(!pending.containsKey(reminder.getId()))
+                    enqueue(reminder);
+            }
+
+            loadedUntil = until;
+        } catch(Exception e) {
+            log.error("Error loading reminders", e);
+        }
+    }
+
+    private static void enqueue(ReminderObj reminder) {
+        pending.put(reminder.getId(), reminder);
+        //Anything overdue goes on the next tick.
+        long deadline = Math.max(tick, (reminder.getTime() - start + TICK - 1) / TICK);
+        wheel.get((int) (deadline & (WHEEL_SIZE - 1))).add(new Timeout(reminder, (deadline - tick) / WHEEL_SIZE));
+    }
 
-        scheduledReminder = service.schedule(() -> {
-            User user = MantaroBot.getInstance().getUserById(userId);
-            Guild guild = MantaroBot.getInstance().getGuildById(guildId);
-            if(user == null)
-                return;
+    //Runs every tick, and catches up on the ticks missed if the executor fell behind.
+    private static void advance() {
+        try {
+            long now = (System.currentTimeMillis() - start) / TICK;
+            List<ReminderObj> due = new ArrayList<>();
+            while(tick <= now) {
+                List<Timeout> bucket = wheel.get((int) (tick & (WHEEL_SIZE - 1)));
+                bucket.removeIf(timeout -> {
+                    if(pending.get(timeout.reminder.getId()) != timeout.reminder)
+                        return true;
+                    if(timeout.rounds-- > 0)
+                        return false;
 
-            removeCurrent();
+                    pending.remove(timeout.reminder.getId());
+                    due.add(timeout.reminder);
+                    return true;
+                });
 
-            //Ignore "cannot open a private channel with this user"
-            AtomicReference<Consumer<Message>> c = new AtomicReference<>();
-            Consumer<Throwable> ignore = (t) -> {};
+                tick++;
+            }
 
-            user.openPrivateChannel().queue(channel -> channel.sendMessage(
-                    EmoteReference.POPPER + "**Reminder!**\n" + "You asked me to remind you of: " + reminder + "\nAt: " + new Date(scheduledAtMillis) +
-                            (guild != null ? "\n*Asked on: " + guild.getName() + "*" : "")
-            ).queue(c.get(), ignore));
-        }, (time - scheduledAtMillis) - offset, TimeUnit.MILLISECONDS);
+            if(!due.isEmpty())
+                deliver(due);
+        } catch(Exception e) {
+            log.error("Error advancing the reminder wheel", e);
+        }
     }
 
-    public Reminder cancel() {
-        removeCurrent();
-        scheduledReminder.cancel(true);
-        return this;
+    private static void deliver(List<ReminderObj> due) {
+        r.table(ReminderObj.DB_TABLE)
+                .getAll(due.stream().map(ReminderObj::getId).toArray())
+                .delete()
+                .run(MantaroData.conn());
+
+        Map<String, List<ReminderObj>> byUser = new LinkedHashMap<>();
+        for(ReminderObj reminder : due) {
+            byUser.computeIfAbsent(reminder.getUserId(), u -> new ArrayList<>()).add(reminder);
+        }
+
+        for(Map.Entry<String, List<ReminderObj>> entry : byUser.entrySet()) {
+            List<ReminderObj> reminders = entry.getValue();
+            //Only used to open the DM, the reminders might have been asked on guilds of any shard.
+            MantaroShard shard = MantaroBot.getInstance().getShardForGuild(reminders.get(0).getGuildId());
+            MessageBuilder builder = new MessageBuilder();
+            for(ReminderObj reminder : reminders) {
+                Guild guild = MantaroBot.getInstance().getGuildById(reminder.getGuildId());
+                builder.append(EmoteReference.POPPER).append("**Reminder!**\n")
+                        .append("You asked me to remind you of: ").append(reminder.getReminder())
+                        .append("\nAt: ").append(new Date(reminder.getScheduledAtMillis()))
+                        .append(guild != null ? "\n*Asked on: " + guild.getName() + "*" : "")
+                        .append("\n\n");
+            }
+
+            //Ignore "cannot open a private channel with this user" and users we can't find anymore.
+            shard.retrieveUserById(entry.getKey()).queue(user -> user.openPrivateChannel().queue(channel -> {
+                for(Message message : builder.buildAll(MessageBuilder.SplitPolicy.NEWLINE)) {
+                    channel.sendMessage(message).queue(
+                            m -> remindersDelivered.labels("success").inc(reminders.size()),
+                            t -> remindersDelivered.labels("failure").inc(reminders.size())
+                    );
+                }
+            }, t -> remindersDelivered.labels("failure").inc(reminders.size())), t -> remindersDelivered.labels("failure").inc(reminders.size()));
+        }
     }
 
-    private void removeCurrent() {
-        CURRENT_REMINDERS.computeIfPresent(userId, (id, list) -> {
-            list.remove(this);
-            return list;
-        });
+    private static class Timeout {
+        private final ReminderObj reminder;
+        private long rounds;
+
+        private Timeout(ReminderObj reminder, long rounds) {
+            this.reminder = reminder;
+            this.rounds = rounds;
+        }
     }
 
     public static class Builder {
@@ -143,8 +252,12 @@ public class Reminder {
             return this;
         }
 
-
-        public Reminder build() {
+        /**
+         * Saves the reminder and schedules it.
+         *
+         * @return The saved reminder.
+         */
+        public ReminderObj schedule() {
             if(userId == null)
                 throw new IllegalArgumentException("User ID cannot be null");
             if(reminder == null)
@@ -156,7 +269,13 @@ public class Reminder {
             if(current <= 0)
                 throw new IllegalArgumentException("Current time must be positive and >0");
 
-            return new Reminder(UUID.randomUUID().toString(), userId, guildId, reminder, current, time, offset);
+            ReminderObj obj = new ReminderObj(UUID.randomUUID().toString(), userId, guildId, reminder, current, time - offset, offset);
+            Reminder.schedule(obj);
+
+            DBUser user = MantaroData.db().getUser(userId);
+            user.getData().setReminderN(user.getData().getReminderN() + 1);
+            user.saveAsync();
+            return obj;
         }
     }
 }
@@ -14,34 +14,42 @@
  * along with Mantaro.  If not, see http://www.gnu.org/licenses/
  *
  */
-
 package net.kodehawa.mantarobot.commands.utils.birthday;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rethinkdb.model.OptArgs;
 import com.rethinkdb.net.Cursor;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.utils.Prometheus;
 
-import java.util.HashMap;
-import java.util.List;
+import java.time.LocalDate;
+import java.time.Month;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static com.rethinkdb.RethinkDB.r;
 
 /**
- * Caches the birthday date of all users seen on bot startup and adds them to a local ConcurrentHashMap.
- * This will later be used on {@link BirthdayTask}
+ * Keeps a calendar of the birthdays of every user, indexed by day of the year.
+ * It's reloaded from the database once a day (which picks up changes made on other nodes), and in between it's kept up to date
+ * by {@link #add(long, String)} and {@link #remove(long)}, so {@link BirthdayTask} only has to look at the people celebrating on a given day.
  */
 @Slf4j
 public class BirthdayCacher {
-    public Map<String, BirthdayData> cachedBirthdays = new ConcurrentHashMap<>();
+    //Day of the year on a leap year, so 29-02 gets its own slot.
+    private static final int DAYS = 366;
+
+    //Both get replaced as a whole when reloading, and are only accessed while holding the lock.
+    private TLongSet[] calendar = newCalendar();
+    private TLongObjectMap<BirthdayData> birthdays = new TLongObjectHashMap<>();
     public volatile boolean isDone;
     private final ExecutorService executorService = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("Mantaro-BirthdayAssignerExecutor Thread-%d").build());
 
@@ -53,37 +61,145 @@ public class BirthdayCacher {
 
     public void cache() {
         executorService.submit(() -> {
-            try {
-                Cursor<Map<?, ?>> m = r.table("users").run(MantaroData.conn(), OptArgs.of("read_mode", "outdated"));
-                cachedBirthdays.clear();
-                List<Map<?, ?>> m1 = m.toList();
-
-                for(Map<?, ?> r : m1) {
-                    //Blame rethinkdb for the casting hell thx
-                    String birthday = (String) ((HashMap) r.get("data")).get("birthday");
-                    if(birthday != null && !birthday.isEmpty()) {
-                        log.debug("-> PROCESS: {}", r);
-                        String[] bd = birthday.split("-");
-                        cachedBirthdays.put(String.valueOf(r.get("id")), new BirthdayData(birthday, bd[0], bd[1]));
-                    }
+            try(Cursor<Map<String, Object>> c = r.table("users")
+                    .hasFields(r.hashMap("data", "birthday"))
+                    .pluck("id", r.hashMap("data", "birthday"))
+                    .run(MantaroData.conn(), OptArgs.of("read_mode", "outdated"))) {
+                TLongSet[] newCalendar = newCalendar();
+                TLongObjectMap<BirthdayData> newBirthdays = new TLongObjectHashMap<>();
+                while(c.hasNext()) {
+                    Map<String, Object> user = c.next();
+                    @SuppressWarnings("unchecked")
+                    BirthdayData data = parse((String) ((Map<String, Object>) user.get("data")).get("birthday"));
+                    if(data == null)
+                        continue;
+
+                    try {
+                        long id = Long.parseLong(String.valueOf(user.get("id")));
+                        newBirthdays.put(id, data);
+                        newCalendar[data.dayOfYear].add(id);
+                    } catch(NumberFormatException ignored) { }
                 }
 
-                log.debug("-> [CACHE] Birthdays: {}", cachedBirthdays);
+                synchronized(this) {
+                    calendar = newCalendar;
+                    birthdays = newBirthdays;
+                }
 
-                m.close();
                 isDone = true;
-                log.info("Cached all birthdays!");
+                log.info("Cached {} birthdays!", newBirthdays.size());
             } catch(Exception e) {
                 e.printStackTrace();
             }
         });
     }
 
+    /**
+     * Sets (or replaces) the birthday of an user.
+     *
+     * @param userId   The id of the user.
+     * @param birthday The birthday, in dd-MM-yyyy format. Null or empty removes it.
+     * @return Whether the birthday was valid and got indexed.
+     */
+    public boolean add(long userId, String birthday) {
+        BirthdayData data = parse(birthday);
+        if(data == null) {
+            remove(userId);
+            return false;
+        }
+
+        synchronized(this) {
+            BirthdayData old = birthdays.put(userId, data);
+            if(old != null)
+                calendar[old.dayOfYear].remove(userId);
+
+            calendar[data.dayOfYear].add(userId);
+        }
+
+        return true;
+    }
+
+    public synchronized void remove(long userId) {
+        BirthdayData old = birthdays.remove(userId);
+        if(old != null)
+            calendar[old.dayOfYear].remove(userId);
+    }
+
+    public synchronized BirthdayData get(long userId) {
+        return birthdays.get(userId);
+    }
+
+    public synchronized boolean isEmpty() {
+        return birthdays.isEmpty();
+    }
+
+    /**
+     * Users celebrating their birthday on the specified date. People born on 29-02 celebrate on 28-02 on non-leap years.
+     *
+     * @param date The date to look up.
+     * @return The ids of the users celebrating on that date.
+     */
+    public synchronized long[] getCelebrants(LocalDate date) {
+        TLongSet today = calendar[dayOfYear(date.getDayOfMonth(), date.getMonthValue())];
+        if(!date.isLeapYear() && date.getMonth() == Month.FEBRUARY && date.getDayOfMonth() == 28) {
+            TLongSet all = new TLongHashSet(today);
+            all.addAll(calendar[dayOfYear(29, 2)]);
+            return all.toArray();
+        }
+
+        return today.toArray();
+    }
+
+    /**
+     * Users with a birthday in the specified month.
+     *
+     * @param month The month, 1 to 12.
+     * @return The ids of the users born on that month.
+     */
+    public synchronized long[] getByMonth(int month) {
+        Month m = Month.of(month);
+        TLongSet all = new TLongHashSet();
+        int first = m.firstDayOfYear(true) - 1;
+        for(int i = 0; i < m.maxLength(); i++) {
+            all.addAll(calendar[first + i]);
+        }
+
+        return all.toArray();
+    }
+
+    private static BirthdayData parse(String birthday) {
+        if(birthday == null || birthday.isEmpty())
+            return null;
+
+        String[] bd = birthday.split("-");
+        try {
+            return new BirthdayData(birthday, bd[0], bd[1], dayOfYear(Integer.parseInt(bd[0]), Integer.parseInt(bd[1])));
+        } catch(Exception e) {
+            log.debug("Ignoring invalid birthday {}", birthday);
+            return null;
+        }
+    }
+
+    private static TLongSet[] newCalendar() {
+        TLongSet[] calendar = new TLongSet[DAYS];
+        for(int i = 0; i < DAYS; i++) {
+            calendar[i] = new TLongHashSet();
+        }
+
+        return calendar;
+    }
+
+    private static int dayOfYear(int day, int month) {
+        //2000 was a leap year.
+        return LocalDate.of(2000, month, day).getDayOfYear() - 1;
+    }
+
     @Data
     @AllArgsConstructor
-    public class BirthdayData {
+    public static class BirthdayData {
         public String birthday;
         public String day;
         public String month;
+        public int dayOfYear;
     }
 }
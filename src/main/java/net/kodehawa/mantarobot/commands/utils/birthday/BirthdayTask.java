@@ -17,6 +17,8 @@
 
 package net.kodehawa.mantarobot.commands.utils.birthday;
 
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import io.prometheus.client.Counter;
 import io.sentry.Sentry;
 import lombok.extern.slf4j.Slf4j;
@@ -31,20 +33,24 @@ import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
-import org.apache.commons.lang3.time.FastDateFormat;
 
-import java.util.Calendar;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 @Slf4j
 public class BirthdayTask {
-    private static FastDateFormat dateFormat = FastDateFormat.getInstance("dd-MM-yyyy");
     private ManagedDatabase db = MantaroData.db();
     private static final Counter birthdayCounter = Counter.build()
             .name("birthdays_logged").help("Logged birthdays (guild id)")
             .register();
 
+    //Guilds where the birthday role could still be on someone who isn't celebrating (it was given out, or a removal is pending).
+    //The first run sweeps every guild, later ones only sweep these and the ones with celebrants.
+    //Runs of the same task never overlap, so there's no need to lock these.
+    private final TLongSet sweep = new TLongHashSet();
+    private boolean swept;
+
     public void handle(int shardId) {
         try {
             BirthdayCacher cache = MantaroBot.getInstance().getBirthdayCacher();
@@ -60,12 +66,22 @@ public class BirthdayTask {
 
             log.info("Checking birthdays in shard {} to assign roles...", jda.getShardInfo() == null ? 0 : jda.getShardInfo().getShardId());
             long start = System.currentTimeMillis();
-            Calendar cal = Calendar.getInstance();
-            String now = dateFormat.format(cal.getTime()).substring(0, 5);
-            Map<String, BirthdayCacher.BirthdayData> cached = cache.cachedBirthdays;
+            LocalDate now = LocalDate.now();
+            long[] today = cache.getCelebrants(now);
+            TLongSet todaySet = new TLongHashSet(today);
+            long[] yesterday = cache.getCelebrants(now.minusDays(1));
             SnowflakeCacheView<Guild> guilds = jda.getGuildCache();
 
             for(Guild guild : guilds) {
+                //Only bother with the guild (and its settings) if someone in it is celebrating, just stopped doing so,
+                //or might still have the role from before (the birthday got changed, a removal failed, etc).
+                Set<Member> assign = members(guild, today, null);
+                Set<Member> divest = members(guild, yesterday, todaySet);
+                if(swept && assign.isEmpty() && divest.isEmpty() && !sweep.contains(guild.getIdLong()))
+                    continue;
+
+                //Added back below if it still needs checking.
+                sweep.remove(guild.getIdLong());
                 GuildData tempGuildData = db.getGuild(guild).getData();
                 if(tempGuildData.getBirthdayChannel() != null && tempGuildData.getBirthdayRole() != null) {
                     Role birthdayRole = guild.getRoleById(tempGuildData.getBirthdayRole());
@@ -83,68 +99,59 @@ public class BirthdayTask {
                         if(birthdayRole.isManaged())
                             continue;
 
-                        Map<String, BirthdayCacher.BirthdayData> guildMap = cached.entrySet().stream().filter(map -> guild.getMemberById(map.getKey()) != null)
-                                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+                        //tada!
+                        for(Member member : assign) {
+                            log.debug("Assigning birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
+                            String tempBirthdayMessage = String.format(EmoteReference.POPPER + "**%s is a year older now! Wish them a happy birthday.** :tada:",
+                                    member.getEffectiveName());
 
-                        for(Map.Entry<String, BirthdayCacher.BirthdayData> data : guildMap.entrySet()) {
-                            Member member = guild.getMemberById(data.getKey());
-                            String birthday = data.getValue().birthday;
+                            if(tempGuildData.getBirthdayMessage() != null) {
+                                tempBirthdayMessage = tempGuildData.getBirthdayMessage().replace("$(user)", member.getEffectiveName());
+                            }
 
-                            if(birthday == null) {
-                                log.debug("Birthday is null? Removing role if present and continuing to next iteration...");
-                                if(member.getRoles().contains(birthdayRole)) {
-                                    guild.removeRoleFromMember(member, birthdayRole)
+                            //Variable used in lambda expression should be final or effectively final...
+                            final String birthdayMessage = tempBirthdayMessage;
+
+                            if(!member.getRoles().contains(birthdayRole)) {
+                                try {
+                                    guild.addRoleToMember(member, birthdayRole)
                                             .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
-                                            .queue();
+                                            .queue(s -> {
+                                                channel.sendMessage(birthdayMessage).queue();
+                                                birthdayCounter.inc();
+                                            }
+                                    );
+                                    log.debug("Assigned birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
+                                    i++;
+                                    //Something went boom, ignore and continue
+                                } catch(Exception e) {
+                                    log.debug("Something went boom while assigning a birthday role?...");
                                 }
-                                continue; //shouldn't happen
                             }
-                            //else start the assigning
+                        }
 
-                            //tada!
-                            if(birthday.substring(0, 5).equals(now)) {
-                                log.debug("Assigning birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
-                                String tempBirthdayMessage = String.format(EmoteReference.POPPER + "**%s is a year older now! Wish them a happy birthday.** :tada:",
-                                        member.getEffectiveName());
+                        //day passed. Also take it from anyone else who has it but isn't celebrating, in case a previous run missed them
+                        //(the bot was down that day, the birthday got changed, etc).
+                        for(Member member : guild.getMembersWithRoles(birthdayRole)) {
+                            if(!todaySet.contains(member.getUser().getIdLong()))
+                                divest.add(member);
+                        }
 
-                                if(tempGuildData.getBirthdayMessage() != null) {
-                                    tempBirthdayMessage = tempGuildData.getBirthdayMessage().replace("$(user)", member.getEffectiveName());
-                                }
+                        //Check again tomorrow: today's celebrants will need the role taken away, and the removals below might fail.
+                        if(!assign.isEmpty() || !divest.isEmpty())
+                            sweep.add(guild.getIdLong());
 
-                                //Variable used in lambda expression should be final or effectively final...
-                                final String birthdayMessage = tempBirthdayMessage;
-
-                                if(!member.getRoles().contains(birthdayRole)) {
-                                    try {
-                                        guild.addRoleToMember(member, birthdayRole)
-                                                .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
-                                                .queue(s -> {
-                                                    channel.sendMessage(birthdayMessage).queue();
-                                                    birthdayCounter.inc();
-                                                }
-                                        );
-                                        log.debug("Assigned birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
-                                        i++;
-                                        //Something went boom, ignore and continue
-                                    } catch(Exception e) {
-                                        log.debug("Something went boom while assigning a birthday role?...");
-                                    }
-                                }
-                            } else {
-                                //day passed | member can return null? well, ill follow the ide advice here.
-                                if(member != null) {
-                                    if(member.getRoles().contains(birthdayRole)) {
-                                        try {
-                                            log.debug("Removing birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
-                                            guild.removeRoleFromMember(member, birthdayRole)
-                                                    .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
-                                                    .queue();
-                                            r++;
-                                            //Something went boom, ignore and continue
-                                        } catch(Exception e) {
-                                            log.debug("Something went boom while removing a birthday role?...");
-                                        }
-                                    }
+                        for(Member member : divest) {
+                            if(member.getRoles().contains(birthdayRole)) {
+                                try {
+                                    log.debug("Removing birthday role on guild {} (M: {})", guild.getId(), member.getEffectiveName());
+                                    guild.removeRoleFromMember(member, birthdayRole)
+                                            .reason("Birthday assigner. If you see this happening for every member of your server, or in unintended ways, please do ~>opts birthday disable")
+                                            .queue();
+                                    r++;
+                                    //Something went boom, ignore and continue
+                                } catch(Exception e) {
+                                    log.debug("Something went boom while removing a birthday role?...");
                                 }
                             }
                         }
@@ -152,6 +159,7 @@ public class BirthdayTask {
                 }
             }
 
+            swept = true;
             long end = System.currentTimeMillis();
 
             String toSend = String.format("Finished checking birthdays for shard %s, people assigned: %d, people divested: %d, took %dms",
@@ -163,4 +171,18 @@ public class BirthdayTask {
             Sentry.capture(e);
         }
     }
+
+    private static Set<Member> members(Guild guild, long[] ids, TLongSet exclude) {
+        Set<Member> members = new LinkedHashSet<>();
+        for(long id : ids) {
+            if(exclude != null && exclude.contains(id))
+                continue;
+
+            Member member = guild.getMemberById(id);
+            if(member != null)
+                members.add(member);
+        }
+
+        return members;
+    }
 }
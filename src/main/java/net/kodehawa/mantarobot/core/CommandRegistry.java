@@ -25,7 +25,6 @@ import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.commands.CustomCmds;
 import net.kodehawa.mantarobot.commands.info.stats.manager.CategoryStatsManager;
@@ -39,6 +38,7 @@ import net.kodehawa.mantarobot.core.modules.commands.base.Category;
 import net.kodehawa.mantarobot.core.modules.commands.base.Command;
 import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
 import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
+import net.kodehawa.mantarobot.core.modules.commands.newstuff.MessageContext;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
@@ -47,14 +47,13 @@ import net.kodehawa.mantarobot.db.entities.DBUser;
 import net.kodehawa.mantarobot.db.entities.PremiumKey;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.db.entities.helpers.UserData;
+import net.kodehawa.mantarobot.services.BlacklistService;
 import net.kodehawa.mantarobot.utils.Pair;
 import net.kodehawa.mantarobot.utils.Utils;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.commands.RateLimiter;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -93,19 +92,20 @@ public class CommandRegistry {
 
     //BEWARE OF INSTANCEOF CALLS
     //I know there are better approaches to this, THIS IS JUST A WORKAROUND, DON'T TRY TO REPLICATE THIS.
-    public boolean process(GuildMessageReceivedEvent event, String cmdName, String content, String prefix) {
+    public boolean process(GuildMessageReceivedEvent event, MessageContext context, String cmdName, String content, String prefix) {
         final ManagedDatabase managedDatabase = MantaroData.db();
         long start = System.currentTimeMillis();
 
         Command command = commands.get(cmdName.toLowerCase());
 
-        DBGuild dbg = managedDatabase.getGuild(event.getGuild());
-        DBUser dbUser = managedDatabase.getUser(event.getAuthor());
+        context.preload();
+        DBGuild dbg = context.getDBGuild();
+        DBUser dbUser = context.getDBUser();
         UserData userData = dbUser.getData();
         GuildData guildData = dbg.getData();
 
         if (command == null) {
-            CustomCmds.handle(prefix, cmdName, event, new I18nContext(guildData, userData), content);
+            CustomCmds.handle(prefix, cmdName, event, context, content);
             return false;
         }
 
@@ -117,7 +117,7 @@ public class CommandRegistry {
             return false;
         }
 
-        if (managedDatabase.getMantaroData().getBlackListedUsers().contains(event.getAuthor().getId())) {
+        if (BlacklistService.isUserBlacklisted(event.getAuthor().getIdLong())) {
             if(rl.process(event.getAuthor())) {
                 event.getChannel().sendMessage(EmoteReference.ERROR + "You have been blacklisted from using all of Mantaro's functions. " +
                         "If you wish to get more details on why, don't hesitate to join the support server and ask, but be sincere."
@@ -129,55 +129,9 @@ public class CommandRegistry {
         //Variable used in lambda expression should be final or effectively final...
         final Command cmd = command;
 
-        if (guildData.getDisabledCommands().contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName.toLowerCase())) {
-            return false;
-        }
-
-        List<String> channelDisabledCommands = guildData.getChannelSpecificDisabledCommands().get(event.getChannel().getId());
-        if (channelDisabledCommands != null && channelDisabledCommands.contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName.toLowerCase())) {
-            return false;
-        }
-
-        if (guildData.getDisabledUsers().contains(event.getAuthor().getId()) && !isAdmin(event.getMember())) {
-            return false;
-        }
-
-        if (guildData.getDisabledChannels().contains(event.getChannel().getId()) && (cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() != Category.MODERATION : cmd.category() != Category.MODERATION)) {
-            return false;
-        }
-
-        if (guildData.getDisabledCategories().contains(
-                cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() : cmd.category()
-        )  && !cmdName.toLowerCase().equals("opts")) {
-            return false;
-        }
-
-        if (guildData.getChannelSpecificDisabledCategories().computeIfAbsent(event.getChannel().getId(), c ->
-                new ArrayList<>()).contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() :
-                    cmd.category())
-                &&  !cmdName.toLowerCase().equals("opts")) {
-            return false;
-        }
-
-        if (guildData.getWhitelistedRole() != null) {
-            Role whitelistedRole = event.getGuild().getRoleById(guildData.getWhitelistedRole());
-            if ((whitelistedRole != null && event.getMember().getRoles().stream().noneMatch(r -> whitelistedRole.getId().equalsIgnoreCase(r.getId())) && !isAdmin(event.getMember()))) {
-                return false;
-            }
-            //else continue.
-        }
-
-        if (!guildData.getDisabledRoles().isEmpty() && event.getMember().getRoles().stream().anyMatch(r -> guildData.getDisabledRoles().contains(r.getId())) && !isAdmin(event.getMember())) {
-            return false;
-        }
-
-        HashMap<String, List<String>> roleSpecificDisabledCommands = guildData.getRoleSpecificDisabledCommands();
-        if (event.getMember().getRoles().stream().anyMatch(r -> roleSpecificDisabledCommands.computeIfAbsent(r.getId(), s -> new ArrayList<>()).contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName)) && !isAdmin(event.getMember())) {
-            return false;
-        }
-
-        HashMap<String, List<Category>> roleSpecificDisabledCategories = guildData.getRoleSpecificDisabledCategories();
-        if (event.getMember().getRoles().stream().anyMatch(r -> roleSpecificDisabledCategories.computeIfAbsent(r.getId(), s -> new ArrayList<>()).contains(cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() : cmd.category())) && !isAdmin(event.getMember())) {
+        String originalName = cmd instanceof AliasCommand ? ((AliasCommand) cmd).getOriginalName() : cmdName.toLowerCase();
+        Category category = cmd instanceof AliasCommand ? ((AliasCommand) cmd).parentCategory() : cmd.category();
+        if (!GuildCommandFilter.of(dbg).allows(event.getMember(), event.getChannel().getIdLong(), originalName, category)) {
             return false;
         }
 
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.kodehawa.mantarobot.core.modules.commands.base.Category;
+import net.kodehawa.mantarobot.core.modules.commands.base.CommandPermission;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The command restrictions of a guild (disabled commands, categories, channels, roles and members), compiled from its {@link GuildData}
+ * into hash sets and category bitmasks, so checking if a command can run doesn't walk (or modify) the guild data lists every time.
+ * Filters are cached per guild, and get invalidated whenever the guild gets saved (see {@link DBGuild#save()}).
+ * Every guild copy remembers how many times the guild had been invalidated when it was loaded (see {@link #generation(String)}), so a command
+ * that loaded the guild before a save can't cache the old restrictions again after they got invalidated.
+ */
+public class GuildCommandFilter {
+    private static final Cache<String, GuildCommandFilter> FILTERS = CacheBuilder.newBuilder()
+            .maximumSize(20000)
+            .expireAfterWrite(30, TimeUnit.MINUTES)
+            .concurrencyLevel(20)
+            .build();
+    //Counts invalidations, per group of guilds.
+    private static final AtomicLongArray generations = new AtomicLongArray(1024);
+
+    private final Set<String> disabledCommands;
+    private final int disabledCategories;
+    private final TLongSet disabledChannels;
+    private final TLongSet disabledUsers;
+    private final TLongSet disabledRoles;
+    private final TLongObjectMap<Set<String>> channelDisabledCommands;
+    private final TLongIntMap channelDisabledCategories;
+    private final TLongObjectMap<Set<String>> roleDisabledCommands;
+    private final TLongIntMap roleDisabledCategories;
+    private final long whitelistedRole;
+
+    private GuildCommandFilter(GuildData data) {
+        this.disabledCommands = toNameSet(data.getDisabledCommands());
+        this.disabledCategories = toMask(data.getDisabledCategories());
+        this.disabledChannels = toIdSet(data.getDisabledChannels());
+        this.disabledUsers = toIdSet(data.getDisabledUsers());
+        this.disabledRoles = toIdSet(data.getDisabledRoles());
+        this.channelDisabledCommands = toCommandMap(data.getChannelSpecificDisabledCommands());
+        this.channelDisabledCategories = toMaskMap(data.getChannelSpecificDisabledCategories());
+        this.roleDisabledCommands = toCommandMap(data.getRoleSpecificDisabledCommands());
+        this.roleDisabledCategories = toMaskMap(data.getRoleSpecificDisabledCategories());
+        this.whitelistedRole = data.getWhitelistedRole() == null ? 0 : parseId(data.getWhitelistedRole());
+    }
+
+    /**
+     * Gets the compiled filter for this guild, compiling it if needed.
+     *
+     * @param dbGuild The guild to get the filter for.
+     * @return The filter.
+     */
+    @Nonnull
+    public static GuildCommandFilter of(@Nonnull DBGuild dbGuild) {
+        String id = dbGuild.getId();
+        long loadedAt = dbGuild.getFilterGeneration();
+        //Saved since this copy was loaded, so it might have the old restrictions: don't cache what we compile from it.
+        if(generations.get(stripe(id)) != loadedAt) {
+            return new GuildCommandFilter(dbGuild.getData());
+        }
+
+        GuildCommandFilter filter;
+        try {
+            filter = FILTERS.get(id, () -> new GuildCommandFilter(dbGuild.getData()));
+        } catch(ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        //Saved (and invalidated) while we were compiling: this might have cached the old restrictions after the invalidation.
+        if(generations.get(stripe(id)) != loadedAt) {
+            FILTERS.asMap().remove(id, filter);
+        }
+
+        return filter;
+    }
+
+    /**
+     * Drops the compiled filter of a guild, the next command will compile it again from the current data.
+     *
+     * @param guildId The id of the guild.
+     */
+    public static void invalidate(@Nonnull String guildId) {
+        generations.incrementAndGet(stripe(guildId));
+        FILTERS.invalidate(guildId);
+    }
+
+    /**
+     * Read before loading a guild, and kept in the loaded copy (see {@link DBGuild#getFilterGeneration()}).
+     *
+     * @param guildId The id of the guild.
+     * @return How many times the guild (or others that share its counter) had been invalidated.
+     */
+    public static long generation(@Nonnull String guildId) {
+        return generations.get(stripe(guildId));
+    }
+
+    /**
+     * Checks if a built-in command can be ran.
+     *
+     * @param member   The member trying to run the command.
+     * @param channelId The channel the command was ran on.
+     * @param name     The (original, if it's an alias) name of the command, lowercase.
+     * @param category The category of the command.
+     * @return Whether the command can be ran or not.
+     */
+    public boolean allows(Member member, long channelId, String name, Category category) {
+        int categoryBit = category == null ? 0 : 1 << category.ordinal();
+        //opts can't be disabled by category, or people could lock themselves out of re-enabling it.
+        boolean categoryLock = !name.equals("opts");
+
+        if(disabledCommands.contains(name))
+            return false;
+
+        Set<String> channelCommands = channelDisabledCommands.get(channelId);
+        if(channelCommands != null && channelCommands.contains(name))
+            return false;
+
+        if(category != Category.MODERATION && disabledChannels.contains(channelId))
+            return false;
+
+        if(categoryLock && ((disabledCategories & categoryBit) != 0 || (channelDisabledCategories.get(channelId) & categoryBit) != 0))
+            return false;
+
+        //Everything below this doesn't apply to admins, so only check that if it's needed.
+        if(!isRestricted(member, name, categoryBit))
+            return true;
+
+        return CommandPermission.ADMIN.test(member);
+    }
+
+    /**
+     * Checks if a custom command can be ran. Custom commands can only be disabled by name.
+     *
+     * @param member   The member trying to run the command.
+     * @param channelId The channel the command was ran on.
+     * @param name     The name of the custom command.
+     * @return Whether the command can be ran or not.
+     */
+    public boolean allowsCustom(Member member, long channelId, String name) {
+        if(disabledCommands.contains(name))
+            return false;
+
+        Set<String> channelCommands = channelDisabledCommands.get(channelId);
+        if(channelCommands != null && channelCommands.contains(name))
+            return false;
+
+        if(roleDisabledCommands.isEmpty())
+            return true;
+
+        for(Role role : member.getRoles()) {
+            Set<String> roleCommands = roleDisabledCommands.get(role.getIdLong());
+            if(roleCommands != null && roleCommands.contains(name))
+                return CommandPermission.ADMIN.test(member);
+        }
+
+        return true;
+    }
+
+    //Checks the restrictions admins can bypass.
+    private boolean isRestricted(Member member, String name, int categoryBit) {
+        if(disabledUsers.contains(member.getUser().getIdLong()))
+            return true;
+
+        boolean checkRoles = !disabledRoles.isEmpty() || !roleDisabledCommands.isEmpty() || !roleDisabledCategories.isEmpty();
+        if(!checkRoles && whitelistedRole == 0)
+            return false;
+
+        boolean hasWhitelistedRole = false;
+        for(Role role : member.getRoles()) {
+            long id = role.getIdLong();
+            if(id == whitelistedRole)
+                hasWhitelistedRole = true;
+
+            if(!checkRoles)
+                continue;
+
+            if(disabledRoles.contains(id) || (roleDisabledCategories.get(id) & categoryBit) != 0)
+                return true;
+
+            Set<String> roleCommands = roleDisabledCommands.get(id);
+            if(roleCommands != null && roleCommands.contains(name))
+                return true;
+        }
+
+        //Only enforce the whitelist if the role still exists.
+        return whitelistedRole != 0 && !hasWhitelistedRole && member.getGuild().getRoleById(whitelistedRole) != null;
+    }
+
+    private static int stripe(String guildId) {
+        return (guildId.hashCode() & Integer.MAX_VALUE) % generations.length();
+    }
+
+    private static long parseId(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Set<String> toNameSet(Collection<String> names) {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        if(names != null) {
+            for(String name : names) {
+                if(name != null)
+                    builder.add(name);
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static TLongSet toIdSet(Collection<String> ids) {
+        TLongSet set = new TLongHashSet();
+        if(ids != null) {
+            for(String id : ids) {
+                long parsed = parseId(id);
+                if(parsed != 0)
+                    set.add(parsed);
+            }
+        }
+
+        return set;
+    }
+
+    private static int toMask(Collection<Category> categories) {
+        int mask = 0;
+        if(categories != null) {
+            for(Category category : categories) {
+                if(category != null)
+                    mask |= 1 << category.ordinal();
+            }
+        }
+
+        return mask;
+    }
+
+    private static TLongObjectMap<Set<String>> toCommandMap(Map<String, List<String>> map) {
+        TLongObjectMap<Set<String>> result = new TLongObjectHashMap<>();
+        for(Map.Entry<String, List<String>> entry : map.entrySet()) {
+            long id = parseId(entry.getKey());
+            if(id != 0 && entry.getValue() != null && !entry.getValue().isEmpty())
+                result.put(id, toNameSet(entry.getValue()));
+        }
+
+        return result;
+    }
+
+    private static TLongIntMap toMaskMap(Map<String, List<Category>> map) {
+        //No entry value is 0 by default, which is the empty mask.
+        TLongIntMap result = new TLongIntHashMap();
+        for(Map.Entry<String, List<Category>> entry : map.entrySet()) {
+            long id = parseId(entry.getKey());
+            int mask = toMask(entry.getValue());
+            if(id != 0 && mask != 0)
+                result.put(id, mask);
+        }
+
+        return result;
+    }
+}
@@ -17,15 +17,75 @@
 
 package net.kodehawa.mantarobot.core;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
 import net.dv8tion.jda.api.hooks.InterfacedEventManager;
+import net.kodehawa.mantarobot.core.listeners.events.MantaroEvent;
 import net.kodehawa.mantarobot.core.listeners.events.ShardMonitorEvent;
+import net.kodehawa.mantarobot.utils.Prometheus;
 import org.slf4j.Logger;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event manager used by every shard. Besides tracking when the last event arrived (see {@link net.kodehawa.mantarobot.core.shard.watcher.ShardWatcher}),
+ * it can hand events over to a per-shard dispatcher thread, so a slow listener (a slow db call, for example) doesn't stall the gateway.
+ * Events still get dispatched in order. If the dispatch queue fills up, the gateway thread waits a bit for space (reported as backpressure),
+ * and drops the event if there's still none, as waiting any longer could get the shard disconnected.
+ * <p>
+ * A dispatcher stuck on a listener stops the {@link ShardMonitorEvent} from reaching the listeners, so the shard shows up as dead.
+ */
 @Slf4j
 public class MantaroEventManager extends InterfacedEventManager {
+    private static final Histogram listenerLatency = Histogram.build()
+            .name("event_listener_latency").help("Time it takes for a listener to handle an event (seconds)")
+            .labelNames("listener")
+            .register();
+    private static final Gauge queuedEvents = Gauge.build()
+            .name("event_queue_size").help("Events waiting to be dispatched to the listeners")
+            .labelNames("shard")
+            .register();
+    private static final Counter backpressureEvents = Counter.build()
+            .name("event_backpressure").help("Events that had to wait for space on a full dispatch queue")
+            .labelNames("shard")
+            .register();
+    private static final Counter droppedEvents = Counter.build()
+            .name("event_dropped").help("Events dropped because the dispatch queue was still full after waiting for space")
+            .labelNames("shard")
+            .register();
+    //How long the gateway thread waits for space on a full queue before dropping the event.
+    private static final long QUEUE_TIMEOUT = 1000;
+    //How long the dispatcher can go without finishing an event while it has work before it's considered stuck.
+    private static final long DISPATCHER_STALL_TIMEOUT = 50000;
+
+    private final String shard;
+    //Null when dispatching on the gateway thread.
+    private final ThreadPoolExecutor dispatcher;
     private long LAST_JDA_EVENT;
+    //When the dispatcher last started or finished an event.
+    private volatile long lastDispatcherProgress = System.currentTimeMillis();
+
+    public MantaroEventManager(int shardId, boolean async, int queueSize) {
+        this.shard = String.valueOf(shardId);
+
+        if(async) {
+            dispatcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                    new ThreadFactoryBuilder().setNameFormat("MantaroEventManager-Dispatcher[" + shardId + "] Thread-%d").setDaemon(true).build());
+            //Events get put straight into the queue when it's full, so the thread needs to be running beforehand.
+            dispatcher.prestartCoreThread();
+            Prometheus.THREAD_POOL_COLLECTOR.add("event-dispatcher-shard-" + shardId, dispatcher);
+        } else {
+            dispatcher = null;
+        }
+    }
 
     public static Logger getLog() {
         return log;
@@ -37,10 +97,85 @@ public class MantaroEventManager extends InterfacedEventManager {
             LAST_JDA_EVENT = System.currentTimeMillis();
         }
 
-        super.handle(event);
+        //Our own events get propagated by whoever needs the result right after (see EventUtils), so they can't wait in the queue.
+        if(dispatcher == null || event instanceof MantaroEvent) {
+            //...but then the monitor would see the listeners working even if the dispatcher isn't, so check that separately.
+            if(event instanceof ShardMonitorEvent && getDispatcherStallTime() > DISPATCHER_STALL_TIMEOUT) {
+                log.warn("Event dispatcher of shard {} hasn't finished an event in {}ms, reporting it as dead", shard, getDispatcherStallTime());
+                return;
+            }
+
+            dispatch(event);
+            return;
+        }
+
+        queuedEvents.labels(shard).inc();
+        Runnable task = () -> {
+            queuedEvents.labels(shard).dec();
+            lastDispatcherProgress = System.currentTimeMillis();
+            try {
+                dispatch(event);
+            } finally {
+                lastDispatcherProgress = System.currentTimeMillis();
+            }
+        };
+
+        BlockingQueue<Runnable> queue = dispatcher.getQueue();
+        //It was idle until now, which isn't being stuck.
+        if(dispatcher.getActiveCount() == 0 && queue.isEmpty())
+            lastDispatcherProgress = System.currentTimeMillis();
+
+        if(queue.offer(task))
+            return;
+
+        //Queue is full: wait a bit for space instead of running it here, which would dispatch this event before the ones that are already queued.
+        backpressureEvents.labels(shard).inc();
+        try {
+            if(queue.offer(task, QUEUE_TIMEOUT, TimeUnit.MILLISECONDS))
+                return;
+
+            queuedEvents.labels(shard).dec();
+            droppedEvents.labels(shard).inc();
+            log.warn("Dropped event {} on shard {}: the dispatch queue is still full", event.getClass().getSimpleName(), shard);
+        } catch(InterruptedException e) {
+            queuedEvents.labels(shard).dec();
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting to queue event {} on shard {}", event.getClass().getSimpleName(), shard);
+        }
     }
 
     public long getLastJDAEventTimeDiff() {
         return System.currentTimeMillis() - LAST_JDA_EVENT;
     }
+
+    /**
+     * @return The amount of events waiting to be dispatched, always 0 if events are dispatched on the gateway thread.
+     */
+    public int getQueuedEvents() {
+        return dispatcher == null ? 0 : dispatcher.getQueue().size();
+    }
+
+    /**
+     * @return How long the dispatcher has been working (or had events waiting) without finishing one, in milliseconds. 0 if it's idle,
+     * or if events are dispatched on the gateway thread.
+     */
+    public long getDispatcherStallTime() {
+        if(dispatcher == null || (dispatcher.getActiveCount() == 0 && dispatcher.getQueue().isEmpty()))
+            return 0;
+
+        return System.currentTimeMillis() - lastDispatcherProgress;
+    }
+
+    private void dispatch(GenericEvent event) {
+        for(Object listener : getRegisteredListeners()) {
+            Histogram.Timer timer = listenerLatency.labels(listener.getClass().getSimpleName()).startTimer();
+            try {
+                ((EventListener) listener).onEvent(event);
+            } catch(Throwable t) {
+                log.error("One of the EventListeners had an uncaught exception", t);
+            } finally {
+                timer.observeDuration();
+            }
+        }
+    }
 }
@@ -50,15 +50,16 @@ import net.kodehawa.mantarobot.commands.info.stats.manager.GuildStatsManager.Log
 import net.kodehawa.mantarobot.core.MantaroCore;
 import net.kodehawa.mantarobot.core.listeners.entities.CachedMessage;
 import net.kodehawa.mantarobot.core.listeners.events.ShardMonitorEvent;
+import net.kodehawa.mantarobot.core.modules.commands.newstuff.MessageContext;
 import net.kodehawa.mantarobot.core.shard.MantaroShard;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
 import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.DBUser;
-import net.kodehawa.mantarobot.db.entities.MantaroObj;
 import net.kodehawa.mantarobot.db.entities.PremiumKey;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.log.LogUtils;
+import net.kodehawa.mantarobot.services.BlacklistService;
 import net.kodehawa.mantarobot.utils.SentryHelper;
 import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.data.GsonDataManager;
@@ -463,10 +464,8 @@ public class MantaroListener implements EventListener {
             log.info("Got a guild join event with null guild? Shard {}", shardId);
         }
 
-        final MantaroObj mantaroData = MantaroData.db().getMantaroData();
-
         try {
-            if (mantaroData.getBlackListedGuilds().contains(event.getGuild().getId()) || mantaroData.getBlackListedUsers().contains(event.getGuild().getOwner().getUser().getId())) {
+            if (BlacklistService.isGuildBlacklisted(event.getGuild().getIdLong()) || BlacklistService.isUserBlacklisted(event.getGuild().getOwner().getUser().getIdLong())) {
                 event.getGuild().leave().queue();
                 return;
             }
@@ -482,9 +481,7 @@ public class MantaroListener implements EventListener {
 
     private void onLeave(GuildLeaveEvent event) {
         try {
-            final MantaroObj mantaroData = MantaroData.db().getMantaroData();
-
-            if (mantaroData.getBlackListedGuilds().contains(event.getGuild().getId()) || mantaroData.getBlackListedUsers().contains(event.getGuild().getOwner().getUser().getId())) {
+            if (BlacklistService.isGuildBlacklisted(event.getGuild().getIdLong()) || BlacklistService.isUserBlacklisted(event.getGuild().getOwner().getUser().getIdLong())) {
                 log.info("Left " + event.getGuild() + " because of a blacklist entry. (O:" + event.getGuild().getOwner() + ")");
                 return;
             }
@@ -504,8 +501,7 @@ public class MantaroListener implements EventListener {
             return;
 
         //Moderation features
-        DBGuild dbGuild = MantaroData.db().getGuild(event.getGuild());
-        GuildData guildData = dbGuild.getData();
+        GuildData guildData = MessageContext.of(event).getGuildData();
 
         //link protection
         if (guildData.isLinkProtection() && !guildData.getLinkProtectionAllowedChannels().contains(event.getChannel().getId()) &&
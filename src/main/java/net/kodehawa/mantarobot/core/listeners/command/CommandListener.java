@@ -33,11 +33,10 @@ import net.kodehawa.mantarobot.commands.custom.legacy.DynamicModifiers;
 import net.kodehawa.mantarobot.core.listeners.entities.CachedMessage;
 import net.kodehawa.mantarobot.core.listeners.events.ShardMonitorEvent;
 import net.kodehawa.mantarobot.core.listeners.operations.InteractiveOperations;
+import net.kodehawa.mantarobot.core.modules.commands.newstuff.MessageContext;
 import net.kodehawa.mantarobot.core.processor.core.ICommandProcessor;
 import net.kodehawa.mantarobot.core.shard.MantaroShard;
 import net.kodehawa.mantarobot.data.I18n;
-import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.db.entities.DBGuild;
 import net.kodehawa.mantarobot.db.entities.Player;
 import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
 import net.kodehawa.mantarobot.db.entities.helpers.PlayerData;
@@ -112,12 +111,13 @@ public class CommandListener implements EventListener {
     }
 
     private void onCommand(GuildMessageReceivedEvent event) {
+        MessageContext context = MessageContext.of(event);
         try {
             Member self = event.getGuild().getSelfMember();
             if(!self.getPermissions(event.getChannel()).contains(Permission.MESSAGE_WRITE) && !self.hasPermission(Permission.ADMINISTRATOR))
                 return;
 
-            if(commandProcessor.run(event)) {
+            if(commandProcessor.run(event, context)) {
                 commandTotal++;
             } else {
                 //Only run experience if no command has been executed, avoids weird race conditions when saving player status.
@@ -132,10 +132,9 @@ public class CommandListener implements EventListener {
                         if(InteractiveOperations.get(event.getChannel()).size() > 0)
                             return;
 
-                        Player player = MantaroData.db().getPlayer(event.getAuthor());
+                        Player player = context.getPlayer();
                         PlayerData data = player.getData();
-                        DBGuild dbGuild = MantaroData.db().getGuild(event.getGuild());
-                        GuildData guildData = dbGuild.getData();
+                        GuildData guildData = context.getGuildData();
 
                         if(player.isLocked())
                             return;
@@ -196,12 +195,12 @@ public class CommandListener implements EventListener {
             e.printStackTrace();
             SentryHelper.captureExceptionContext("Something seems to have broken in the db! Check this out!", e, this.getClass(), "Database");
         } catch(Exception e) {
-            I18n context = I18n.of(event.getGuild());
+            I18n i18n = I18n.of(event.getGuild());
 
             String id = Snow64.toSnow64(event.getMessage().getIdLong());
-            Player player = MantaroData.db().getPlayer(event.getAuthor());
+            Player player = context.getPlayer();
             event.getChannel().sendMessageFormat(
-                    "%s%s\n(Error ID: `%s`)\n" + context.get("general.generic_error"), EmoteReference.ERROR, context.get("general.boom_quotes"), id
+                    "%s%s\n(Error ID: `%s`)\n" + i18n.get("general.generic_error"), EmoteReference.ERROR, i18n.get("general.boom_quotes"), id
             ).queue();
 
             if(player.getData().addBadgeIfAbsent(Badge.FIRE))
@@ -209,6 +208,8 @@ public class CommandListener implements EventListener {
 
             SentryHelper.captureException(String.format("Unexpected Exception on Command: %s | (Error ID: ``%s``)", event.getMessage().getContentRaw(), id), e, this.getClass());
             log.error("Error happened with id: {} (Error ID: {})", event.getMessage().getContentRaw(), id, e);
+        } finally {
+            context.finish();
         }
     }
 
@@ -18,14 +18,13 @@
 package net.kodehawa.mantarobot.core.listeners.operations;
 
 import net.dv8tion.jda.api.entities.MessageChannel;
-import net.dv8tion.jda.api.events.Event;
 import net.dv8tion.jda.api.events.GenericEvent;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.EventListener;
 import net.kodehawa.mantarobot.core.listeners.operations.core.InteractiveOperation;
 import net.kodehawa.mantarobot.core.listeners.operations.core.Operation;
-import net.kodehawa.mantarobot.utils.Prometheus;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
@@ -34,6 +33,7 @@ import java.util.stream.Collectors;
 /**
  * Utility class to create, get or use a {@link InteractiveOperation}.
  * An InteractiveOperation is an Operation that listens for upcoming messages. It can be used for all kind of stuff, like listening for user input, etc.
+ * Operations run on the {@link OperationExecutor}, not on the event threads.
  */
 public class InteractiveOperations {
     //The listener used to check interactive operations.
@@ -41,22 +41,6 @@ public class InteractiveOperations {
 
     private static final ConcurrentHashMap<Long, List<RunningOperation>> OPS = new ConcurrentHashMap<>();
 
-    static {
-        ScheduledExecutorService s = Executors.newScheduledThreadPool(10, r->{
-            Thread t = new Thread(r);
-            t.setDaemon(true);
-            t.setName("InteractiveOperations-Timeout-Processor");
-            return t;
-        });
-
-        Prometheus.THREAD_POOL_COLLECTOR.add("interactive-operations-timeout", s);
-
-        s.scheduleAtFixedRate(()-> OPS.values().removeIf(list->{
-            list.removeIf(RunningOperation::isTimedOut);
-            return list.isEmpty();
-        }), 1, 1, TimeUnit.SECONDS);
-    }
-
     /**
      * Returns a Future<Void> representing the current RunningOperation instance on the specified channel.
      * @param channel The MessageChannel to check.
@@ -108,18 +92,23 @@ public class InteractiveOperations {
         if(operation == null)
             throw new IllegalArgumentException("Operation cannot be null");
 
-        List<RunningOperation> l = OPS.computeIfAbsent(channelId, ignored->new CopyOnWriteArrayList<>());
-
-        RunningOperation current = l.stream().filter(op -> op.userId == userId).findFirst().orElse(null);
+        List<RunningOperation> l = OPS.get(channelId);
+        RunningOperation current = l == null ? null : l.stream().filter(op -> op.userId == userId).findFirst().orElse(null);
         if(current != null) {
             //Always override old player operation.
             current.future.cancel(true);
-            l.remove(current);
         }
 
         RunningOperation o = new RunningOperation(operation, userId, channelId, timeoutSeconds * 1000);
-        l.add(o);
-        OPS.put(channelId, l);
+        //Done inside compute, so it can't race with the removal of the (empty) list.
+        OPS.compute(channelId, (id, list) -> {
+            List<RunningOperation> operations = list == null ? new CopyOnWriteArrayList<>() : list;
+            operations.add(o);
+            return operations;
+        });
+
+        OperationExecutor.running.labels("interactive").inc();
+        OperationExecutor.schedule(o);
 
         return o.future;
     }
@@ -152,48 +141,75 @@ public class InteractiveOperations {
             if(l == null || l.isEmpty())
                 return;
 
-            l.removeIf(o->{
-                try {
-                    int i = o.operation.run(event);
-                    if(i == Operation.COMPLETED) {
-                        o.future.complete(null);
-                        return true;
+            //Only the ones running when the message arrived get it, like when this ran on the event thread.
+            List<RunningOperation> operations = new ArrayList<>(l);
+            OperationExecutor.execute(channelId, () -> {
+                for(RunningOperation o : operations) {
+                    //Could have been cancelled or timed out while this was queued.
+                    if(o.removed)
+                        continue;
+
+                    try {
+                        int i = OperationExecutor.run("interactive", () -> o.operation.run(event));
+                        if(i == Operation.COMPLETED) {
+                            if(remove(channelId, o))
+                                o.future.complete(null);
+                        } else if(i == Operation.RESET_TIMEOUT) {
+                            o.resetTimeout();
+                        }
+                    } catch(Exception ex) {
+                        ex.printStackTrace();
                     }
-                    if(i == Operation.RESET_TIMEOUT) {
-                        o.resetTimeout();
-                    }
-                    return false;
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                    return false;
                 }
             });
         }
     }
 
+    //Returns false if it was already removed (completed, cancelled or timed out).
+    private static boolean remove(long channelId, RunningOperation operation) {
+        List<RunningOperation> l = OPS.get(channelId);
+        if(l == null || !l.remove(operation))
+            return false;
+
+        operation.removed = true;
+        OperationExecutor.running.labels("interactive").dec();
+        OPS.computeIfPresent(channelId, (id, list) -> list.isEmpty() ? null : list);
+        return true;
+    }
+
     //Represents an eventually-running Operation.
-    private static final class RunningOperation {
+    private static final class RunningOperation implements OperationExecutor.Expiring {
         final OperationFuture future;
         final InteractiveOperation operation;
+        final long channelId;
         final long timeout;
-        long timeoutTime;
+        volatile long timeoutTime;
+        volatile boolean removed;
         long userId;
 
-        //timeout (argument) is in millis, field is in nanos
+        //timeout is in millis
         RunningOperation(InteractiveOperation operation, long userId, long channelId, long timeout) {
             this.operation = operation;
             this.future = new OperationFuture(channelId, this);
-            this.timeout = timeout * 1_000_000;
+            this.channelId = channelId;
+            this.timeout = timeout;
             this.userId = userId;
             resetTimeout();
         }
 
-        boolean isTimedOut() {
-            return timeoutTime - System.nanoTime() < 0;
+        void resetTimeout() {
+            timeoutTime = System.currentTimeMillis() + timeout;
         }
 
-        void resetTimeout() {
-            timeoutTime = System.nanoTime() + timeout;
+        @Override
+        public long deadline() {
+            return timeoutTime;
+        }
+
+        @Override
+        public void expire() {
+            if(remove(channelId, this))
+                OperationExecutor.execute(channelId, operation::onExpire);
         }
     }
 
@@ -208,11 +224,10 @@ public class InteractiveOperations {
 
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
-            List<RunningOperation> l = OPS.get(id);
-
-            if(l == null || !l.remove(operation))
+            if(!remove(id, operation))
                 return false;
 
+            super.cancel(mayInterruptIfRunning);
             operation.operation.onCancel();
             return true;
         }
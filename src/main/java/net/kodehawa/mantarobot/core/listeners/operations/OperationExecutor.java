@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.core.listeners.operations;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.utils.Prometheus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs operation callbacks off the event threads, one at a time per channel so they still see what happens in a channel in order,
+ * and times operations out from a hashed timing wheel with one second ticks. The wheel is only touched from the timer thread.
+ */
+@Slf4j
+final class OperationExecutor {
+    private static final long TICK = TimeUnit.SECONDS.toMillis(1);
+    //Power of two, so the bucket is just a mask away.
+    private static final int WHEEL_SIZE = 512;
+
+    static final Gauge running = Gauge.build()
+            .name("operations_running").help("Operations waiting for events")
+            .labelNames("type")
+            .register();
+    private static final Histogram runLatency = Histogram.build()
+            .name("operation_run_latency").help("Time taken by operation callbacks, in seconds")
+            .labelNames("type")
+            .register();
+
+    private static final ExecutorService pool;
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Operations-Timeout Thread-%d").setDaemon(true).build());
+    //Last task queued for each channel. Removed by the task itself once it's done, if nothing was queued after it.
+    private static final Map<Long, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    private static final List<List<Timeout>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private static final long start = System.currentTimeMillis();
+    private static long tick;
+
+    static {
+        int threads = MantaroData.config().get().operationPoolSize;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("Operations Thread-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        pool = executor;
+
+        for(int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+
+        Prometheus.THREAD_POOL_COLLECTOR.add("operations", pool);
+        Prometheus.THREAD_POOL_COLLECTOR.add("operations-timeout", timer);
+        timer.scheduleAtFixedRate(OperationExecutor::advance, TICK, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    private OperationExecutor() {}
+
+    /**
+     * Queues a task to run after every other task queued for the same channel.
+     */
+    static void execute(long channelId, Runnable task) {
+        CompletableFuture<Void> queued = tails.compute(channelId, (id, tail) ->
+                (tail == null ? CompletableFuture.<Void>completedFuture(null) : tail).thenRunAsync(() -> {
+                    try {
+                        task.run();
+                    } catch(Exception e) {
+                        log.error("Error running operation task on channel {}", channelId, e);
+                    }
+                }, pool)
+        );
+
+        queued.whenComplete((ignored, t) -> tails.remove(channelId, queued));
+    }
+
+    /**
+     * Runs an operation callback, recording how long it took.
+     */
+    static int run(String type, IntSupplier callback) {
+        Histogram.Timer t = runLatency.labels(type).startTimer();
+        try {
+            return callback.getAsInt();
+        } finally {
+            t.observeDuration();
+        }
+    }
+
+    /**
+     * Calls {@link Expiring#expire()} once the deadline of the specified operation passes. The deadline can be moved later meanwhile.
+     */
+    static void schedule(Expiring expiring) {
+        timer.execute(() -> enqueue(expiring));
+    }
+
+    private static void enqueue(Expiring expiring) {
+        //Anything overdue goes on the next tick.
+        long deadline = Math.max(tick, (expiring.deadline() - start + TICK - 1) / TICK);
+        wheel.get((int) (deadline & (WHEEL_SIZE - 1))).add(new Timeout(expiring, (deadline - tick) / WHEEL_SIZE));
+    }
+
+    //Runs every tick, and catches up on the ticks missed if the timer fell behind.
+    private static void advance() {
+        try {
+            long now = (System.currentTimeMillis() - start) / TICK;
+            List<Expiring> due = new ArrayList<>();
+            while(tick <= now) {
+                wheel.get((int) (tick & (WHEEL_SIZE - 1))).removeIf(timeout -> {
+                    if(timeout.rounds-- > 0)
+                        return false;
+
+                    due.add(timeout.expiring);
+                    return true;
+                });
+
+                tick++;
+            }
+
+            long time = System.currentTimeMillis();
+            for(Expiring expiring : due) {
+                //Timeouts are reset by moving the deadline, so they're only looked at again once the old one passes.
+                if(expiring.deadline() > time)
+                    enqueue(expiring);
+                else
+                    expiring.expire();
+            }
+        } catch(Exception e) {
+            log.error("Error advancing the operation timeout wheel", e);
+        }
+    }
+
+    interface Expiring {
+        /**
+         * @return When this should expire, in epoch millis.
+         */
+        long deadline();
+
+        /**
+         * Called from the timer thread once the deadline passes. Should do nothing if it already finished some other way.
+         */
+        void expire();
+    }
+
+    private static class Timeout {
+        private final Expiring expiring;
+        private long rounds;
+
+        private Timeout(Expiring expiring, long rounds) {
+            this.expiring = expiring;
+            this.rounds = rounds;
+        }
+    }
+}
@@ -18,32 +18,34 @@
 package net.kodehawa.mantarobot.core.listeners.operations;
 
 import net.dv8tion.jda.api.entities.Message;
-import net.dv8tion.jda.api.events.Event;
 import net.dv8tion.jda.api.events.GenericEvent;
 import net.dv8tion.jda.api.events.message.react.MessageReactionAddEvent;
 import net.dv8tion.jda.api.events.message.react.MessageReactionRemoveAllEvent;
 import net.dv8tion.jda.api.events.message.react.MessageReactionRemoveEvent;
 import net.dv8tion.jda.api.hooks.EventListener;
-import net.jodah.expiringmap.ExpiringMap;
 import net.kodehawa.mantarobot.core.listeners.operations.core.Operation;
 import net.kodehawa.mantarobot.core.listeners.operations.core.ReactionOperation;
 
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
+/**
+ * Utility class to create, get or use a {@link ReactionOperation}, which listens for reactions on a message sent by the bot.
+ * Operations run on the {@link OperationExecutor}, not on the event threads, one at a time per channel.
+ */
 public final class ReactionOperations {
 
     //The listener used to check reactions
     private static final EventListener LISTENER = new ReactionListener();
 
-    private static final ExpiringMap<Long, RunningOperation> OPERATIONS = ExpiringMap.<Long, RunningOperation>builder()
-            .asyncExpirationListener((key, value) -> ((RunningOperation) value).operation.onExpire())
-            .variableExpiration()
-            .build();
+    private static final Map<Long, RunningOperation> OPERATIONS = new ConcurrentHashMap<>();
 
     public static Future<Void> get(Message message) {
         if(!message.getAuthor().equals(message.getJDA().getSelfUser()))
@@ -63,7 +65,7 @@ public final class ReactionOperations {
         if(!message.getAuthor().equals(message.getJDA().getSelfUser()))
             throw new IllegalArgumentException("Must provide a message sent by the bot");
 
-        Future<Void> f = createOrGet(message.getIdLong(), timeoutSeconds, operation);
+        Future<Void> f = start(message.getChannel().getIdLong(), message.getIdLong(), timeoutSeconds, operation, true);
 
         if(defaultReactions.length > 0) {
             AtomicInteger index = new AtomicInteger();
@@ -89,29 +91,15 @@ public final class ReactionOperations {
     }
 
     public static Future<Void> createOrGet(long messageId, long timeoutSeconds, ReactionOperation operation) {
-        if(timeoutSeconds < 1)
-            throw new IllegalArgumentException("Timeout is less than 1 second");
-
-        if(operation == null)
-            throw new IllegalArgumentException("Operation cannot be null!");
-
-        RunningOperation o = OPERATIONS.get(messageId);
-
-        //If we find an already-running one, return the running operation.
-        if(o != null)
-            return o.future;
-
-        o = new RunningOperation(operation, new OperationFuture(messageId));
-        OPERATIONS.put(messageId, o, timeoutSeconds, TimeUnit.SECONDS);
-
-        return o.future;
+        //Without the channel, callbacks get serialized per message instead.
+        return start(messageId, messageId, timeoutSeconds, operation, true);
     }
 
     public static Future<Void> create(Message message, long timeoutSeconds, ReactionOperation operation, String... defaultReactions) {
         if(!message.getAuthor().equals(message.getJDA().getSelfUser()))
             throw new IllegalArgumentException("Must provide a message sent by the bot");
 
-        Future<Void> f = create(message.getIdLong(), timeoutSeconds, operation);
+        Future<Void> f = start(message.getChannel().getIdLong(), message.getIdLong(), timeoutSeconds, operation, false);
 
         if(defaultReactions.length > 0) {
             AtomicInteger index = new AtomicInteger();
@@ -139,20 +127,27 @@ public final class ReactionOperations {
     }
 
     public static Future<Void> create(long messageId, long timeoutSeconds, ReactionOperation operation) {
+        //Without the channel, callbacks get serialized per message instead.
+        return start(messageId, messageId, timeoutSeconds, operation, false);
+    }
+
+    //Returns the running operation if there's one and orGet is true, null if there's one and it isn't.
+    private static Future<Void> start(long channelId, long messageId, long timeoutSeconds, ReactionOperation operation, boolean orGet) {
         if(timeoutSeconds < 1)
             throw new IllegalArgumentException("Timeout is less than 1 second");
 
         if(operation == null)
             throw new IllegalArgumentException("Operation cannot be null!");
 
-        RunningOperation o = OPERATIONS.get(messageId);
+        RunningOperation o = new RunningOperation(operation, channelId, messageId, TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        RunningOperation running = OPERATIONS.putIfAbsent(messageId, o);
 
         //Already running?
-        if(o != null)
-            return null;
+        if(running != null)
+            return orGet ? running.future : null;
 
-        o = new RunningOperation(operation, new OperationFuture(messageId));
-        OPERATIONS.put(messageId, o, timeoutSeconds, TimeUnit.SECONDS);
+        OperationExecutor.running.labels("reaction").inc();
+        OperationExecutor.schedule(o);
 
         return o.future;
     }
@@ -168,33 +163,24 @@ public final class ReactionOperations {
         return r;
     }
 
+    //Returns false if it was already removed (completed, cancelled or expired).
+    private static boolean remove(RunningOperation operation) {
+        if(!OPERATIONS.remove(operation.messageId, operation))
+            return false;
+
+        OperationExecutor.running.labels("reaction").dec();
+        return true;
+    }
+
     public static class ReactionListener implements EventListener {
         @Override
         public void onEvent(GenericEvent e) {
-
             if(e instanceof MessageReactionAddEvent) {
                 MessageReactionAddEvent event = (MessageReactionAddEvent) e;
                 if(event.getReaction().isSelf())
                     return;
 
-                long messageId = event.getMessageIdLong();
-                RunningOperation o = OPERATIONS.get(messageId);
-
-                if(o == null)
-                    return;
-
-                //Forward this event to the anonymous class.
-                int i = o.operation.add(event);
-
-                if(i == Operation.COMPLETED) {
-                    //Operation has been completed. We can remove this from the running operations list and go on.
-                    OPERATIONS.remove(messageId);
-                    o.future.complete(null);
-                } else if(i == Operation.RESET_TIMEOUT) {
-                    //Reset the expiration of this specific operation.
-                    OPERATIONS.resetExpiration(messageId);
-                }
-
+                dispatch(event.getMessageIdLong(), o -> o.add(event));
                 return;
             }
 
@@ -203,75 +189,89 @@ public final class ReactionOperations {
                 if(event.getReaction().isSelf())
                     return;
 
-                long messageId = event.getMessageIdLong();
-                RunningOperation o = OPERATIONS.get(messageId);
-
-                if(o == null)
-                    return;
-
-                //Forward this event to the anonymous class.
-                int i = o.operation.remove(event);
-
-                if(i == Operation.COMPLETED) {
-                    //Operation has been completed. We can remove this from the running operations list and go on.
-                    OPERATIONS.remove(messageId);
-                    o.future.complete(null);
-                } else if(i == Operation.RESET_TIMEOUT) {
-                    //Reset the expiration of this specific operation.
-                    OPERATIONS.resetExpiration(messageId);
-                }
-
+                dispatch(event.getMessageIdLong(), o -> o.remove(event));
                 return;
             }
 
             if(e instanceof MessageReactionRemoveAllEvent) {
                 MessageReactionRemoveAllEvent event = (MessageReactionRemoveAllEvent) e;
-                long messageId = event.getMessageIdLong();
-                RunningOperation o = OPERATIONS.get(messageId);
-                if(o == null)
+                dispatch(event.getMessageIdLong(), o -> o.removeAll(event));
+            }
+        }
+
+        private void dispatch(long messageId, ToIntFunction<ReactionOperation> callback) {
+            RunningOperation o = OPERATIONS.get(messageId);
+            if(o == null)
+                return;
+
+            OperationExecutor.execute(o.channelId, () -> {
+                //Could have been cancelled or expired while this was queued.
+                if(OPERATIONS.get(messageId) != o)
                     return;
 
                 //Forward this event to the anonymous class.
-                int i = o.operation.removeAll(event);
+                int i = OperationExecutor.run("reaction", () -> callback.applyAsInt(o.operation));
 
                 if(i == Operation.COMPLETED) {
                     //Operation has been completed. We can remove this from the running operations list and go on.
-                    OPERATIONS.remove(messageId);
-                    o.future.complete(null);
+                    if(remove(o))
+                        o.future.complete(null);
                 } else if(i == Operation.RESET_TIMEOUT) {
                     //Reset the expiration of this specific operation.
-                    OPERATIONS.resetExpiration(messageId);
+                    o.resetTimeout();
                 }
-            }
+            });
         }
     }
 
-    private static class RunningOperation {
+    private static class RunningOperation implements OperationExecutor.Expiring {
         final OperationFuture future;
         final ReactionOperation operation;
+        final long channelId;
+        final long messageId;
+        final long timeout;
+        volatile long timeoutTime;
 
-        RunningOperation(ReactionOperation operation, OperationFuture future) {
+        //timeout is in millis
+        RunningOperation(ReactionOperation operation, long channelId, long messageId, long timeout) {
             this.operation = operation;
-            this.future = future;
+            this.future = new OperationFuture(this);
+            this.channelId = channelId;
+            this.messageId = messageId;
+            this.timeout = timeout;
+            resetTimeout();
+        }
+
+        void resetTimeout() {
+            timeoutTime = System.currentTimeMillis() + timeout;
+        }
+
+        @Override
+        public long deadline() {
+            return timeoutTime;
+        }
+
+        @Override
+        public void expire() {
+            if(remove(this))
+                OperationExecutor.execute(channelId, operation::onExpire);
         }
     }
 
     private static class OperationFuture extends CompletableFuture<Void> {
-        private final long id;
+        private final RunningOperation operation;
 
-        OperationFuture(long id) {
-            this.id = id;
+        OperationFuture(RunningOperation operation) {
+            this.operation = operation;
         }
 
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
             super.cancel(mayInterruptIfRunning);
-            RunningOperation o = OPERATIONS.remove(id);
-
-            if(o == null)
+            if(!remove(operation))
                 return false;
 
-            o.operation.onCancel();
+            operation.operation.onCancel();
             return true;
         }
     }
@@ -22,8 +22,6 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.MessageBuilder;
 import net.dv8tion.jda.api.entities.*;
 import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
-import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.db.ManagedDatabase;
 import sox.Sox;
 import sox.command.AbstractContext;
 import sox.command.argument.Arguments;
@@ -42,11 +40,7 @@ public class MantaroContext extends AbstractContext<MantaroContext> {
                              @Nonnull Message message) {
         super(sox, arguments, new HashMap<>());
         this.message = message;
-        ManagedDatabase managedDatabase = MantaroData.db();
-        this.context = new I18nContext(
-                managedDatabase.getGuild(message.getGuild()).getData(),
-                managedDatabase.getUser(message.getAuthor()).getData()
-        );
+        this.context = messageContext().getLanguageContext();
     }
 
     @Nonnull
@@ -88,6 +82,12 @@ public class MantaroContext extends AbstractContext<MantaroContext> {
         return message.getJDA();
     }
 
+    @Nonnull
+    @CheckReturnValue
+    public MessageContext messageContext() {
+        return MessageContext.of(message);
+    }
+
     @Nonnull
     @CheckReturnValue
     public I18nContext languageContext() {
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.core.modules.commands.newstuff;
+
+import com.google.common.cache.CacheBuilder;
+import io.prometheus.client.Histogram;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.kodehawa.mantarobot.core.modules.commands.i18n.I18nContext;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.DBGuild;
+import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.helpers.GuildData;
+import net.kodehawa.mantarobot.db.entities.helpers.UserData;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the database entities needed to process a single message. Every entity gets loaded the first time something asks for it,
+ * and then it's shared by every listener and processor handling that same message.
+ * Contexts are keyed by the {@link Message} instance (by identity), which is the same object on every listener, and are dropped
+ * once the message gets garbage collected or {@link #finish()} gets called.
+ */
+public class MessageContext {
+    private static final Histogram fetchesPerMessage = Histogram.build()
+            .name("message_db_fetches").help("Database fetches needed to process a message")
+            .buckets(0, 1, 2, 3, 4, 5, 6, 8, 10)
+            .register();
+
+    private static final ConcurrentMap<Message, MessageContext> CONTEXTS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .<Message, MessageContext>build()
+            .asMap();
+
+    private final Message message;
+    private final AtomicInteger fetches = new AtomicInteger();
+    private DBGuild dbGuild;
+    private DBUser dbUser;
+    private Player player;
+
+    private MessageContext(Message message) {
+        this.message = message;
+    }
+
+    @Nonnull
+    public static MessageContext of(@Nonnull Message message) {
+        return CONTEXTS.computeIfAbsent(message, MessageContext::new);
+    }
+
+    @Nonnull
+    public static MessageContext of(@Nonnull GuildMessageReceivedEvent event) {
+        return of(event.getMessage());
+    }
+
+    @Nonnull
+    @CheckReturnValue
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Loads the guild and the user at the same time, instead of one after the other. Does nothing for the entities that are already loaded.
+     */
+    public synchronized void preload() {
+        CompletableFuture<DBGuild> guild = dbGuild == null ? MantaroData.db().getGuildAsync(message.getGuild().getId()) : null;
+        CompletableFuture<DBUser> user = dbUser == null ? MantaroData.db().getUserAsync(message.getAuthor().getId()) : null;
+
+        try {
+            if(guild != null) {
+                fetches.incrementAndGet();
+                dbGuild = guild.join();
+            }
+
+            if(user != null) {
+                fetches.incrementAndGet();
+                dbUser = user.join();
+            }
+        } catch(CompletionException e) {
+            //Rethrow whatever the query threw, so callers see the same errors the blocking getters would give them.
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    @Nonnull
+    public synchronized DBGuild getDBGuild() {
+        if(dbGuild == null) {
+            fetches.incrementAndGet();
+            dbGuild = MantaroData.db().getGuild(message.getGuild());
+        }
+
+        return dbGuild;
+    }
+
+    @Nonnull
+    public GuildData getGuildData() {
+        return getDBGuild().getData();
+    }
+
+    @Nonnull
+    public synchronized DBUser getDBUser() {
+        if(dbUser == null) {
+            fetches.incrementAndGet();
+            dbUser = MantaroData.db().getUser(message.getAuthor());
+        }
+
+        return dbUser;
+    }
+
+    @Nonnull
+    public UserData getUserData() {
+        return getDBUser().getData();
+    }
+
+    @Nonnull
+    public synchronized Player getPlayer() {
+        if(player == null) {
+            fetches.incrementAndGet();
+            player = MantaroData.db().getPlayer(message.getAuthor());
+        }
+
+        return player;
+    }
+
+    @Nonnull
+    public I18nContext getLanguageContext() {
+        return new I18nContext(getGuildData(), getUserData());
+    }
+
+    /**
+     * @return How many entities had to be requested from the database for this message so far.
+     */
+    public int getFetches() {
+        return fetches.get();
+    }
+
+    /**
+     * Marks this message as processed: records how many fetches it took and forgets the context.
+     */
+    public void finish() {
+        fetchesPerMessage.observe(fetches.get());
+        CONTEXTS.remove(message, this);
+    }
+}
@@ -22,6 +22,7 @@ import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.core.CommandRegistry;
+import net.kodehawa.mantarobot.core.modules.commands.newstuff.MessageContext;
 import net.kodehawa.mantarobot.core.processor.core.ICommandProcessor;
 import net.kodehawa.mantarobot.data.MantaroData;
 
@@ -36,7 +37,7 @@ public class DefaultCommandProcessor implements ICommandProcessor {
     public static final CommandRegistry REGISTRY = new CommandRegistry();
 
     @Override
-    public boolean run(GuildMessageReceivedEvent event) {
+    public boolean run(GuildMessageReceivedEvent event, MessageContext context) {
         //When did we start processing this command?...
         long start = System.currentTimeMillis();
         //The command executed, in raw form.
@@ -44,7 +45,7 @@ public class DefaultCommandProcessor implements ICommandProcessor {
         //Mantaro prefixes.
         String[] prefix = MantaroData.config().get().prefix;
         //Guild-specific prefix.
-        String customPrefix = MantaroData.db().getGuild(event.getGuild()).getData().getGuildCustomPrefix();
+        String customPrefix = context.getGuildData().getGuildCustomPrefix();
         //What prefix did this person use.
         String usedPrefix = null;
         //Lower-case raw cmd check, only used for prefix checking.
@@ -68,7 +69,7 @@ public class DefaultCommandProcessor implements ICommandProcessor {
         String[] parts = splitArgs(rawCmd, 2);
         String cmdName = parts[0], content = parts[1];
 
-        REGISTRY.process(event, cmdName, content, usedPrefix);
+        REGISTRY.process(event, context, cmdName, content, usedPrefix);
 
         long end = System.currentTimeMillis();
         commandTime.observe(end - start);
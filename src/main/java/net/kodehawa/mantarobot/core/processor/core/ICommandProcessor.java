@@ -18,11 +18,12 @@
 package net.kodehawa.mantarobot.core.processor.core;
 
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.kodehawa.mantarobot.core.modules.commands.newstuff.MessageContext;
 
 /**
  * Remember that custom processor stuff that was planned for some stuff?
  * Yeah that's what's this for.
  */
 public interface ICommandProcessor {
-    boolean run(GuildMessageReceivedEvent event);
+    boolean run(GuildMessageReceivedEvent event, MessageContext context);
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+package net.kodehawa.mantarobot.core.shard;
+
+import net.dv8tion.jda.api.utils.SessionControllerAdapter;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Lets shards on different identify buckets log in at the same time.
+ * <p>
+ * Discord allows {@code max_concurrency} identifies every 5 seconds, one per bucket, where the bucket of a shard is
+ * {@code shardId % max_concurrency}. Every bucket gets its own {@link SessionControllerAdapter} (which already waits 5 seconds between
+ * the logins it handles), while the global rate limit and the gateway lookups stay shared, as they're per bot.
+ * With a concurrency of 1 this behaves exactly like a plain {@link SessionControllerAdapter}.
+ */
+public class BucketedSessionController extends SessionControllerAdapter {
+    //The first bucket is handled by this instance, so this has one less.
+    private final SessionControllerAdapter[] buckets;
+
+    public BucketedSessionController(int maxConcurrency) {
+        buckets = new SessionControllerAdapter[Math.max(maxConcurrency, 1) - 1];
+        for(int i = 0; i < buckets.length; i++) {
+            buckets[i] = new SessionControllerAdapter();
+        }
+    }
+
+    @Override
+    public void appendSession(@Nonnull SessionConnectNode node) {
+        SessionControllerAdapter bucket = bucketOf(node);
+        if(bucket == null)
+            super.appendSession(node);
+        else
+            bucket.appendSession(node);
+    }
+
+    @Override
+    public void removeSession(@Nonnull SessionConnectNode node) {
+        SessionControllerAdapter bucket = bucketOf(node);
+        if(bucket == null)
+            super.removeSession(node);
+        else
+            bucket.removeSession(node);
+    }
+
+    //Null for the first bucket, which is handled by this instance.
+    private SessionControllerAdapter bucketOf(SessionConnectNode node) {
+        int shardId = node.getShardInfo() == null ? 0 : node.getShardInfo().getShardId();
+        int bucket = shardId % (buckets.length + 1);
+        return bucket == 0 ? null : buckets[bucket - 1];
+    }
+}
@@ -20,15 +20,19 @@ package net.kodehawa.mantarobot.core.shard;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Gauge;
 import lombok.Getter;
 import lombok.experimental.Delegate;
 import net.dv8tion.jda.api.AccountType;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.ReadyEvent;
+import net.dv8tion.jda.api.events.ShutdownEvent;
 import net.dv8tion.jda.api.exceptions.RateLimitedException;
+import net.dv8tion.jda.api.hooks.EventListener;
 import net.dv8tion.jda.api.utils.SessionController;
-import net.dv8tion.jda.api.utils.SessionControllerAdapter;
 import net.dv8tion.jda.api.utils.cache.CacheFlag;
 import net.kodehawa.mantarobot.MantaroBot;
 import net.kodehawa.mantarobot.MantaroInfo;
@@ -51,6 +55,7 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import javax.security.auth.login.LoginException;
 import java.util.*;
 import java.util.concurrent.*;
@@ -68,7 +73,34 @@ import static net.kodehawa.mantarobot.utils.Utils.pretty;
  * This also handles posting stats to dbots/dbots.org/carbonitex. Because uh... no other class was fit for it.
  */
 public class MantaroShard implements JDA {
-    private static SessionController sessionController = new SessionControllerAdapter();
+    private static final Config config = MantaroData.config().get();
+    private static final SessionController sessionController = new BucketedSessionController(config.identifyConcurrency);
+
+    private static final Gauge startupTime = Gauge.build()
+            .name("shard_startup_time").help("Time it took the shard to get ready, counting the wait to identify (seconds)")
+            .labelNames("shard")
+            .register();
+
+    //Shared by every shard on this node. JDA doesn't shut these down when a shard gets restarted.
+    private static final ExecutorService callbackPool = Executors.newFixedThreadPool(config.callbackPoolSize,
+            new ThreadFactoryBuilder().setNameFormat("MantaroShard-Callback Thread-%d").build());
+    private static final ScheduledExecutorService ratelimitPool = Executors.newScheduledThreadPool(config.ratelimitPoolSize,
+            new ThreadFactoryBuilder().setNameFormat("MantaroShard-Ratelimit Thread-%d").build());
+    private static final ExecutorService sharedThreadPool = boundedPool(config.eventPoolSize, Integer.MAX_VALUE, "MantaroShard-Executor Thread-%d");
+    //Once every thread is busy and the queue is full, commands run on the event thread of the shard that got them, which slows down
+    //that shard (and only that one) until the pool catches up, instead of queueing commands without limit.
+    private static final ExecutorService sharedCommandPool = boundedPool(config.commandPoolSize, config.commandQueueSize, "MantaroShard-Command Thread-%d");
+    //Grows to one thread per shard with a birthday task (see startBirthdayTask): they all run at 00:00, and they're meant to run in parallel.
+    private static final ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("Mantaro-ShardExecutor Thread-%d").build());
+    private static final AtomicInteger birthdayTasks = new AtomicInteger();
+
+    static {
+        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-callback-pool", callbackPool);
+        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-ratelimit-pool", ratelimitPool);
+        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-thread-pool", sharedThreadPool);
+        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-command-pool", sharedCommandPool);
+        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-birthday-executor", executorService);
+    }
 
     private final Logger log;
     private static final VoiceChannelListener VOICE_CHANNEL_LISTENER = new VoiceChannelListener();
@@ -77,8 +109,6 @@ public class MantaroShard implements JDA {
     private final int shardId;
     private final int totalShards;
     private BirthdayTask birthdayTask = new BirthdayTask();
-    private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("Mantaro-ShardExecutor Thread-%d").build());
-    private static final Config config = MantaroData.config().get();
     //Message cache of 2500 cached messages per shard. If it reaches 2500 it will delete the first one stored, and continue being 2500.
     @Getter
     private final Cache<String, Optional<CachedMessage>> messageCache = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(2500).build();
@@ -88,16 +118,13 @@ public class MantaroShard implements JDA {
     //New year date
     private static final Calendar newYear = new Calendar.Builder().setDate(Calendar.getInstance().get(Calendar.YEAR), Calendar.JANUARY, 1).build();
 
-    private final String callbackPoolIdentifierString;
-    private final String ratelimitPoolIdentifierString;
     @Getter
     public final MantaroEventManager manager;
-    @Getter
-    private final ExecutorService threadPool;
-    @Getter
-    private final ExecutorService commandPool;
     @Delegate
     private JDA jda;
+    //Completed when the (last) start of this shard got ready, failed if it shut down (or couldn't log in) before that.
+    private volatile CompletableFuture<Void> ready = new CompletableFuture<>();
+    private EventListener readyListener;
 
     /**
      * Builds a new instance of a MantaroShard.
@@ -111,29 +138,10 @@ public class MantaroShard implements JDA {
      * @throws InterruptedException
      */
     public MantaroShard(int shardId, int totalShards, MantaroEventManager manager, ICommandProcessor commandProcessor) throws RateLimitedException, LoginException, InterruptedException {
-        this.callbackPoolIdentifierString = "callback-pool-shard-" + shardId;
-        this.ratelimitPoolIdentifierString = "ratelimit-pool-shard-" + shardId;
         this.shardId = shardId;
         this.totalShards = totalShards;
         this.manager = manager;
 
-        ThreadFactory normalTPNamedFactory =
-                new ThreadFactoryBuilder()
-                        .setNameFormat("MantaroShard-Executor[" + shardId + "/" + totalShards + "] Thread-%d")
-                        .build();
-
-        ThreadFactory commandTPNamedFactory =
-                new ThreadFactoryBuilder()
-                        .setNameFormat("MantaroShard-Command[" + shardId + "/" + totalShards + "] Thread-%d")
-                        .build();
-
-        threadPool = Executors.newCachedThreadPool(normalTPNamedFactory);
-        commandPool = Executors.newCachedThreadPool(commandTPNamedFactory);
-
-        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-" + shardId + "-birthday-executor", executorService);
-        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-" + shardId + "-thread-pool", threadPool);
-        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-shard-" + shardId + "-command-pool", commandPool);
-
         log = LoggerFactory.getLogger("MantaroShard-" + shardId);
         mantaroListener = new MantaroListener(shardId, this);
         commandListener = new CommandListener(shardId, this, commandProcessor);
@@ -143,11 +151,10 @@ public class MantaroShard implements JDA {
 
     /**
      * Starts a new Shard.
-     * This method builds a {@link JDA} instance and then attempts to start it up.
-     * This locks until the shard finds a status of AWAITING_LOGIN_CONFIRMATION + 5 seconds.
+     * This method builds a {@link JDA} instance and queues it to log in, without waiting for it: see {@link #getReady()} for that.
      * <p>
-     * The newly-started shard will have auto reconnect enabled, a core pool size of 18 and a new NAS instance. The rest is defined either on global or instance
-     * variables.
+     * The newly-started shard will have auto reconnect enabled and use the callback and rate limit pools shared by every shard.
+     * The rest is defined either on global or instance variables.
      *
      * @param force Whether we will call {@link JDA#shutdown()} or {@link JDA#shutdownNow()}
      * @throws LoginException
@@ -157,6 +164,8 @@ public class MantaroShard implements JDA {
         if(jda != null) {
             log.info("Attempting to drop shard {}...", shardId);
             prepareShutdown();
+            //Or shutting it down would fail the start below.
+            jda.removeEventListener(readyListener);
 
             if(!force)
                 jda.shutdown();
@@ -167,22 +176,15 @@ public class MantaroShard implements JDA {
             removeListeners();
         }
 
-        ThreadPoolExecutor callbackPool;
-        ScheduledThreadPoolExecutor ratelimitPool;
-        synchronized(this) {
-            callbackPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(15);
-            ratelimitPool = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(config.ratelimitPoolSize);
-            Prometheus.THREAD_POOL_COLLECTOR.remove(callbackPoolIdentifierString);
-            Prometheus.THREAD_POOL_COLLECTOR.add(callbackPoolIdentifierString, callbackPool);
-            Prometheus.THREAD_POOL_COLLECTOR.remove(ratelimitPoolIdentifierString);
-            Prometheus.THREAD_POOL_COLLECTOR.add(ratelimitPoolIdentifierString, ratelimitPool);
-        }
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> ready = this.ready.isDone() ? new CompletableFuture<>() : this.ready;
+        this.ready = ready;
 
         JDABuilder jdaBuilder = new JDABuilder(AccountType.BOT)
                 .setToken(config().get().token)
                 .setAutoReconnect(true)
-                .setRateLimitPool(ratelimitPool, true)
-                .setCallbackPool(callbackPool, true)
+                .setRateLimitPool(ratelimitPool, false)
+                .setCallbackPool(callbackPool, false)
                 .setEventManager(manager)
                 .setSessionController(sessionController)
                 .setBulkDeleteSplittingEnabled(false)
@@ -190,13 +192,35 @@ public class MantaroShard implements JDA {
                 .addEventListeners(MantaroBot.getInstance().getLavalink()) //try here then down there ig
                 .setVoiceDispatchInterceptor(MantaroBot.getInstance().getLavalink().getVoiceInterceptor())
                 .setDisabledCacheFlags(EnumSet.of(CacheFlag.ACTIVITY, CacheFlag.EMOTE))
-                .setActivity(Activity.playing("Hold on to your seatbelts!"));
+                .setActivity(Activity.playing("Hold on to your seatbelts!"))
+                //Added before logging in, so it can't miss the event.
+                .addEventListeners(readyListener = new EventListener() {
+                    @Override
+                    public void onEvent(@Nonnull GenericEvent event) {
+                        if(event instanceof ShutdownEvent) {
+                            event.getJDA().removeEventListener(this);
+                            ShutdownEvent shutdown = (ShutdownEvent) event;
+                            ready.completeExceptionally(new IllegalStateException("Shard #" + shardId + " shut down before getting ready (close code: " +
+                                    (shutdown.getCloseCode() == null ? shutdown.getCode() : shutdown.getCloseCode()) + ")"));
+                            return;
+                        }
+
+                        if(!(event instanceof ReadyEvent))
+                            return;
+
+                        event.getJDA().removeEventListener(this);
+                        long took = System.currentTimeMillis() - start;
+                        startupTime.labels(String.valueOf(shardId)).set(took / 1000D);
+                        log.info("Shard #{} got ready in {}ms", shardId, took);
+                        ready.complete(null);
+                    }
+                });
 
-        if(shardId < getTotalShards() - 1) {
+        try {
             jda = jdaBuilder.build();
-        } else {
-            //Block until all shards start up properly.
-            jda = jdaBuilder.build().awaitReady();
+        } catch(LoginException | RuntimeException e) {
+            ready.completeExceptionally(e);
+            throw e;
         }
 
         //Assume everything is alright~
@@ -222,6 +246,7 @@ public class MantaroShard implements JDA {
      */
     public void startBirthdayTask(long millisecondsUntilTomorrow) {
         log.debug("Started birthday task for shard {}, scheduled to run in {} ms more", shardId, millisecondsUntilTomorrow);
+        executorService.setCorePoolSize(birthdayTasks.incrementAndGet());
 
         executorService.scheduleWithFixedDelay(() -> birthdayTask.handle(shardId),
                 millisecondsUntilTomorrow, TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
@@ -289,6 +314,30 @@ public class MantaroShard implements JDA {
                 .scheduleAtFixedRate(changeStatus, 10, 10, TimeUnit.MINUTES);
     }
 
+    /**
+     * @return A future completed when this shard gets ready (receives READY from Discord) after its last start, or failed if it shuts down
+     * (for example, because it couldn't log in) before that.
+     */
+    public CompletableFuture<Void> getReady() {
+        return ready;
+    }
+
+    public ExecutorService getThreadPool() {
+        return sharedThreadPool;
+    }
+
+    public ExecutorService getCommandPool() {
+        return sharedCommandPool;
+    }
+
+    //Grows up to the specified amount of threads, then queues up to queueSize tasks, then runs them on the caller. Idle threads go away after a minute.
+    private static ExecutorService boundedPool(int threads, int queueSize, String nameFormat) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).build(), new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
     /**
      * @return The current {@link MantaroEventManager} for this specific instance.
      */
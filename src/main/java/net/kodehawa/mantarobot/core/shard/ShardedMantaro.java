@@ -18,10 +18,13 @@
 package net.kodehawa.mantarobot.core.shard;
 
 import com.github.natanbc.discordbotsapi.DiscordBotsAPI;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.kodehawa.mantarobot.ExtraRuntimeOptions;
 import net.kodehawa.mantarobot.MantaroBot;
+import net.kodehawa.mantarobot.commands.moderation.ExpiryScheduler;
+import net.kodehawa.mantarobot.commands.utils.Reminder;
 import net.kodehawa.mantarobot.core.LoadState;
 import net.kodehawa.mantarobot.core.MantaroCore;
 import net.kodehawa.mantarobot.core.MantaroEventManager;
@@ -42,8 +45,12 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static net.kodehawa.mantarobot.utils.ShutdownCodes.SHARD_FETCH_FAILURE;
 
@@ -123,20 +130,53 @@ public class ShardedMantaro {
             MantaroCore.setLoadState(LoadState.LOADING_SHARDS);
             log.info("Spawning shards...");
             long start = System.currentTimeMillis();
+
+            List<Integer> ids = new ArrayList<>();
             for(int i = fromShard; i < (toShard == 0 ? totalShards : toShard); i++) {
                 if(MantaroData.config().get().upToShard != 0 && i > MantaroData.config().get().upToShard)
                     continue;
 
+                ids.add(i);
+            }
+
+            //Building a shard only queues its login (the session controller takes care of the identify rate limit),
+            //so they can be built in parallel, then we wait for all of them to get ready.
+            ExecutorService startupPool = Executors.newFixedThreadPool(Math.max(1, Math.min(ids.size(), Runtime.getRuntime().availableProcessors())),
+                    new ThreadFactoryBuilder().setNameFormat("ShardedMantaro-Startup Thread-%d").build());
+            List<CompletableFuture<Void>> started = new ArrayList<>();
+            for(int i : ids) {
                 log.info("Starting shard #" + i + " of " + (toShard == 0 ? totalShards : toShard - fromShard));
 
                 //The custom event manager instance is important so we can track when we received the last event, or if we're receiving events at all.
-                MantaroEventManager manager = new MantaroEventManager();
+                MantaroEventManager manager = new MantaroEventManager(i, config.isAsyncEventDispatch(), config.getEventQueueSize());
                 managers.add(manager);
 
-                //Builds the new MantaroShard instance, which will start the shard.
-                shards[i] = new MantaroShard(i, totalShards, manager, processor);
-                log.debug("Finished loading shard #" + i + ".");
+                started.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        //Builds the new MantaroShard instance, which will start the shard.
+                        shards[i] = new MantaroShard(i, totalShards, manager, processor);
+                        log.debug("Finished loading shard #" + i + ".");
+                    } catch(Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, startupPool).thenCompose(v -> shards[i].getReady()).exceptionally(e -> {
+                    log.error("Shard #{} failed to start", i, e);
+                    SentryHelper.captureExceptionContext("Shard #" + i + " failed to initialize!", e, this.getClass(), "Shard Loader");
+                    return null;
+                }));
+            }
+
+            //Shards identify one at a time (every 5 seconds), so give each some more than that before giving up on waiting for them.
+            //The ones that aren't ready by then are left to the shard watcher.
+            long timeout = TimeUnit.MINUTES.toSeconds(5) + ids.size() * 10L;
+            try {
+                CompletableFuture.allOf(started.toArray(new CompletableFuture<?>[0])).get(timeout, TimeUnit.SECONDS);
+            } catch(TimeoutException e) {
+                long pending = started.stream().filter(f -> !f.isDone()).count();
+                log.error("{} shards didn't get ready after {} seconds, continuing without them", pending, timeout);
+                SentryHelper.captureMessageErrorContext(pending + " shards didn't get ready on startup", this.getClass(), "Shard Loader");
             }
+            startupPool.shutdown();
 
             //Beep-boop, we finished loading!
             this.startPostLoadProcedure(start);
@@ -162,6 +202,9 @@ public class ShardedMantaro {
 
         startUpdaters();
         bot.startCheckingBirthdays();
+        //Both need the shards to exist, to tell which guilds are on this node.
+        ExpiryScheduler.start();
+        Reminder.start();
     }
 
     private void startUpdaters() {
@@ -37,7 +37,12 @@ public class Config {
     public String dbHost = "localhost";
     public String dbPassword;
     public int dbPort = 28015;
+    public int dbPoolSize = 4;
+    public int dbCacheSize = 50000;
+    public int dbCacheExpiry = 10; //Seconds. Saves don't extend it: other nodes might write to the same documents.
     public String dbUser;
+    public int dbWriteBatchSize = 200; //Flush queued saves as soon as this many are pending.
+    public long dbWriteFlushInterval = 500; //ms
     public String dbotsToken;
     public String dbotsorgToken;
     public boolean isBeta = false;
@@ -61,7 +66,18 @@ public class Config {
     public String apiTwoUrl = "http://127.0.0.1:5874";
     public boolean needApi = true;
     public int prometheusPort = 9091;
-    public int ratelimitPoolSize = 4;
+    public int ratelimitPoolSize = 16; //shared by every shard on this node
+    public int callbackPoolSize = 30; //JDA callbacks, shared by every shard on this node
+    public int eventPoolSize = 50; //listener work handed off by the shards, shared by every shard on this node
+    public int commandPoolSize = 200; //shared by every shard on this node
+    public int commandQueueSize = 1000; //commands waiting for a thread, past this they run on the event thread of their shard
+    public int identifyConcurrency = 1; //max_concurrency from /gateway/bot: shards on different buckets can log in at the same time
+    public int operationPoolSize = 20; //runs interactive and reaction operations, one at a time per channel
+    public int httpMaxRequestsPerHost = 10; //concurrent outgoing requests to the same host, JDA not included
+    public int httpCacheSize = 16; //MB of responses kept in memory by Http#fetch
+    public int urlCacheSize = 512; //MB of downloaded images kept on disk by URLCache
+    public boolean asyncEventDispatch = true; //dispatch events to the listeners outside the gateway thread
+    public int eventQueueSize = 5000; //per shard
     public String apiAuthKey;
     public Season currentSeason = Season.FIRST;
     public String clientId; //why not ig.
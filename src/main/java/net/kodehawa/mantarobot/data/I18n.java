@@ -29,14 +29,17 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
 
+/**
+ * Language files get flattened when loading them: every language is a single map of full keys (like "commands.foo.bar")
+ * to either a String or, for keys with several variants, a String[] to pick a random one from.
+ * Keys missing from a language are filled in with the en_US values when loading, so a lookup is always a single map access.
+ */
 public class I18n {
     public static final List<String> LANGUAGES = new ArrayList<>();
     private static final ThreadLocal<String> ROOT = new ThreadLocal<>();
     private static final Map<String, I18n> LANGUAGE_MAP;
-    private final Map<String, ?> map;
-    private final String language;
+    private final Map<String, Object> keys;
 
     static {
         Map<String, I18n> m = new HashMap<>();
@@ -51,52 +54,57 @@ public class I18n {
             throw new ExceptionInInitializerError(e);
         }
 
+        Map<String, Object> fallback = load(mapper, "en_US.json");
         for(String s : LANGUAGES) {
-            InputStream is = I18n.class.getResourceAsStream("/assets/languages/" + s);
-            try {
-                @SuppressWarnings("unchecked")
-                Map<String, ?> map = (Map<String, ?>)mapper.readValue(is, Map.class);
-                m.put(s.replace(".json", ""), new I18n(map, s));
-            } catch(Exception e) {
-                throw new Error("Unable to initialize I18n", e);
+            Map<String, Object> keys = s.equals("en_US.json") ? fallback : load(mapper, s);
+            if(keys != fallback) {
+                for(Map.Entry<String, Object> entry : fallback.entrySet()) {
+                    keys.putIfAbsent(entry.getKey(), entry.getValue());
+                }
             }
+
+            m.put(s.replace(".json", ""), new I18n(keys));
         }
         LANGUAGE_MAP = Collections.unmodifiableMap(m);
     }
 
-    private I18n(Map<String, ?> map, String language) {
-        this.map = map;
-        this.language = language;
+    private I18n(Map<String, Object> keys) {
+        this.keys = keys;
+    }
+
+    private static Map<String, Object> load(ObjectMapper mapper, String file) {
+        try(InputStream is = I18n.class.getResourceAsStream("/assets/languages/" + file)) {
+            @SuppressWarnings("unchecked")
+            Map<String, ?> map = (Map<String, ?>)mapper.readValue(is, Map.class);
+            Map<String, Object> keys = new HashMap<>();
+            flatten(keys, null, map);
+            return keys;
+        } catch(Exception e) {
+            throw new Error("Unable to initialize I18n", e);
+        }
     }
 
     @SuppressWarnings("unchecked")
-    private String get(Map<String, ?> map, String[] parts, boolean recursion) {
-        int index = 0;
-        while(index != parts.length - 1) {
-            Object maybeMap = map.get(parts[index]);
-            if(maybeMap instanceof Map) {
-                map = (Map<String, ?>)maybeMap;
-                index++;
-            } else {
-                if(language.equals("en_US") || recursion) throw new LanguageKeyNotFoundException("Missing i18n key " + Arrays.stream(parts).collect(Collectors.joining(".")));
-                return get(LANGUAGE_MAP.get("en_US").map, parts, true);
+    private static void flatten(Map<String, Object> keys, String prefix, Map<String, ?> map) {
+        for(Map.Entry<String, ?> entry : map.entrySet()) {
+            String key = prefix == null ? entry.getKey() : prefix + "." + entry.getKey();
+            Object value = entry.getValue();
+            if(value instanceof Map) {
+                flatten(keys, key, (Map<String, ?>) value);
+            } else if(value instanceof String) {
+                keys.put(key.intern(), value);
+            } else if(value instanceof Collection && !((Collection<?>) value).isEmpty()) {
+                Collection<?> c = (Collection<?>) value;
+                String[] variants = new String[c.size()];
+                int i = 0;
+                for(Object variant : c) {
+                    variants[i++] = String.valueOf(variant);
+                }
+
+                keys.put(key.intern(), variants);
             }
+            //Anything else isn't a valid value, and gets treated like a missing key.
         }
-        Object maybeString = map.get(parts[index]);
-        if(maybeString instanceof String) {
-            return (String)maybeString;
-        }
-        if(maybeString instanceof Collection) {
-            Collection<String> c = ((Collection<String>)maybeString);
-            return c.stream()
-                    .skip(ThreadLocalRandom.current().nextInt(c.size()))
-                    .findFirst()
-                    .orElseThrow(AssertionError::new);
-        }
-        if(language.equals("en_US") || recursion)
-            throw new LanguageKeyNotFoundException("Missing i18n key " + Arrays.stream(parts).collect(Collectors.joining(".")));
-
-        return get(LANGUAGE_MAP.get("en_US").map, parts, true);
     }
 
     public String get(String query) {
@@ -107,7 +115,18 @@ public class I18n {
         } else {
             actualQuery = root + "." + query;
         }
-        return get(map, actualQuery.split("\\."), false);
+
+        Object value = keys.get(actualQuery);
+        if(value instanceof String) {
+            return (String) value;
+        }
+
+        if(value == null) {
+            throw new LanguageKeyNotFoundException("Missing i18n key " + actualQuery);
+        }
+
+        String[] variants = (String[]) value;
+        return variants[ThreadLocalRandom.current().nextInt(variants.length)];
     }
 
     public String withRoot(String root, String query) {
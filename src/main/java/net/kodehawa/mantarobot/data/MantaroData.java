@@ -21,6 +21,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rethinkdb.net.Connection;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.db.ConnectionPool;
 import net.kodehawa.mantarobot.db.ManagedDatabase;
 import net.kodehawa.mantarobot.utils.Prometheus;
 import net.kodehawa.mantarobot.utils.data.GsonDataManager;
@@ -29,21 +30,25 @@ import redis.clients.jedis.JedisPool;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.rethinkdb.RethinkDB.r;
 
 @Slf4j
 public class MantaroData {
     private static final ScheduledExecutorService exec = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder().setNameFormat("MantaroData-Executor Thread-%d").build());
+    //Kept apart from exec so a slow health check can't hold up the write-behind flushes (or the other way around).
+    private static final ScheduledExecutorService healthExec = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder().setNameFormat("MantaroData-Health Thread-%d").setDaemon(true).build());
     private static GsonDataManager<Config> config;
-    private static Connection conn;
-    private static ManagedDatabase db;
+    private static volatile ConnectionPool pool;
+    private static volatile ManagedDatabase db;
 
     @Getter
     private static JedisPool defaultJedisPool = new JedisPool(config().get().jedisPoolAddress, config().get().jedisPoolPort);
 
     static {
         Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-data", exec);
+        Prometheus.THREAD_POOL_COLLECTOR.add("mantaro-data-health", healthExec);
     }
 
     public static GsonDataManager<Config> config() {
@@ -53,22 +58,32 @@ public class MantaroData {
         return config;
     }
 
-    public static Connection conn() {
+    public static ConnectionPool pool() {
         Config c = config().get();
-        if(conn == null) {
+        if(pool == null) {
             synchronized(MantaroData.class) {
-                if(conn != null) return conn;
-                conn = r.connection().hostname(c.dbHost).port(c.dbPort).db(c.dbDb).user(c.dbUser, c.dbPassword).connect();
-                log.info("Established first database connection to {}:{} ({})", c.dbHost, c.dbPort, c.dbUser);
+                if(pool != null) return pool;
+                pool = new ConnectionPool(c.dbPoolSize, () -> r.connection().hostname(c.dbHost).port(c.dbPort).db(c.dbDb).user(c.dbUser, c.dbPassword).connect());
+                log.info("Established {} database connections to {}:{} ({})", c.dbPoolSize, c.dbHost, c.dbPort, c.dbUser);
+                healthExec.scheduleWithFixedDelay(pool::checkHealth, 30, 30, TimeUnit.SECONDS);
             }
         }
-        return conn;
+        return pool;
     }
 
+    public static Connection conn() {
+        return pool().get();
+    }
 
     public static ManagedDatabase db() {
         if(db == null) {
-            db = new ManagedDatabase(conn());
+            synchronized(MantaroData.class) {
+                if(db != null) return db;
+                ManagedDatabase database = new ManagedDatabase(pool());
+                database.createIndexes();
+                //Only publish it once the indexes are there, other threads don't wait on the lock after this.
+                db = database;
+            }
         }
         return db;
     }
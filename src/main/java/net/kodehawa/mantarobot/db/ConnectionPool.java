@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rethinkdb.net.Connection;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.utils.Prometheus;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * A fixed set of rethink connections, handed out round-robin. Connections aren't checked out: queries are multiplexed on them,
+ * so this only spreads the load (and the blocking reads) over more than one socket.
+ * Closed connections get replaced when they're handed out, and {@link #checkHealth()} replaces the ones that stopped answering.
+ */
+@Slf4j
+public class ConnectionPool {
+    //The driver has no query timeout, so pings run here and a connection that doesn't answer in time counts as dead.
+    private static final long PING_TIMEOUT = 5000;
+    private static final ExecutorService pings = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("ConnectionPool-Ping-%d").setDaemon(true).build()
+    );
+
+    static {
+        Prometheus.THREAD_POOL_COLLECTOR.add("connection-pool-ping", pings);
+    }
+
+    private final Supplier<Connection> factory;
+    private final AtomicReferenceArray<Connection> connections;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ConnectionPool(int size, @Nonnull Supplier<Connection> factory) {
+        if(size < 1) throw new IllegalArgumentException("Pool size must be at least 1");
+
+        this.factory = factory;
+        this.connections = new AtomicReferenceArray<>(size);
+        for(int i = 0; i < size; i++) {
+            connections.set(i, factory.get());
+        }
+    }
+
+    /**
+     * @return An open connection.
+     */
+    @Nonnull
+    public Connection get() {
+        int slot = Math.floorMod(next.getAndIncrement(), connections.length());
+        Connection connection = connections.get(slot);
+        return connection.isOpen() ? connection : replace(slot, connection);
+    }
+
+    /**
+     * Pings every connection, replacing the ones that are closed or don't answer within {@link #PING_TIMEOUT} ms.
+     */
+    public void checkHealth() {
+        for(int i = 0; i < connections.length(); i++) {
+            Connection connection = connections.get(i);
+            Future<?> ping = null;
+            try {
+                if(connection.isOpen()) {
+                    ping = pings.submit(() -> r.expr(1).run(connection));
+                    ping.get(PING_TIMEOUT, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+            } catch(TimeoutException e) {
+                log.warn("Connection #{} didn't answer the health check in {}ms", i, PING_TIMEOUT);
+                //Closing the connection (below) fails the stuck query too, this just stops waiting on it.
+                ping.cancel(true);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch(Exception e) {
+                log.warn("Connection #{} failed health check", i, e);
+            }
+
+            try {
+                replace(i, connection);
+            } catch(Exception e) {
+                //We'll try again on the next check, or when it gets handed out.
+                log.error("Unable to replace connection #{}", i, e);
+            }
+        }
+    }
+
+    public int size() {
+        return connections.length();
+    }
+
+    public void close() {
+        for(int i = 0; i < connections.length(); i++) {
+            try {
+                connections.get(i).close();
+            } catch(Exception ignored) { }
+        }
+    }
+
+    private synchronized Connection replace(int slot, Connection dead) {
+        Connection current = connections.get(slot);
+        //Someone else replaced it already.
+        if(current != dead && current.isOpen())
+            return current;
+
+        log.warn("Replacing rethink connection #{}", slot);
+        try {
+            dead.close();
+        } catch(Exception ignored) { }
+
+        Connection connection = factory.get();
+        connections.set(slot, connection);
+        return connection;
+    }
+}
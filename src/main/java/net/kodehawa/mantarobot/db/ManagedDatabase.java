@@ -17,9 +17,16 @@
 
 package net.kodehawa.mantarobot.db;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rethinkdb.model.MapObject;
 import com.rethinkdb.model.OptArgs;
-import com.rethinkdb.net.Connection;
+import com.rethinkdb.gen.ast.ReqlExpr;
+import com.rethinkdb.gen.ast.ReqlFunction1;
 import com.rethinkdb.net.Cursor;
+import io.prometheus.client.Counter;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
@@ -28,21 +35,203 @@ import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 import net.kodehawa.mantarobot.ExtraRuntimeOptions;
 import net.kodehawa.mantarobot.commands.currency.seasons.Season;
 import net.kodehawa.mantarobot.commands.currency.seasons.SeasonPlayer;
+import net.kodehawa.mantarobot.core.GuildCommandFilter;
+import net.kodehawa.mantarobot.data.Config;
+import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.entities.*;
+import net.kodehawa.mantarobot.services.LeaderboardService;
+import net.kodehawa.mantarobot.utils.Mapifier;
+import net.kodehawa.mantarobot.utils.Prometheus;
+import net.kodehawa.mantarobot.utils.SentryHelper;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.rethinkdb.RethinkDB.r;
 
 @Slf4j
 public class ManagedDatabase {
-    private final Connection conn;
+    private static final Counter entityCacheRequests = Counter.build()
+            .name("entity_cache").help("Entity cache lookups (hit, miss)")
+            .labelNames("result")
+            .register();
+    private static final Counter saveConflicts = Counter.build()
+            .name("db_save_conflicts").help("Saves rejected because the document was written since the saved copy was loaded")
+            .labelNames("table")
+            .register();
+    private static final Counter mutations = Counter.build()
+            .name("db_mutations").help("Atomic mutations, by table and result (applied, rejected, refund_failed, transfer_unknown)")
+            .labelNames("table", "result")
+            .register();
+
+    //Only the entities that get requested on (almost) every message. Everything else goes straight to rethink.
+    private static final Set<String> CACHED_TABLES = ImmutableSet.of(DBGuild.DB_TABLE, DBUser.DB_TABLE, Player.DB_TABLE, PlayerStats.DB_TABLE);
+    //Marks a document we know doesn't exist, so we don't ask rethink for it again on every message.
+    private static final Map<String, Object> MISSING = Collections.emptyMap();
+    //The entities that can be changed with a Mutation, and have a version to tell whether a saved copy is older than the last one.
+    private static final Set<String> VERSIONED_TABLES = ImmutableSet.of(Player.DB_TABLE, SeasonPlayer.DB_TABLE);
+    private static final String MUTATION_REJECTED = "Mutation rejected";
+    //How many times updatePlayer loads the player again when its save gets rejected.
+    private static final int UPDATE_ATTEMPTS = 3;
+
+    private final ConnectionPool pool;
+    private final ExecutorService asyncExecutor;
+    private final WriteBehindQueue writeQueue;
+    //Holds the raw documents instead of the entities: every caller gets its own copy, just like it would from rethink.
+    //Writes made here replace the document inside the entry (see updateCached), so they don't push back when it expires.
+    private final Cache<String, CachedDocument> entityCache;
+
+    public ManagedDatabase(@Nonnull ConnectionPool pool) {
+        this.pool = pool;
+
+        Config config = MantaroData.config().get();
+        //Queries block until rethink answers, so there's no point in having a lot more threads than connections.
+        this.asyncExecutor = Executors.newFixedThreadPool(pool.size() * 4, new ThreadFactoryBuilder().setNameFormat("ManagedDatabase-Async Thread-%d").build());
+        Prometheus.THREAD_POOL_COLLECTOR.add("managed-database-async", asyncExecutor);
+        this.writeQueue = new WriteBehindQueue(pool, MantaroData.getExecutor(), config.getDbWriteBatchSize(), config.getDbWriteFlushInterval(), this::rejected);
+        //Otherwise whatever got saved during the last flush interval is lost on restart.
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQueuedSaves, "ManagedDatabase-ShutdownFlush"));
+
+        this.entityCache = CacheBuilder.newBuilder()
+                .maximumSize(config.getDbCacheSize())
+                .expireAfterWrite(config.getDbCacheExpiry(), TimeUnit.SECONDS)
+                .concurrencyLevel(20)
+                .build();
+    }
+
+    /**
+     * Creates the secondary indexes the queries in here rely on, if they don't exist yet.
+     * <ul>
+     *     <li>{@code scope} on players: the part of the id after the user id ("g" for global players)</li>
+     *     <li>{@code name} on custom commands: the part of the id after the guild id</li>
+     *     <li>{@code expiresAt} on expiring actions (this also creates their table, as it's newer than the rest)</li>
+     *     <li>{@code time} and {@code userId} on reminders (same as above)</li>
+     * </ul>
+     */
+    public void createIndexes() {
+        createIndex(Player.DB_TABLE, "scope", p -> p.g("id").split(":").nth(-1));
+        createIndex(CustomCommand.DB_TABLE, "name", c -> c.g("id").split(":", 1).nth(1));
+        createTable(ExpiringAction.DB_TABLE);
+        createIndex(ExpiringAction.DB_TABLE, "expiresAt", a -> a.g("expiresAt"));
+        createTable(ReminderObj.DB_TABLE);
+        createIndex(ReminderObj.DB_TABLE, "time", rem -> rem.g("time"));
+        createIndex(ReminderObj.DB_TABLE, "userId", rem -> rem.g("userId"));
+    }
+
+    private void createTable(String table) {
+        try {
+            List<String> tables = r.tableList().run(pool.get());
+            if(tables.contains(table))
+                return;
+
+            log.info("Creating table {}", table);
+            r.tableCreate(table).run(pool.get());
+        } catch(Exception e) {
+            log.error("Unable to create table {}", table, e);
+        }
+    }
+
+    private void createIndex(String table, String name, ReqlFunction1 function) {
+        try {
+            List<String> indexes = r.table(table).indexList().run(pool.get());
+            if(indexes.contains(name))
+                return;
+
+            log.info("Creating index {} on {}", name, table);
+            r.table(table).indexCreate(name, function).run(pool.get());
+            r.table(table).indexWait(name).run(pool.get());
+        } catch(Exception e) {
+            log.error("Unable to create index {} on {}", name, table, e);
+        }
+    }
+
+    //Lazily reads the cursor. Closing the stream closes the cursor, in case it wasn't fully read.
+    private static <T> Stream<T> stream(Cursor<T> cursor) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(cursor::close);
+    }
+
+    /**
+     * The query every save goes through. Versioned documents (see {@link VersionedObject}) only replace the stored one if it's still
+     * at the version they were made from, else the stored one is left as it is. {@link #rejected(String, Collection, Object)} tells which ones those were.
+     *
+     * @param table  The table to write to.
+     * @param writes The documents to write, all from this table.
+     * @return The write query.
+     */
+    @Nonnull
+    static ReqlExpr write(@Nonnull String table, @Nonnull Collection<WriteBehindQueue.Pending> writes) {
+        if(!VERSIONED_TABLES.contains(table)) {
+            return r.table(table)
+                    .insert(writes.stream().map(w -> w.document).collect(Collectors.toList()))
+                    .optArg("conflict", "replace");
+        }
+
+        //One replace per document, so we get one result per document (in the same order) and can tell which ones were left unchanged
+        //without asking rethink to send the documents back. Writes can't go in a map, but they can go in an array.
+        return r.expr(writes.stream()
+                .map(w -> r.table(table)
+                        .get(w.document.get("id"))
+                        .replace(row -> r.branch(
+                                row.typeOf().eq("NULL").or(row.g("version").default_(0).eq(w.base())),
+                                w.document,
+                                row
+                        )))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * @param table  The table that was written to.
+     * @param writes The documents that were written, in the same order they were given to {@link #write(String, Collection)}.
+     * @param result The result of {@link #write(String, Collection)}.
+     * @return The ids of the versioned documents that didn't get written. The ones that did always changed, as their version is newer.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    static List<String> rejected(@Nonnull String table, @Nonnull Collection<WriteBehindQueue.Pending> writes, @Nonnull Object result) {
+        if(!VERSIONED_TABLES.contains(table))
+            return Collections.emptyList();
+
+        List<String> rejected = new ArrayList<>();
+        Iterator<Map<String, Object>> results = ((List<Map<String, Object>>) result).iterator();
+        for(WriteBehindQueue.Pending write : writes) {
+            if(number(results.next(), "unchanged") > 0) {
+                rejected.add((String) write.document.get("id"));
+            }
+        }
+
+        return rejected;
+    }
+
+    private static long number(Map<String, Object> document, String key) {
+        Object value = document.get(key);
+        return value == null ? 0 : ((Number) value).longValue();
+    }
 
-    public ManagedDatabase(@Nonnull Connection conn) {
-        this.conn = conn;
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> newValue(Map<String, Object> result) {
+        List<Map<String, Object>> changes = (List<Map<String, Object>>) result.get("changes");
+        return (Map<String, Object>) changes.get(0).get("new_val");
     }
 
     private static void log(String message, Object... fmtArgs) {
@@ -61,7 +250,26 @@ public class ManagedDatabase {
     @CheckReturnValue
     public CustomCommand getCustomCommand(@Nonnull String guildId, @Nonnull String name) {
         log("Requesting custom command {}:{} from rethink", guildId, name);
-        return r.table(CustomCommand.DB_TABLE).get(guildId + ":" + name).run(conn, CustomCommand.class);
+        return r.table(CustomCommand.DB_TABLE).get(guildId + ":" + name).run(pool.get(), CustomCommand.class);
+    }
+
+    /**
+     * @param guildId The guild to get the custom command names of.
+     * @return The names of every custom command of the guild, without loading the commands themselves.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public List<String> getCustomCommandNames(@Nonnull String guildId) {
+        log("Requesting custom command names from guild {} from rethink", guildId);
+        Cursor<String> c = r.table(CustomCommand.DB_TABLE)
+                .getAll(guildId)
+                .optArg("index", "guild")
+                .g("id")
+                .map(id -> id.split(":", 1).nth(1))
+                .run(pool.get());
+        try(Stream<String> names = stream(c)) {
+            return names.collect(Collectors.toList());
+        }
     }
 
     @Nullable
@@ -86,7 +294,7 @@ public class ManagedDatabase {
     @CheckReturnValue
     public List<CustomCommand> getCustomCommands() {
         log("Requesting all custom commands from rethink");
-        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE).run(conn, CustomCommand.class);
+        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE).run(pool.get(), CustomCommand.class);
         return c.toList();
     }
 
@@ -97,7 +305,7 @@ public class ManagedDatabase {
         Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE)
                 .getAll(guildId)
                 .optArg("index", "guild")
-                .run(conn, CustomCommand.class);
+                .run(pool.get(), CustomCommand.class);
         return c.toList();
     }
 
@@ -116,18 +324,60 @@ public class ManagedDatabase {
     @Nonnull
     @CheckReturnValue
     public List<CustomCommand> getCustomCommandsByName(@Nonnull String name) {
+        try(Stream<CustomCommand> commands = streamCustomCommandsByName(name)) {
+            return commands.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Streams every custom command with exactly this name, using the {@code name} index.
+     * The stream should be closed if it isn't fully consumed.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Stream<CustomCommand> streamCustomCommandsByName(@Nonnull String name) {
         log("Requesting all custom commands named {} from rethink", name);
-        String pattern = ':' + name + '$';
-        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE).filter(quote -> quote.g("id").match(pattern)).run(conn, CustomCommand.class);
-        return c.toList();
+        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE)
+                .getAll(name)
+                .optArg("index", "name")
+                .run(pool.get(), CustomCommand.class);
+        return stream(c);
+    }
+
+    /**
+     * Streams the custom commands from the given guilds whose name matches the pattern. Only the commands of those guilds get scanned,
+     * using the {@code guild} index. The stream should be closed if it isn't fully consumed.
+     *
+     * @param guildIds    The guilds to look in.
+     * @param namePattern A regex the whole name has to match.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Stream<CustomCommand> streamCustomCommandsMatching(@Nonnull Collection<String> guildIds, @Nonnull String namePattern) {
+        if(guildIds.isEmpty())
+            return Stream.empty();
+
+        log("Requesting custom commands matching {} from {} guilds from rethink", namePattern, guildIds.size());
+        String pattern = ':' + namePattern + '$';
+        Cursor<CustomCommand> c = r.table(CustomCommand.DB_TABLE)
+                .getAll(guildIds.toArray())
+                .optArg("index", "guild")
+                .filter(command -> command.g("id").match(pattern))
+                .run(pool.get(), CustomCommand.class);
+        return stream(c);
     }
 
     @Nonnull
     @CheckReturnValue
     public DBGuild getGuild(@Nonnull String guildId) {
-        log("Requesting guild {} from rethink", guildId);
-        DBGuild guild = r.table(DBGuild.DB_TABLE).get(guildId).run(conn, DBGuild.class);
-        return guild == null ? DBGuild.of(guildId) : guild;
+        //Before loading it: if the guild gets saved after this, the command filter compiled from this copy might be outdated.
+        long filterGeneration = GuildCommandFilter.generation(guildId);
+        DBGuild guild = getCached(DBGuild.DB_TABLE, guildId, DBGuild.class);
+        if(guild == null)
+            guild = DBGuild.of(guildId);
+
+        guild.setFilterGeneration(filterGeneration);
+        return guild;
     }
 
     @Nonnull
@@ -152,15 +402,14 @@ public class ManagedDatabase {
     @CheckReturnValue
     public MantaroObj getMantaroData() {
         log("Requesting MantaroObj from rethink");
-        MantaroObj obj = r.table(MantaroObj.DB_TABLE).get("mantaro").run(conn, MantaroObj.class);
+        MantaroObj obj = r.table(MantaroObj.DB_TABLE).get("mantaro").run(pool.get(), MantaroObj.class);
         return obj == null ? MantaroObj.create() : obj;
     }
 
     @Nonnull
     @CheckReturnValue
     public Player getPlayer(@Nonnull String userId) {
-        log("Requesting player {} from rethink", userId);
-        Player player = r.table(Player.DB_TABLE).get(userId + ":g").run(conn, Player.class);
+        Player player = getCached(Player.DB_TABLE, userId + ":g", Player.class);
         return player == null ? Player.of(userId) : player;
     }
 
@@ -179,8 +428,13 @@ public class ManagedDatabase {
     @Nonnull
     @CheckReturnValue
     public SeasonPlayer getPlayerForSeason(@Nonnull String userId, Season season) {
+        //Not cached, but a save might still be waiting in the queue: that's newer than what rethink has.
+        Map<String, Object> pending = writeQueue.peek(SeasonPlayer.DB_TABLE, userId + ":" + season);
+        if(pending != null)
+            return Mapifier.fromMap(SeasonPlayer.class, pending);
+
         log("Requesting player {} (season {}) from rethink", userId, season);
-        SeasonPlayer player = r.table(SeasonPlayer.DB_TABLE).get(userId + ":" + season).run(conn, SeasonPlayer.class);
+        SeasonPlayer player = r.table(SeasonPlayer.DB_TABLE).get(userId + ":" + season).run(pool.get(), SeasonPlayer.class);
         return player == null ? SeasonPlayer.of(userId, season) : player;
     }
 
@@ -199,14 +453,13 @@ public class ManagedDatabase {
     @Nonnull
     @CheckReturnValue
     public long getAmountSeasonalPlayers() {
-        return r.table(SeasonPlayer.DB_TABLE).count().run(conn, OptArgs.of("read_mode", "outdated"));
+        return r.table(SeasonPlayer.DB_TABLE).count().run(pool.get(), OptArgs.of("read_mode", "outdated"));
     }
 
     @Nonnull
     @CheckReturnValue
     public PlayerStats getPlayerStats(@Nonnull String userId) {
-        log("Requesting player STATS {} from rethink", userId);
-        PlayerStats playerStats = r.table(PlayerStats.DB_TABLE).get(userId).run(conn, PlayerStats.class);
+        PlayerStats playerStats = getCached(PlayerStats.DB_TABLE, userId, PlayerStats.class);
         return playerStats == null ? PlayerStats.of(userId) : playerStats;
     }
 
@@ -225,10 +478,79 @@ public class ManagedDatabase {
     @Nonnull
     @CheckReturnValue
     public List<Player> getPlayers() {
+        try(Stream<Player> players = streamPlayers()) {
+            return players.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Streams every global player, using the {@code scope} index. Players are read from the cursor as the stream gets consumed,
+     * so this doesn't need to hold all of them in memory. The stream should be closed if it isn't fully consumed.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public Stream<Player> streamPlayers() {
         log("Requesting all players from rethink");
-        String pattern = ":g$";
-        Cursor<Player> c = r.table(Player.DB_TABLE).filter(quote -> quote.g("id").match(pattern)).run(conn, Player.class);
-        return c.toList();
+        Cursor<Player> c = r.table(Player.DB_TABLE)
+                .getAll("g")
+                .optArg("index", "scope")
+                .run(pool.get(), Player.class);
+        return stream(c);
+    }
+
+    /**
+     * Gets every expiring action due before the specified time, using the {@code expiresAt} index.
+     *
+     * @param until The (exclusive) upper bound, in epoch millis.
+     * @return The actions, the ones expiring first first.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public List<ExpiringAction> getExpiringActions(long until) {
+        log("Requesting expiring actions until {} from rethink", until);
+        Cursor<ExpiringAction> c = r.table(ExpiringAction.DB_TABLE)
+                .between(r.minval(), until)
+                .optArg("index", "expiresAt")
+                .orderBy()
+                .optArg("index", "expiresAt")
+                .run(pool.get(), ExpiringAction.class);
+        try(Stream<ExpiringAction> actions = stream(c)) {
+            return actions.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Gets every reminder due before the specified time, using the {@code time} index.
+     *
+     * @param until The (exclusive) upper bound, in epoch millis.
+     * @return The reminders, the ones due first first.
+     */
+    @Nonnull
+    @CheckReturnValue
+    public List<ReminderObj> getPendingReminders(long until) {
+        log("Requesting reminders until {} from rethink", until);
+        Cursor<ReminderObj> c = r.table(ReminderObj.DB_TABLE)
+                .between(r.minval(), until)
+                .optArg("index", "time")
+                .orderBy()
+                .optArg("index", "time")
+                .run(pool.get(), ReminderObj.class);
+        try(Stream<ReminderObj> reminders = stream(c)) {
+            return reminders.collect(Collectors.toList());
+        }
+    }
+
+    @Nonnull
+    @CheckReturnValue
+    public List<ReminderObj> getReminders(@Nonnull String userId) {
+        log("Requesting reminders of {} from rethink", userId);
+        Cursor<ReminderObj> c = r.table(ReminderObj.DB_TABLE)
+                .getAll(userId)
+                .optArg("index", "userId")
+                .run(pool.get(), ReminderObj.class);
+        try(Stream<ReminderObj> reminders = stream(c)) {
+            return reminders.sorted(Comparator.comparingLong(ReminderObj::getTime)).collect(Collectors.toList());
+        }
     }
 
     //Can be null and it's perfectly valid.
@@ -236,14 +558,14 @@ public class ManagedDatabase {
         if(marriageId == null)
             return null;
         log("Requesting marriage {} from rethink", marriageId);
-        return r.table(Marriage.DB_TABLE).get(marriageId).run(conn, Marriage.class);
+        return r.table(Marriage.DB_TABLE).get(marriageId).run(pool.get(), Marriage.class);
     }
 
     @Nonnull
     @CheckReturnValue
     public List<Marriage> getMarriages() {
         log("Requesting all marriages from rethink");
-        Cursor<Marriage> c = r.table(Marriage.DB_TABLE).run(conn, Marriage.class);
+        Cursor<Marriage> c = r.table(Marriage.DB_TABLE).run(pool.get(), Marriage.class);
         return c.toList();
     }
 
@@ -251,7 +573,7 @@ public class ManagedDatabase {
     @CheckReturnValue
     public List<PremiumKey> getPremiumKeys() {
         log("Requesting all premium keys from rethink");
-        Cursor<PremiumKey> c = r.table(PremiumKey.DB_TABLE).run(conn, PremiumKey.class);
+        Cursor<PremiumKey> c = r.table(PremiumKey.DB_TABLE).run(pool.get(), PremiumKey.class);
         return c.toList();
     }
 
@@ -261,14 +583,13 @@ public class ManagedDatabase {
     public PremiumKey getPremiumKey(@Nullable String id) {
         log("Requesting premium key {} from rethink", id);
         if(id == null) return null;
-        return r.table(PremiumKey.DB_TABLE).get(id).run(conn, PremiumKey.class);
+        return r.table(PremiumKey.DB_TABLE).get(id).run(pool.get(), PremiumKey.class);
     }
 
     @Nonnull
     @CheckReturnValue
     public DBUser getUser(@Nonnull String userId) {
-        log("Requesting user {} from rethink", userId);
-        DBUser user = r.table(DBUser.DB_TABLE).get(userId).run(conn, DBUser.class);
+        DBUser user = getCached(DBUser.DB_TABLE, userId, DBUser.class);
         return user == null ? DBUser.of(userId) : user;
     }
 
@@ -284,19 +605,373 @@ public class ManagedDatabase {
         return getUser(member.getUser());
     }
 
-    public void save(@Nonnull ManagedObject object) {
+    //Async variants: these run on a separate pool, so independent reads can be done at the same time (on different connections).
+
+    @Nonnull
+    public CompletableFuture<DBGuild> getGuildAsync(@Nonnull String guildId) {
+        return async(DBGuild.DB_TABLE, guildId, () -> getGuild(guildId));
+    }
+
+    @Nonnull
+    public CompletableFuture<DBUser> getUserAsync(@Nonnull String userId) {
+        return async(DBUser.DB_TABLE, userId, () -> getUser(userId));
+    }
+
+    @Nonnull
+    public CompletableFuture<Player> getPlayerAsync(@Nonnull String userId) {
+        return async(Player.DB_TABLE, userId + ":g", () -> getPlayer(userId));
+    }
+
+    @Nonnull
+    public CompletableFuture<PlayerStats> getPlayerStatsAsync(@Nonnull String userId) {
+        return async(PlayerStats.DB_TABLE, userId, () -> getPlayerStats(userId));
+    }
+
+    @Nonnull
+    public CompletableFuture<PremiumKey> getPremiumKeyAsync(@Nullable String id) {
+        if(id == null) return CompletableFuture.completedFuture(null);
+        return CompletableFuture.supplyAsync(() -> getPremiumKey(id), asyncExecutor);
+    }
+
+    /**
+     * Saves an object, completing the returned future once rethink acknowledged the write.
+     *
+     * @param object The object to save.
+     * @return A future that completes when the object has been written.
+     */
+    @Nonnull
+    public CompletableFuture<Void> saveAsync(@Nonnull ManagedObject object) {
+        log("Saving {} {}:{} to rethink (async)", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+        if(stage(object) == null)
+            return CompletableFuture.completedFuture(null);
+
+        return CompletableFuture.runAsync(() -> writeQueue.flush(object.getTableName(), object.getId()), asyncExecutor);
+    }
+
+    /**
+     * Deletes an object, completing the returned future once rethink acknowledged the deletion.
+     *
+     * @param object The object to delete.
+     * @return A future that completes when the object has been deleted.
+     */
+    @Nonnull
+    public CompletableFuture<Void> deleteAsync(@Nonnull ManagedObject object) {
+        log("Deleting {} {}:{} from rethink (async)", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+        if(CACHED_TABLES.contains(object.getTableName())) {
+            updateCached(object.getTableName() + ":" + object.getId(), MISSING);
+        }
+
+        writeQueue.remove(object.getTableName(), object.getId());
+        return CompletableFuture.runAsync(() -> r.table(object.getTableName())
+                .get(object.getId())
+                .delete()
+                .run(pool.get()), asyncExecutor);
+    }
+
+    /**
+     * Queues an object to be saved on the next write-behind flush. Saving the same object again before that only writes the newest version.
+     *
+     * @param object The object to save.
+     */
+    public void queueSave(@Nonnull ManagedObject object) {
+        log("Queueing {} {}:{} to be saved", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+        stage(object);
+    }
+
+    /**
+     * Writes every save queued with {@link #queueSave(ManagedObject)} right away, waiting for the ones already being written.
+     */
+    public void flushQueuedSaves() {
+        writeQueue.drain();
+    }
+
+    /**
+     * Saves an object right away.
+     *
+     * @param object The object to save.
+     * @return False if it was a {@link VersionedObject} and the save got rejected because it was written since this copy was loaded.
+     * Nothing got saved then: load it again (or use {@link #updatePlayer(String, Predicate)} or {@link #mutate(Mutation)}) and retry.
+     */
+    public boolean save(@Nonnull ManagedObject object) {
         log("Saving {} {}:{} to rethink", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
-        r.table(object.getTableName())
-                .insert(object)
-                .optArg("conflict", "replace")
-                .runNoReply(conn);
+        //Goes through the queue anyway, so it gets written together with (and checked like) any pending save of the same copy.
+        WriteBehindQueue.Pending write = stage(object);
+        if(write == null)
+            return false;
+
+        writeQueue.flush(object.getTableName(), object.getId());
+        return write.saved();
+    }
+
+    /**
+     * Loads a player, changes it and saves it right away. If the save gets rejected because the player was written since it was loaded
+     * (see {@link VersionedObject}), it's loaded again and the change applied to the new copy, so the change has to check everything it relies on.
+     *
+     * @param userId The user to update the player of.
+     * @param change Changes the player, returning false to give up without saving (because there isn't enough money anymore, for example).
+     * @return Whether the change got saved.
+     */
+    public boolean updatePlayer(@Nonnull String userId, @Nonnull Predicate<Player> change) {
+        String id = userId + ":g";
+        for(int attempt = 0; attempt < UPDATE_ATTEMPTS; attempt++) {
+            //Anything pending first: the copy we load might have been made from it.
+            writeQueue.flush(Player.DB_TABLE, id);
+            Player player = getPlayer(userId);
+            if(!change.test(player))
+                return false;
+
+            long base = player.getVersion();
+            player.setVersion(base + 1);
+            Map<String, Object> document = Mapifier.toMap(player);
+            List<WriteBehindQueue.Pending> writes = Collections.singletonList(new WriteBehindQueue.Pending(Player.DB_TABLE, document, base));
+            Object result = write(Player.DB_TABLE, writes).run(pool.get());
+            if(rejected(Player.DB_TABLE, writes, result).isEmpty()) {
+                cache(Player.DB_TABLE, id, document);
+                return true;
+            }
+
+            rejected(Player.DB_TABLE, id);
+        }
+
+        log.warn("Couldn't update player {}: it kept being written by something else", userId);
+        return false;
+    }
+
+    /**
+     * Applies a mutation to a player as a single update on rethink, so it can't be lost to (or overwrite) a concurrent change.
+     * Creates the player first if it doesn't exist.
+     *
+     * @param mutation The mutation to apply.
+     * @return The player after the mutation, or null if it got rejected (not enough money or items, too many items, or a different version).
+     */
+    @Nullable
+    public <T extends ManagedObject> T mutate(@Nonnull Mutation<T> mutation) {
+        String table = mutation.getTable();
+        String id = mutation.getId();
+        log("Mutating {} {} on rethink", table, id);
+        //A pending save was made before this, so writing it afterwards would drop its own currency changes.
+        writeQueue.flush(table, id);
+
+        Map<String, Object> result = update(mutation);
+        if(number(result, "skipped") > 0) {
+            //If someone else created it in the meantime this insert just fails, and the update goes through anyway.
+            r.table(table).insert(Mapifier.toMap(mutation.create())).run(pool.get());
+            result = update(mutation);
+        }
+
+        if(number(result, "errors") > 0) {
+            String error = String.valueOf(result.get("first_error"));
+            if(!error.contains(MUTATION_REJECTED))
+                throw new IllegalStateException("Couldn't mutate " + table + ":" + id + ": " + error);
+
+            mutations.labels(table, "rejected").inc();
+            return null;
+        }
+
+        Map<String, Object> document = newValue(result);
+        if(CACHED_TABLES.contains(table)) {
+            updateCached(table + ":" + id, document);
+        }
+
+        LeaderboardService.update(table, document);
+        mutations.labels(table, "applied").inc();
+
+        return Mapifier.fromMap(mutation.getType(), document);
+    }
+
+    /**
+     * Moves money and/or items between two players. Rethink doesn't have transactions across documents, so {@code from} is applied first,
+     * and if {@code to} is rejected it gets undone. If {@code to} fails with an error instead, it might have been applied anyway (the connection
+     * could have dropped after rethink got it), so nothing gets undone: it's logged and reported for someone to check, and the error is rethrown.
+     *
+     * @param from The mutation taking the money or items from the first player.
+     * @param to   The mutation giving them to the second player.
+     * @return Whether both mutations were applied.
+     */
+    public boolean transfer(@Nonnull Mutation<?> from, @Nonnull Mutation<?> to) {
+        if(mutate(from) == null)
+            return false;
+
+        boolean deposited;
+        try {
+            deposited = mutate(to) != null;
+        } catch(RuntimeException e) {
+            //Refunding here could give back money that also got deposited.
+            log.error("Transfer from {} to {} failed after taking from {}, the deposit might or might not have been applied", from.getId(), to.getId(), from.getId(), e);
+            mutations.labels(to.getTable(), "transfer_unknown").inc();
+            SentryHelper.captureExceptionContext("Transfer from " + from.getTable() + ":" + from.getId() + " to " + to.getTable() + ":" + to.getId() +
+                    " ended up in an unknown state", e, ManagedDatabase.class, "Transfer");
+            throw e;
+        }
+
+        if(!deposited)
+            refund(from);
+
+        return deposited;
+    }
+
+    //Gives back what a transfer took. If this fails the money or items are gone, so make sure someone notices.
+    private void refund(Mutation<?> from) {
+        try {
+            if(mutate(from.reversed()) != null)
+                return;
+
+            log.error("Couldn't give back {} what a failed transfer took from them: the refund got rejected", from.getId());
+        } catch(RuntimeException e) {
+            log.error("Couldn't give back {} what a failed transfer took from them", from.getId(), e);
+        }
+
+        mutations.labels(from.getTable(), "refund_failed").inc();
+        SentryHelper.captureMessageErrorContext("Failed to refund a transfer to " + from.getTable() + ":" + from.getId(), ManagedDatabase.class, "Transfer");
+    }
+
+    private Map<String, Object> update(Mutation<?> mutation) {
+        return r.table(mutation.getTable())
+                .get(mutation.getId())
+                .update(row -> r.branch(mutation.check(row), mutation.changes(row), r.error(MUTATION_REJECTED)))
+                .optArg("return_changes", true)
+                .run(pool.get());
     }
 
     public void delete(@Nonnull ManagedObject object) {
         log("Deleting {} {}:{} from rethink", object.getClass().getSimpleName(), object.getTableName(), object.getDatabaseId());
+        if(CACHED_TABLES.contains(object.getTableName())) {
+            updateCached(object.getTableName() + ":" + object.getId(), MISSING);
+        }
+
+        writeQueue.remove(object.getTableName(), object.getId());
         r.table(object.getTableName())
                 .get(object.getId())
                 .delete()
-                .runNoReply(conn);
+                .runNoReply(pool.get());
+    }
+
+    /**
+     * Converts the object to the document that will be sent to rethink and queues it, and if it's one of the cached entities,
+     * replaces the cached copy with it. This is what keeps reads consistent with writes that haven't reached the db yet.
+     * Versioned objects get their version increased, and if we already know the save would be rejected (the cached copy is newer than
+     * the one being saved), it's dropped here.
+     *
+     * @param object The object to save.
+     * @return Whether it got queued.
+     */
+    @Nullable
+    private WriteBehindQueue.Pending stage(@Nonnull ManagedObject object) {
+        String table = object.getTableName();
+        String id = object.getId();
+        long base = -1;
+        VersionedObject versioned = object instanceof VersionedObject ? (VersionedObject) object : null;
+        if(versioned != null) {
+            base = versioned.getVersion();
+            Map<String, Object> cached = CACHED_TABLES.contains(table) ? cached(table + ":" + id) : null;
+            if(cached != null && cached != MISSING && number(cached, "version") != base) {
+                saveConflicts.labels(table).inc();
+                log.warn("Rejected save of {}:{}: it was written since this copy was loaded", table, id);
+                return null;
+            }
+
+            versioned.setVersion(base + 1);
+        }
+
+        Map<String, Object> document = Mapifier.toMap(object);
+        WriteBehindQueue.Pending write = writeQueue.add(table, id, document, base);
+        if(write == null) {
+            //Nothing got saved, so the copy is still at the version it was loaded at. Only versioned saves get rejected.
+            if(versioned != null)
+                versioned.setVersion(base);
+            saveConflicts.labels(table).inc();
+            log.warn("Rejected save of {}:{}: a save from a different copy is pending", table, id);
+            return null;
+        }
+
+        cache(table, id, document);
+        return write;
+    }
+
+    private void cache(String table, String id, Map<String, Object> document) {
+        if(CACHED_TABLES.contains(table)) {
+            updateCached(table + ":" + id, document);
+        }
+
+        LeaderboardService.update(table, document);
+    }
+
+    //Rethink refused to write a versioned save. The cached copy might be the rejected one, so the next request reloads it.
+    private void rejected(String table, String id) {
+        saveConflicts.labels(table).inc();
+        log.warn("Rejected save of {}:{}: it was written since this copy was loaded", table, id);
+        invalidate(table, id);
+    }
+
+    /**
+     * Drops the cached copy of a document, if any. The next request for it will go to rethink.
+     *
+     * @param table The table the document belongs to.
+     * @param id The id of the document.
+     */
+    public void invalidate(@Nonnull String table, @Nonnull String id) {
+        entityCache.invalidate(table + ":" + id);
+    }
+
+    @Nonnull
+    private <T> CompletableFuture<T> async(@Nonnull String table, @Nonnull String id, @Nonnull Supplier<T> getter) {
+        //Cached documents don't need a round trip, so don't bother switching threads for them.
+        if(cached(table + ":" + id) == null) {
+            return CompletableFuture.supplyAsync(getter, asyncExecutor);
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(getter.get());
+        } catch(Exception e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    @Nullable
+    private <T> T getCached(@Nonnull String table, @Nonnull String id, @Nonnull Class<T> clazz) {
+        String key = table + ":" + id;
+        Map<String, Object> document = cached(key);
+        if(document != null) {
+            entityCacheRequests.labels("hit").inc();
+        } else {
+            entityCacheRequests.labels("miss").inc();
+            //The entry might have expired while a save of it is still queued: that one is newer than what rethink has.
+            document = writeQueue.peek(table, id);
+            if(document == null) {
+                log("Requesting {} {} from rethink", table, id);
+                document = r.table(table).get(id).run(pool.get());
+            }
+
+            entityCache.put(key, new CachedDocument(document == null ? MISSING : document));
+        }
+
+        return document == null || document == MISSING ? null : Mapifier.fromMap(clazz, document);
+    }
+
+    @Nullable
+    private Map<String, Object> cached(@Nonnull String key) {
+        CachedDocument entry = entityCache.getIfPresent(key);
+        return entry == null ? null : entry.document;
+    }
+
+    //If writes put a new entry, one that keeps getting saved would never expire, and never see what other nodes (or mutations) wrote to it.
+    private void updateCached(@Nonnull String key, @Nonnull Map<String, Object> document) {
+        CachedDocument entry = entityCache.getIfPresent(key);
+        if(entry != null) {
+            entry.document = document;
+        } else {
+            entityCache.put(key, new CachedDocument(document));
+        }
+    }
+
+    private static class CachedDocument {
+        private volatile Map<String, Object> document;
+
+        private CachedDocument(Map<String, Object> document) {
+            this.document = document;
+        }
     }
 }
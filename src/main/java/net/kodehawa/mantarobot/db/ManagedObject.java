@@ -50,6 +50,7 @@ public interface ManagedObject {
     }
 
     default void saveAsync() {
-        MantaroData.queue(this::save);
+        //Also updates the cached copy right away, so reads done before the queue catches up see this version.
+        MantaroData.db().queueSave(this);
     }
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import com.rethinkdb.gen.ast.ReqlExpr;
+import com.rethinkdb.model.MapObject;
+import net.kodehawa.mantarobot.commands.currency.item.Item;
+import net.kodehawa.mantarobot.commands.currency.item.ItemStack;
+import net.kodehawa.mantarobot.commands.currency.profile.Badge;
+import net.kodehawa.mantarobot.commands.currency.seasons.Season;
+import net.kodehawa.mantarobot.commands.currency.seasons.SeasonPlayer;
+import net.kodehawa.mantarobot.db.entities.Player;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * A change to the currency of a player, applied by {@link ManagedDatabase#mutate(Mutation)} as a single server-side update.
+ * Unlike loading the player, changing it and saving it, two mutations of the same player can't overwrite each other.
+ * <p>
+ * A mutation is all or nothing: if any of its checks fail (not enough money, an item amount going below zero or above
+ * {@link ItemStack#MAX_STACK_SIZE}, or a version that doesn't match) nothing gets changed.
+ * Every applied mutation increases the version of the player by one.
+ *
+ * @param <T> The type of the mutated entity.
+ */
+public class Mutation<T extends ManagedObject> {
+    private final String table;
+    private final String id;
+    private final Class<T> type;
+    //Used when the player doesn't exist yet.
+    private final Supplier<T> creator;
+    private final boolean hasBadges;
+
+    private long money;
+    private final Map<Integer, Integer> items = new LinkedHashMap<>();
+    private final Set<Badge> badges = new LinkedHashSet<>();
+    private Long expectedVersion;
+    //Refunds give back what the player had, so they don't get capped by the stack size (it might have been over it already).
+    private boolean uncapped;
+
+    private Mutation(String table, String id, Class<T> type, Supplier<T> creator, boolean hasBadges) {
+        this.table = table;
+        this.id = id;
+        this.type = type;
+        this.creator = creator;
+        this.hasBadges = hasBadges;
+    }
+
+    @Nonnull
+    public static Mutation<Player> player(@Nonnull String userId) {
+        return new Mutation<>(Player.DB_TABLE, userId + ":g", Player.class, () -> Player.of(userId), true);
+    }
+
+    @Nonnull
+    public static Mutation<SeasonPlayer> seasonPlayer(@Nonnull String userId, @Nonnull Season season) {
+        return new Mutation<>(SeasonPlayer.DB_TABLE, userId + ":" + season, SeasonPlayer.class, () -> SeasonPlayer.of(userId, season), false);
+    }
+
+    /**
+     * Adds (or with a negative amount, removes) money. Removing more money than the player has fails the mutation.
+     *
+     * @param amount How much?
+     * @return This mutation.
+     */
+    @Nonnull
+    public Mutation<T> addMoney(long amount) {
+        money = Math.addExact(money, amount);
+        return this;
+    }
+
+    /**
+     * Adds (or with a negative amount, removes) items. The mutation fails if the resulting amount is below zero
+     * or over {@link ItemStack#MAX_STACK_SIZE}.
+     *
+     * @param item   The item.
+     * @param amount How many?
+     * @return This mutation.
+     */
+    @Nonnull
+    public Mutation<T> addItem(@Nonnull Item item, int amount) {
+        items.merge(item.getId(), amount, Integer::sum);
+        return this;
+    }
+
+    /**
+     * Gives the player a badge, if they don't have it already. Seasonal players don't have badges.
+     *
+     * @param badge The badge.
+     * @return This mutation.
+     */
+    @Nonnull
+    public Mutation<T> addBadge(@Nonnull Badge badge) {
+        if(!hasBadges)
+            throw new IllegalStateException("Badges can only be given to global players");
+
+        badges.add(badge);
+        return this;
+    }
+
+    /**
+     * Only applies the mutation if the player is still at this version, see {@link Player#getVersion()}.
+     *
+     * @param version The version the player was at when it was loaded.
+     * @return This mutation.
+     */
+    @Nonnull
+    public Mutation<T> ifVersion(long version) {
+        this.expectedVersion = version;
+        return this;
+    }
+
+    /**
+     * @return Whether this mutation doesn't change anything besides the version.
+     */
+    public boolean isEmpty() {
+        return money == 0 && badges.isEmpty() && items.values().stream().allMatch(amount -> amount == 0);
+    }
+
+    /**
+     * @return A mutation that gives back the money and items this one takes (and takes back the ones it gives). Badges and version checks aren't kept,
+     * and the items it gives back aren't capped to {@link ItemStack#MAX_STACK_SIZE}.
+     */
+    @Nonnull
+    Mutation<T> reversed() {
+        Mutation<T> reversed = new Mutation<>(table, id, type, creator, hasBadges);
+        reversed.uncapped = true;
+        reversed.money = -money;
+        items.forEach((item, amount) -> reversed.items.put(item, -amount));
+        return reversed;
+    }
+
+    @Nonnull
+    String getTable() {
+        return table;
+    }
+
+    @Nonnull
+    String getId() {
+        return id;
+    }
+
+    @Nonnull
+    Class<T> getType() {
+        return type;
+    }
+
+    @Nonnull
+    T create() {
+        return creator.get();
+    }
+
+    //Whether the mutation can be applied to the stored document.
+    @Nonnull
+    ReqlExpr check(@Nonnull ReqlExpr row) {
+        ReqlExpr check = r.expr(true);
+        if(expectedVersion != null) {
+            check = check.and(row.g("version").default_(0).eq(expectedVersion));
+        }
+
+        if(money < 0) {
+            check = check.and(row.g("money").default_(0).add(money).ge(0));
+        }
+
+        for(Map.Entry<Integer, Integer> item : items.entrySet()) {
+            ReqlExpr amount = itemAmount(row, item.getKey()).add(item.getValue());
+            check = check.and(amount.ge(0));
+            if(!uncapped) {
+                check = check.and(amount.le(ItemStack.MAX_STACK_SIZE));
+            }
+        }
+
+        return check;
+    }
+
+    //The fields to update. Only the changed ones get sent, and everything is relative to what's stored right now.
+    @Nonnull
+    MapObject changes(@Nonnull ReqlExpr row) {
+        MapObject changes = new MapObject().with("version", row.g("version").default_(0).add(1));
+        if(money != 0) {
+            changes.with("money", row.g("money").default_(0).add(money));
+        }
+
+        if(!items.isEmpty()) {
+            MapObject inventory = new MapObject();
+            items.forEach((item, amount) -> inventory.with(String.valueOf(item), itemAmount(row, item).add(amount)));
+            changes.with("inventory", inventory);
+        }
+
+        if(!badges.isEmpty()) {
+            ReqlExpr current = row.g("data").g("badges").default_(r.expr(Collections.emptyList()));
+            changes.with("data", new MapObject().with("badges", current.union(r.expr(badges.stream().map(Badge::name).collect(Collectors.toList())).setDifference(current))));
+        }
+
+        return changes;
+    }
+
+    private static ReqlExpr itemAmount(ReqlExpr row, int item) {
+        return row.g("inventory").g(String.valueOf(item)).default_(0);
+    }
+}
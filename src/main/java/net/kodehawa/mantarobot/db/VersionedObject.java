@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import net.kodehawa.mantarobot.data.MantaroData;
+
+/**
+ * A {@link ManagedObject} that counts the writes made to it (saves and {@link Mutation}s). Saving it only goes through if nothing else
+ * wrote it since this copy was loaded: otherwise the whole save gets rejected, and the next load reads it again from rethink.
+ */
+public interface VersionedObject extends ManagedObject {
+    /**
+     * @return How many times the object was written, as of this copy.
+     */
+    long getVersion();
+
+    void setVersion(long version);
+
+    /**
+     * Saves this copy right away, like {@link #save()}, but tells if it went through.
+     * Check this before telling the user about whatever changed, as a rejected save doesn't change anything.
+     *
+     * @return False if the object was written since this copy was loaded, so nothing got saved.
+     */
+    default boolean trySave() {
+        return MantaroData.db().save(this);
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.db;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.data.MantaroData;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Write-behind queue for {@link ManagedObject#saveAsync()}. Pending saves are keyed by table and id, so saving the same object
+ * several times before the queue gets flushed only writes the latest version of it.
+ * Flushes happen every few hundred milliseconds, or as soon as enough documents are pending, and send one insert per table.
+ * Flushes run on the {@link MantaroData} executor, the same one that runs queued deletes, so a delete queued after a save can't be
+ * overtaken by it.
+ * <p>
+ * A save stays in the queue while it's being written, and only leaves it once it's done. If the write fails it's retried on the next flush,
+ * unless it got replaced by a newer save or removed by a delete in the meantime. A save that replaced one that's still being written
+ * waits for that write to finish, so they can't reach rethink in the wrong order.
+ */
+@Slf4j
+public class WriteBehindQueue {
+    private static final Gauge queueSize = Gauge.build()
+            .name("write_behind_queue_size").help("Documents waiting to be written to the database")
+            .register();
+    private static final Counter saves = Counter.build()
+            .name("write_behind_saves").help("Saves queued for writing, by whether they replaced a pending save (or got rejected for coming from an outdated copy)")
+            .labelNames("result")
+            .register();
+    private static final Counter written = Counter.build()
+            .name("write_behind_documents").help("Documents written by write-behind flushes")
+            .register();
+    private static final Histogram flushLatency = Histogram.build()
+            .name("write_behind_flush_latency").help("Time taken to write a flushed batch, in seconds")
+            .labelNames("table")
+            .register();
+
+    private final ConnectionPool pool;
+    private final ScheduledExecutorService executor;
+    private final int batchSize;
+    //Called with the table and id of every versioned document rethink refused to write, see VersionedObject.
+    private final BiConsumer<String, String> onRejected;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    //So we don't submit a flush for every save once we go over the batch size.
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    public WriteBehindQueue(@Nonnull ConnectionPool pool, @Nonnull ScheduledExecutorService executor, int batchSize, long flushInterval,
+                            @Nonnull BiConsumer<String, String> onRejected) {
+        this.pool = pool;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.onRejected = onRejected;
+
+        executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a document to be written, replacing any pending version of it.
+     * A versioned document replaces the pending one only if it was made from it (saving the same copy again). If it wasn't, it comes from
+     * a different copy, which rethink would reject anyway once the pending one is written, so it's rejected right away.
+     *
+     * @param table    The table the document belongs to.
+     * @param id       The id of the document.
+     * @param document The document to write.
+     * @param base     For versioned documents, the version the copy was at before this save. -1 for everything else.
+     * @return The queued save, or null if the document got rejected.
+     */
+    @Nullable
+    public Pending add(@Nonnull String table, @Nonnull String id, @Nonnull Map<String, Object> document, long base) {
+        String key = table + ":" + id;
+        Pending write;
+        while(true) {
+            Pending old = pending.get(key);
+            if(old != null && base >= 0 && old.version() != base) {
+                saves.labels("rejected").inc();
+                return null;
+            }
+
+            write = new Pending(table, document, base, old);
+            if(old == null ? pending.putIfAbsent(key, write) == null : pending.replace(key, old, write)) {
+                if(old != null)
+                    old.replacedBy = write;
+
+                saves.labels(old == null ? "queued" : "coalesced").inc();
+                break;
+            }
+        }
+
+        queueSize.set(pending.size());
+
+        if(pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            executor.submit(this::flush);
+        }
+
+        return write;
+    }
+
+    /**
+     * @param table The table the document belongs to.
+     * @param id    The id of the document.
+     * @return The pending version of the document, or null if there's none.
+     */
+    @Nullable
+    public Map<String, Object> peek(@Nonnull String table, @Nonnull String id) {
+        Pending p = pending.get(table + ":" + id);
+        return p == null ? null : p.document;
+    }
+
+    /**
+     * Drops the pending version of a document, if any. Used when the document gets deleted. If it's being written right now,
+     * a failed write won't be retried either.
+     *
+     * @param table The table the document belongs to.
+     * @param id    The id of the document.
+     */
+    public void remove(@Nonnull String table, @Nonnull String id) {
+        pending.remove(table + ":" + id);
+        queueSize.set(pending.size());
+    }
+
+    /**
+     * @return How many documents are waiting to be written.
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes the pending version of a document right away, if there's one. If it's already being written by a flush, waits for that instead.
+     *
+     * @param table The table the document belongs to.
+     * @param id    The id of the document.
+     */
+    public void flush(@Nonnull String table, @Nonnull String id) {
+        String key = table + ":" + id;
+        while(true) {
+            Pending p = pending.get(key);
+            if(p == null)
+                return;
+
+            Pending inFlight = p.writing.get() ? p : p.previous != null && p.previous.writing.get() ? p.previous : null;
+            if(inFlight != null) {
+                try {
+                    inFlight.finished.await();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                //It might have failed (and be back for a retry), or been replaced by a newer save.
+                continue;
+            }
+
+            if(claim(key, p)) {
+                write(table, Collections.singletonMap(key, p));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes every pending document, one batch per table.
+     */
+    public void flush() {
+        flushScheduled.set(false);
+        if(pending.isEmpty())
+            return;
+
+        Map<String, Map<String, Pending>> batches = new HashMap<>();
+        for(Map.Entry<String, Pending> entry : pending.entrySet()) {
+            //Anything being written right now (or waiting for an older version of it to be written) goes on the next flush.
+            if(claim(entry.getKey(), entry.getValue())) {
+                batches.computeIfAbsent(entry.getValue().table, t -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for(Map.Entry<String, Map<String, Pending>> batch : batches.entrySet()) {
+            String table = batch.getKey();
+            Histogram.Timer timer = flushLatency.labels(table).startTimer();
+            try {
+                write(table, batch.getValue());
+            } catch(Exception e) {
+                log.error("Error writing {} documents to {}, will retry on the next flush", batch.getValue().size(), table, e);
+            } finally {
+                timer.observeDuration();
+            }
+        }
+    }
+
+    /**
+     * Writes every pending document, waiting for the ones a flush is already writing. Used on shutdown.
+     */
+    public void drain() {
+        flush();
+        for(Pending p : new ArrayList<>(pending.values())) {
+            try {
+                flush(p.table, (String) p.document.get("id"));
+            } catch(Exception e) {
+                log.error("Error writing {}:{}, the save is lost", p.table, p.document.get("id"), e);
+            }
+        }
+    }
+
+    //Marks a pending save as being written. Fails if it already is, got replaced, or replaced a save that's still being written.
+    private boolean claim(String key, Pending p) {
+        Pending previous = p.previous;
+        if(previous != null && previous.writing.get())
+            return false;
+
+        if(!p.writing.compareAndSet(false, true))
+            return false;
+
+        //Replaced between us reading it and claiming it: the newer save gets written instead.
+        if(pending.get(key) != p) {
+            p.release();
+            return false;
+        }
+
+        return true;
+    }
+
+    private void write(String table, Map<String, Pending> batch) {
+        try {
+            Object result = ManagedDatabase.write(table, batch.values()).run(pool.get());
+            written.inc(batch.size());
+
+            Set<String> rejected = new HashSet<>(ManagedDatabase.rejected(table, batch.values(), result));
+            for(Map.Entry<String, Pending> entry : batch.entrySet()) {
+                Pending p = entry.getValue();
+                String id = (String) p.document.get("id");
+                p.rejected = rejected.contains(id);
+                p.written = !p.rejected;
+                //Only if it wasn't replaced (or removed) while it was being written.
+                pending.remove(entry.getKey(), p);
+                if(!p.written) {
+                    onRejected.accept(table, id);
+                }
+            }
+        } catch(RuntimeException e) {
+            //Retried on the next flush, unless a newer save or a delete replaced it in the meantime.
+            for(Map.Entry<String, Pending> entry : batch.entrySet()) {
+                Pending retry = entry.getValue().retry();
+                if(pending.replace(entry.getKey(), entry.getValue(), retry))
+                    entry.getValue().replacedBy = retry;
+            }
+
+            throw e;
+        } finally {
+            for(Pending p : batch.values()) {
+                p.release();
+            }
+
+            queueSize.set(pending.size());
+        }
+    }
+
+    static class Pending {
+        final String table;
+        final Map<String, Object> document;
+        final AtomicBoolean writing = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(1);
+        //The save this one replaced, until this one gets written. It may have been written (or be being written) in the meantime.
+        volatile Pending previous;
+        volatile boolean written;
+        //Set if rethink refused to write it, see VersionedObject.
+        volatile boolean rejected;
+        //The save (or retry) that took this one's place in the queue, if any. Only used to find out how the save ended up.
+        volatile Pending replacedBy;
+        //The version the stored document has to be at for this to be written, -1 if it isn't versioned.
+        private volatile long base;
+
+        Pending(String table, Map<String, Object> document, long base) {
+            this(table, document, base, null);
+        }
+
+        private Pending(String table, Map<String, Object> document, long base, Pending previous) {
+            this.table = table;
+            this.document = document;
+            this.base = base;
+            this.previous = previous;
+        }
+
+        long version() {
+            Object version = document.get("version");
+            return version == null ? 0 : ((Number) version).longValue();
+        }
+
+        //Only valid once the previous save isn't being written anymore (see claim).
+        long base() {
+            Pending p = previous;
+            if(p != null) {
+                //Made from the previous save: if that one never got written, this has to be checked against what it was checked against.
+                if(base >= 0 && !p.written) {
+                    base = p.base();
+                }
+
+                previous = null;
+            }
+
+            return base;
+        }
+
+        //Whether this save (or the one that replaced it, which has the same changes) made it to rethink. Only meaningful once it left the queue.
+        boolean saved() {
+            Pending p = this;
+            while(!p.written && !p.rejected && p.replacedBy != null) {
+                p = p.replacedBy;
+            }
+
+            return !p.rejected;
+        }
+
+        Pending retry() {
+            return new Pending(table, document, base());
+        }
+
+        void release() {
+            writing.set(false);
+            finished.countDown();
+        }
+    }
+}
@@ -22,6 +22,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
+import net.kodehawa.mantarobot.commands.custom.CustomCommandIndex;
+import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedObject;
 import net.kodehawa.mantarobot.db.entities.helpers.CustomCommandData;
 import net.kodehawa.mantarobot.utils.URLEncoding;
@@ -64,6 +66,39 @@ public class CustomCommand implements ManagedObject {
         return DB_TABLE;
     }
 
+    //Keep the name index up to date. Deletes are reflected right away, even when queued, as the name is gone for everyone from then on.
+    //Async writes tell the index twice: right away, and again once they reach the db, so a guild loaded in between doesn't get cached
+    //without them.
+    @Override
+    public void save() {
+        ManagedObject.super.save();
+        CustomCommandIndex.saved(this);
+    }
+
+    @Override
+    public void saveAsync() {
+        CustomCommandIndex.saved(this);
+        MantaroData.db().saveAsync(this).whenComplete((ignored, e) -> CustomCommandIndex.saved(this));
+    }
+
+    @Override
+    public void delete() {
+        ManagedObject.super.delete();
+        CustomCommandIndex.deleted(this);
+    }
+
+    @Override
+    public void deleteAsync() {
+        CustomCommandIndex.deleted(this);
+        MantaroData.queue(() -> {
+            try {
+                MantaroData.db().delete(this);
+            } finally {
+                CustomCommandIndex.deleted(this);
+            }
+        });
+    }
+
     @JsonProperty("values")
     public List<String> encodedValues() {
         return values.stream().map(URLEncoding::encode).collect(Collectors.toList());
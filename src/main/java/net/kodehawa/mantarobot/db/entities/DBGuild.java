@@ -23,9 +23,11 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
+import net.kodehawa.mantarobot.core.GuildCommandFilter;
 import net.kodehawa.mantarobot.data.Config;
 import net.kodehawa.mantarobot.data.MantaroData;
 import net.kodehawa.mantarobot.db.ManagedObject;
@@ -54,6 +56,11 @@ public class DBGuild implements ManagedObject {
 
     @JsonIgnore
     private Config config = MantaroData.config().get();
+    //See GuildCommandFilter#generation, set when loading the guild.
+    @JsonIgnore
+    @Setter
+    @EqualsAndHashCode.Exclude
+    private long filterGeneration;
 
     @JsonCreator
     @ConstructorProperties({"id", "premiumUntil", "data"})
@@ -78,6 +85,26 @@ public class DBGuild implements ManagedObject {
         return DB_TABLE;
     }
 
+    //Guild data might have changed, so recompile the command restrictions next time they're needed.
+    //Invalidate after saving, as saving is what updates the cached document the filter gets compiled from.
+    @Override
+    public void save() {
+        ManagedObject.super.save();
+        GuildCommandFilter.invalidate(id);
+    }
+
+    @Override
+    public void saveAsync() {
+        ManagedObject.super.saveAsync();
+        GuildCommandFilter.invalidate(id);
+    }
+
+    @Override
+    public void delete() {
+        ManagedObject.super.delete();
+        GuildCommandFilter.invalidate(id);
+    }
+
     public Guild getGuild(JDA jda) {
         return jda.getGuildById(getId());
     }
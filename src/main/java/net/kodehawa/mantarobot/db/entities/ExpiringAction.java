@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+package net.kodehawa.mantarobot.db.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+import net.kodehawa.mantarobot.db.ManagedObject;
+
+import javax.annotation.Nonnull;
+import java.beans.ConstructorProperties;
+
+/**
+ * Something that has to be undone at a given time, like a timed mute.
+ * There's one document per (type, guild, user), so scheduling the same action again replaces the old one.
+ */
+@Getter
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ExpiringAction implements ManagedObject {
+    public static final String DB_TABLE = "expiring";
+    private final String id;
+    private final Type type;
+    private final String guildId;
+    private final String userId;
+    private final long expiresAt;
+
+    @JsonCreator
+    @ConstructorProperties({"id", "type", "guildId", "userId", "expiresAt"})
+    public ExpiringAction(@JsonProperty("id") String id, @JsonProperty("type") Type type, @JsonProperty("guildId") String guildId,
+                          @JsonProperty("userId") String userId, @JsonProperty("expiresAt") long expiresAt) {
+        this.id = id;
+        this.type = type;
+        this.guildId = guildId;
+        this.userId = userId;
+        this.expiresAt = expiresAt;
+    }
+
+    public static ExpiringAction of(Type type, String guildId, String userId, long expiresAt) {
+        return new ExpiringAction(id(type, guildId, userId), type, guildId, userId, expiresAt);
+    }
+
+    public static String id(Type type, String guildId, String userId) {
+        return type.name().toLowerCase() + ":" + guildId + ":" + userId;
+    }
+
+    @JsonIgnore
+    @Override
+    @Nonnull
+    public String getTableName() {
+        return DB_TABLE;
+    }
+
+    public enum Type {
+        MUTE
+    }
+}
@@ -39,6 +39,7 @@ public class MantaroObj implements ManagedObject {
     public List<String> blackListedGuilds;
     public List<String> blackListedUsers;
     public List<String> patreonUsers;
+    //Only read to move old mutes to their own documents, see ExpiryScheduler.
     private Map<Long, Pair<String, Long>> mutes;
     private Map<String, Long> tempBans;
 
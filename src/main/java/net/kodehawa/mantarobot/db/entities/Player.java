@@ -26,7 +26,7 @@ import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
 import net.kodehawa.mantarobot.commands.currency.item.ItemStack;
 import net.kodehawa.mantarobot.commands.currency.item.Items;
-import net.kodehawa.mantarobot.db.ManagedObject;
+import net.kodehawa.mantarobot.db.VersionedObject;
 import net.kodehawa.mantarobot.db.entities.helpers.Inventory;
 import net.kodehawa.mantarobot.db.entities.helpers.PlayerData;
 
@@ -35,10 +35,7 @@ import java.beans.ConstructorProperties;
 import java.util.HashMap;
 import java.util.Map;
 
-import static net.kodehawa.mantarobot.db.entities.helpers.Inventory.Resolver.serialize;
-import static net.kodehawa.mantarobot.db.entities.helpers.Inventory.Resolver.unserialize;
-
-public class Player implements ManagedObject {
+public class Player implements VersionedObject {
     public static final String DB_TABLE = "players";
     @Getter
     private final PlayerData data;
@@ -55,6 +52,11 @@ public class Player implements ManagedObject {
     @Getter
     @Setter
     private Long reputation;
+    //How many times this player was written, see VersionedObject.
+    @Getter
+    @Setter
+    @JsonProperty("version")
+    private long version;
 
     @JsonCreator
     @ConstructorProperties({"id", "level", "money", "reputation", "inventory", "data"})
@@ -64,7 +66,7 @@ public class Player implements ManagedObject {
         this.money = money == null ? 0 : money;
         this.reputation = reputation == null ? 0 : reputation;
         this.data = data;
-        this.inventory.replaceWith(unserialize(inventory));
+        this.inventory.replaceWith(inventory);
     }
 
     /**
@@ -158,7 +160,7 @@ public class Player implements ManagedObject {
 
     @JsonProperty("inventory")
     public Map<Integer, Integer> rawInventory() {
-        return serialize(inventory.asList());
+        return inventory.asRawMap();
     }
 
     /**
@@ -14,27 +14,50 @@
  * along with Mantaro.  If not, see http://www.gnu.org/licenses/
  *
  */
-
 package net.kodehawa.mantarobot.db.entities;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
+import net.kodehawa.mantarobot.db.ManagedObject;
+
+import javax.annotation.Nonnull;
+import java.beans.ConstructorProperties;
 
 @Data
-public class ReminderObj {
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ReminderObj implements ManagedObject {
+    public static final String DB_TABLE = "reminders";
 
     public final String id;
     public final String reminder;
+    //When it's due (the offset is already taken into account).
     public final long time;
     private final long scheduledAtMillis;
     private final String userId;
+    private final String guildId;
     private final long offset;
 
-    public ReminderObj(String id, String userId, String reminder, long scheduledAt, long time, long offset) {
+    @JsonCreator
+    @ConstructorProperties({"id", "userId", "guildId", "reminder", "scheduledAtMillis", "time", "offset"})
+    public ReminderObj(@JsonProperty("id") String id, @JsonProperty("userId") String userId, @JsonProperty("guildId") String guildId,
+                       @JsonProperty("reminder") String reminder, @JsonProperty("scheduledAtMillis") long scheduledAt,
+                       @JsonProperty("time") long time, @JsonProperty("offset") long offset) {
         this.id = id;
         this.userId = userId;
+        this.guildId = guildId;
         this.reminder = reminder;
         this.time = time;
         this.scheduledAtMillis = scheduledAt;
         this.offset = offset;
     }
+
+    @JsonIgnore
+    @Override
+    @Nonnull
+    public String getTableName() {
+        return DB_TABLE;
+    }
 }
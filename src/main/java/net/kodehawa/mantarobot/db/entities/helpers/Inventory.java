@@ -14,7 +14,6 @@
  * along with Mantaro.  If not, see http://www.gnu.org/licenses/
  *
  */
-
 package net.kodehawa.mantarobot.db.entities.helpers;
 
 import net.kodehawa.mantarobot.commands.currency.item.Item;
@@ -24,64 +23,95 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static net.kodehawa.mantarobot.db.entities.helpers.Inventory.Resolver.serialize;
-import static net.kodehawa.mantarobot.db.entities.helpers.Inventory.Resolver.unserialize;
 
+/**
+ * The amount of each item someone has, indexed by item id (see {@link Item#getId()}).
+ * Amounts are always kept between 0 and {@link ItemStack#MAX_STACK_SIZE}. It's saved as a map of item id -> amount, see {@link #asRawMap()}.
+ */
 public class Inventory {
     private static final Logger LOGGER = LoggerFactory.getLogger("Inventory");
-    private Map<Integer, Integer> inventory = new HashMap<>();
+    private static final int MAX_AMOUNT = 5000;
+    private final int[] amounts = new int[Items.ALL.length];
 
     public List<ItemStack> asList() {
-        return unserialize(inventory);
+        List<ItemStack> list = new ArrayList<>();
+        for(int id = 0; id < amounts.length; id++) {
+            if(amounts[id] != 0)
+                list.add(new ItemStack(Items.ALL[id], amounts[id]));
+        }
+
+        return list;
     }
 
     public Map<Item, ItemStack> asMap() {
-        return ItemStack.mapped(asList());
+        Map<Item, ItemStack> map = new HashMap<>();
+        for(int id = 0; id < amounts.length; id++) {
+            if(amounts[id] != 0)
+                map.put(Items.ALL[id], new ItemStack(Items.ALL[id], amounts[id]));
+        }
+
+        return map;
+    }
+
+    /**
+     * @return The item id -> amount map this gets saved as. Items with no amount are left out.
+     */
+    public Map<Integer, Integer> asRawMap() {
+        Map<Integer, Integer> map = new HashMap<>();
+        for(int id = 0; id < amounts.length; id++) {
+            if(amounts[id] != 0)
+                map.put(id, amounts[id]);
+        }
+
+        return map;
     }
 
     public void clear() {
-        replaceWith(new ArrayList<>());
+        Arrays.fill(amounts, 0);
     }
 
     public void clearOnlySellables() {
-        List<ItemStack> ns = asList().stream().filter(item -> !item.getItem().isSellable()).collect(Collectors.toList());
-        replaceWith(ns);
+        for(int id = 0; id < amounts.length; id++) {
+            if(Items.ALL[id].isSellable())
+                amounts[id] = 0;
+        }
     }
 
     public boolean containsItem(Item item) {
-        return asMap().containsKey(item);
+        return getAmount(item) != 0;
     }
 
     public ItemStack getStackOf(Item item) {
-        if(containsItem(item)) {
-            return asMap().get(item);
-        } else {
-            return null;
-        }
+        int amount = getAmount(item);
+        return amount == 0 ? null : new ItemStack(item, amount);
     }
 
     public int getAmount(Item item) {
-        return asMap().getOrDefault(item, new ItemStack(item, 0)).getAmount();
+        int id = item.getId();
+        return isValid(id) ? amounts[id] : 0;
     }
 
     public boolean merge(List<ItemStack> inv) {
-        Map<Integer, Integer> map = new HashMap<>(inventory);
-        Map<Integer, Integer> toAdd = serialize(inv);
-        boolean[] hadOverflow = {false};
-        toAdd.forEach((id, amount) -> {
-            int currentAmount = map.getOrDefault(id, 0);
-            if(currentAmount + amount > 5000) {
-                currentAmount = 5000;
-                hadOverflow[0] = true;
-            } else {
-                currentAmount += amount;
-            }
-            map.put(id, currentAmount);
-        });
-        replaceWith(unserialize(map));
-        return hadOverflow[0];
+        //Stacks of the same item get added up before checking for overflow.
+        if(inv.size() == 1) {
+            ItemStack stack = inv.get(0);
+            return add(stack.getItem().getId(), stack.getAmount());
+        }
+
+        int[] toAdd = new int[amounts.length];
+        for(ItemStack stack : inv) {
+            int id = stack.getItem().getId();
+            if(isValid(id))
+                toAdd[id] += stack.getAmount();
+        }
+
+        boolean hadOverflow = false;
+        for(int id = 0; id < toAdd.length; id++) {
+            if(toAdd[id] != 0)
+                hadOverflow |= add(id, toAdd[id]);
+        }
+
+        return hadOverflow;
     }
 
     public void process(List<ItemStack> is) {
@@ -95,19 +125,48 @@ public class Inventory {
     }
 
     public void replaceWith(List<ItemStack> inv) {
-        inventory = serialize(inv);
-    }
-
+        clear();
+        for(ItemStack stack : inv) {
+            int id = stack.getItem().getId();
+            if(isValid(id))
+                amounts[id] += stack.getAmount();
+        }
 
-    public static class Resolver {
-        public static Map<Integer, Integer> serialize(List<ItemStack> list) {
-            Map<Integer, Integer> collect = list.stream().filter(stack -> stack.getAmount() != 0).collect(Collectors.toMap(stack -> Items.idOf(stack.getItem()), ItemStack::getAmount, Integer::sum));
-            collect.values().remove(0);
-            return collect;
+        for(int id = 0; id < amounts.length; id++) {
+            amounts[id] = clamp(amounts[id]);
         }
+    }
 
-        public static List<ItemStack> unserialize(Map<Integer, Integer> map) {
-            return map.entrySet().stream().filter(e -> e.getValue() != 0).map(entry -> new ItemStack(Items.fromId(entry.getKey()), Math.max(Math.min(entry.getValue(), 5000), 0))).collect(Collectors.toList());
+    /**
+     * Replaces the contents with a saved item id -> amount map. Ids of items that don't exist anymore are ignored.
+     */
+    public void replaceWith(Map<Integer, Integer> inv) {
+        clear();
+        if(inv == null)
+            return;
+
+        for(Map.Entry<Integer, Integer> entry : inv.entrySet()) {
+            int id = entry.getKey();
+            if(isValid(id) && entry.getValue() != null)
+                amounts[id] = clamp(entry.getValue());
         }
     }
+
+    private boolean add(int id, int amount) {
+        if(!isValid(id) || amount == 0)
+            return false;
+
+        int current = amounts[id] + amount;
+        boolean overflow = current > MAX_AMOUNT;
+        amounts[id] = clamp(current);
+        return overflow;
+    }
+
+    private boolean isValid(int id) {
+        return id >= 0 && id < amounts.length;
+    }
+
+    private static int clamp(int amount) {
+        return Math.max(Math.min(amount, MAX_AMOUNT), 0);
+    }
 }
@@ -54,10 +54,6 @@ public class UserData {
     //Persistent reminders. UUID is saved here.
     private List<String> reminders = new ArrayList<>();
 
-    //TODO
-    //Persistent reminders, so it works on bot reboot.
-    //private Map<String, ReminderObj> reminderMap = new HashMap<>();
-
     @JsonIgnore
     public Marriage getMarriage() {
         //we're going full round trip here
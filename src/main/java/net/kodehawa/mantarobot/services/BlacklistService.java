@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.services;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.MantaroObj;
+
+import java.util.List;
+
+/**
+ * Keeps the global user and guild blacklists in memory, so checking them doesn't need to pull the whole
+ * {@link MantaroObj} from rethink on every command.
+ * The sets are never modified after being published: every update builds new ones and swaps them, as the blacklist changes rarely
+ * and it's checked on every single command.
+ * Other nodes might change the blacklist too, so {@link #refresh()} gets called periodically.
+ */
+@Slf4j
+public class BlacklistService {
+    private static volatile Snapshot snapshot;
+
+    public static boolean isUserBlacklisted(long userId) {
+        return get().users.contains(userId);
+    }
+
+    public static boolean isUserBlacklisted(String userId) {
+        return isUserBlacklisted(Long.parseLong(userId));
+    }
+
+    public static boolean isGuildBlacklisted(long guildId) {
+        return get().guilds.contains(guildId);
+    }
+
+    public static boolean isGuildBlacklisted(String guildId) {
+        return isGuildBlacklisted(Long.parseLong(guildId));
+    }
+
+    /**
+     * Reloads the blacklist from the database.
+     */
+    public static void refresh() {
+        try {
+            update(MantaroData.db().getMantaroData());
+        } catch(Exception e) {
+            //Keep the last known state, we'll try again on the next run.
+            log.error("Unable to refresh the blacklist", e);
+        }
+    }
+
+    /**
+     * Replaces the in-memory blacklist with the one on the provided object. Call this after changing the blacklist.
+     *
+     * @param obj The object holding the new blacklist.
+     */
+    public static void update(MantaroObj obj) {
+        snapshot = new Snapshot(toSet(obj.getBlackListedGuilds()), toSet(obj.getBlackListedUsers()));
+        log.debug("Updated blacklist: {} guilds, {} users", snapshot.guilds.size(), snapshot.users.size());
+    }
+
+    private static Snapshot get() {
+        Snapshot current = snapshot;
+        if(current == null) {
+            synchronized(BlacklistService.class) {
+                if(snapshot == null) {
+                    update(MantaroData.db().getMantaroData());
+                }
+
+                current = snapshot;
+            }
+        }
+
+        return current;
+    }
+
+    private static TLongSet toSet(List<String> ids) {
+        if(ids == null)
+            return new TLongHashSet();
+
+        TLongSet set = new TLongHashSet(ids.size());
+        for(String id : ids) {
+            try {
+                set.add(Long.parseLong(id));
+            } catch(NumberFormatException e) {
+                log.warn("Ignoring invalid blacklist entry {}", id);
+            }
+        }
+
+        return set;
+    }
+
+    private static class Snapshot {
+        private final TLongSet guilds;
+        private final TLongSet users;
+
+        private Snapshot(TLongSet guilds, TLongSet users) {
+            this.guilds = guilds;
+            this.users = users;
+        }
+    }
+}
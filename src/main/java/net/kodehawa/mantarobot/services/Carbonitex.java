@@ -22,11 +22,11 @@ import net.kodehawa.mantarobot.MantaroBot;
 import okhttp3.*;
 
 import static net.kodehawa.mantarobot.data.MantaroData.config;
+import static net.kodehawa.mantarobot.utils.Utils.httpClient;
 
 @Slf4j
 public class Carbonitex {
     private final String carbonToken = config().get().carbonToken;
-    private final OkHttpClient httpClient = new OkHttpClient();
 
     public void handle() {
         if(carbonToken != null) {
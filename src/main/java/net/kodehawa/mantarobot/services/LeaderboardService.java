@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.services;
+
+import com.google.common.collect.ImmutableList;
+import com.rethinkdb.model.OptArgs;
+import com.rethinkdb.net.Cursor;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.commands.currency.seasons.SeasonPlayer;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.db.entities.Player;
+import net.kodehawa.mantarobot.db.entities.PlayerStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.rethinkdb.RethinkDB.r;
+
+/**
+ * Keeps the top entries of every leaderboard in memory, so showing one doesn't need to query rethink.
+ * Boards get reloaded from the database every few minutes by {@link #refresh()}, which is what picks up changes made by other nodes,
+ * and in between they get updated with every document saved on this node (see {@link #update(String, Map)}).
+ * <p>
+ * Entries have the same shape the old queries returned: the id, plus the plucked fields (nested ones inside "data").
+ */
+@Slf4j
+public class LeaderboardService {
+    //More than we show, so someone dropping from the top 10 still leaves 10 people on it until the next refresh.
+    private static final int TRACKED = 25;
+
+    private static final Map<Board, Snapshot> snapshots = new EnumMap<>(Board.class);
+    private static final Map<String, List<Board>> boardsByTable = new HashMap<>();
+
+    static {
+        for(Board board : Board.values()) {
+            snapshots.put(board, new Snapshot());
+            boardsByTable.computeIfAbsent(board.table, t -> new ArrayList<>()).add(board);
+        }
+    }
+
+    /**
+     * @param board The leaderboard to get.
+     * @param limit How many entries to return, at most.
+     * @return The top entries of the board, highest first.
+     */
+    public static List<Map<?, ?>> get(Board board, int limit) {
+        Snapshot snapshot = snapshots.get(board);
+        List<Map<?, ?>> view = snapshot.view;
+        //Nothing loaded yet (the first refresh didn't finish, or failed).
+        if(view == null) {
+            load(board);
+            view = snapshot.view;
+        }
+
+        return view.size() > limit ? view.subList(0, limit) : view;
+    }
+
+    /**
+     * Reloads every board from the database.
+     */
+    public static void refresh() {
+        for(Board board : Board.values()) {
+            try {
+                load(board);
+            } catch(Exception e) {
+                log.error("Error refreshing leaderboard {}", board, e);
+            }
+        }
+    }
+
+    /**
+     * Updates the boards built from this table with a saved document.
+     *
+     * @param table    The table the document belongs to.
+     * @param document The document that got saved.
+     */
+    public static void update(String table, Map<String, Object> document) {
+        List<Board> boards = boardsByTable.get(table);
+        if(boards == null)
+            return;
+
+        Object id = document.get("id");
+        if(id == null)
+            return;
+
+        for(Board board : boards) {
+            snapshots.get(board).update(id, board.value(document), board.pluck(document));
+        }
+    }
+
+    private static void load(Board board) {
+        Object[] fields = new Object[board.fields.length + 1];
+        fields[0] = "id";
+        for(int i = 0; i < board.fields.length; i++) {
+            String[] path = board.fields[i];
+            fields[i + 1] = path.length == 1 ? path[0] : r.hashMap(path[0], path[1]);
+        }
+
+        List<Map<?, ?>> entries;
+        try(Cursor<Map<?, ?>> cursor = r.table(board.table)
+                .orderBy()
+                .optArg("index", r.desc(board.index))
+                .pluck(fields)
+                .limit(TRACKED)
+                .run(MantaroData.conn(), OptArgs.of("read_mode", "outdated"))) {
+            entries = cursor.toList();
+        }
+
+        snapshots.get(board).replace(board, entries);
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    public enum Board {
+        GAMBLE_AMOUNT(PlayerStats.DB_TABLE, "gambleWinAmount", "gambleWinAmount"),
+        SLOTS_AMOUNT(PlayerStats.DB_TABLE, "slotsWinAmount", "slotsWinAmount"),
+        GAMBLE_WINS(PlayerStats.DB_TABLE, "gambleWins", "gambleWins"),
+        SLOTS_WINS(PlayerStats.DB_TABLE, "slotsWins", "slotsWins"),
+        MONEY(Player.DB_TABLE, "money", "money"),
+        SEASONAL_MONEY(SeasonPlayer.DB_TABLE, "money", "money"),
+        LEVEL(Player.DB_TABLE, "level", "level", "data.experience"),
+        REPUTATION(Player.DB_TABLE, "reputation", "reputation"),
+        SEASONAL_REPUTATION(SeasonPlayer.DB_TABLE, "reputation", "reputation"),
+        DAILY_STREAK(Player.DB_TABLE, "userDailyStreak", "data.dailyStrike"),
+        WAIFU_VALUE(Player.DB_TABLE, "waifuCachedValue", "data.waifuCachedValue"),
+        SEASONAL_WAIFU_VALUE(SeasonPlayer.DB_TABLE, "waifuCachedValue", "data.waifuCachedValue"),
+        CLAIMS(DBUser.DB_TABLE, "timesClaimed", "data.timesClaimed"),
+        GAME_WINS(Player.DB_TABLE, "gameWins", "data.gamesWon"),
+        SEASONAL_GAME_WINS(SeasonPlayer.DB_TABLE, "gameWins", "data.gamesWon");
+
+        private final String table;
+        private final String index;
+        //The first one is what the index sorts by.
+        private final String[][] fields;
+
+        Board(String table, String index, String... fields) {
+            this.table = table;
+            this.index = index;
+            this.fields = new String[fields.length][];
+            for(int i = 0; i < fields.length; i++) {
+                this.fields[i] = fields[i].split("\\.");
+            }
+        }
+
+        long value(Map<?, ?> entry) {
+            String[] path = fields[0];
+            Object value = entry.get(path[0]);
+            if(path.length == 2) {
+                value = value instanceof Map ? ((Map<?, ?>) value).get(path[1]) : null;
+            }
+
+            return number(value);
+        }
+
+        //Same as what pluck() does on rethink.
+        @SuppressWarnings("unchecked")
+        Map<?, ?> pluck(Map<String, Object> document) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("id", document.get("id"));
+            for(String[] path : fields) {
+                Object value = document.get(path[0]);
+                if(path.length == 1) {
+                    entry.put(path[0], value);
+                } else if(value instanceof Map) {
+                    ((Map<String, Object>) entry.computeIfAbsent(path[0], k -> new HashMap<String, Object>()))
+                            .put(path[1], ((Map<?, ?>) value).get(path[1]));
+                }
+            }
+
+            return entry;
+        }
+    }
+
+    private static class Snapshot {
+        private final List<Entry> entries = new ArrayList<>();
+        //What readers get. Never modified, a new one gets published on every change.
+        private volatile List<Map<?, ?>> view;
+
+        synchronized void replace(Board board, List<Map<?, ?>> loaded) {
+            entries.clear();
+            for(Map<?, ?> map : loaded) {
+                entries.add(new Entry(map.get("id"), board.value(map), map));
+            }
+
+            publish();
+        }
+
+        synchronized void update(Object id, long value, Map<?, ?> map) {
+            //Not loaded yet, the load will pick it up.
+            if(view == null)
+                return;
+
+            boolean found = entries.removeIf(e -> e.id.equals(id));
+            if(!found && entries.size() >= TRACKED && value <= entries.get(entries.size() - 1).value)
+                return;
+
+            entries.add(new Entry(id, value, map));
+            entries.sort(Comparator.comparingLong((Entry e) -> e.value).reversed());
+            if(entries.size() > TRACKED) {
+                entries.remove(entries.size() - 1);
+            }
+
+            publish();
+        }
+
+        private void publish() {
+            List<Map<?, ?>> maps = new ArrayList<>(entries.size());
+            for(Entry e : entries) {
+                maps.add(Collections.unmodifiableMap(e.map));
+            }
+
+            view = ImmutableList.copyOf(maps);
+        }
+    }
+
+    private static class Entry {
+        private final Object id;
+        private final long value;
+        private final Map<?, ?> map;
+
+        Entry(Object id, long value, Map<?, ?> map) {
+            this.id = id;
+            this.value = value;
+            this.map = map;
+        }
+    }
+}
@@ -18,7 +18,6 @@
 package net.kodehawa.mantarobot.utils;
 
 import com.jagrosh.jdautilities.commons.utils.FinderUtil;
-import com.rethinkdb.net.Connection;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.*;
@@ -37,6 +36,7 @@ import net.kodehawa.mantarobot.utils.commands.EmoteReference;
 import net.kodehawa.mantarobot.utils.commands.IncreasingRateLimiter;
 import net.kodehawa.mantarobot.utils.commands.RateLimit;
 import net.kodehawa.mantarobot.utils.commands.RateLimiter;
+import net.kodehawa.mantarobot.utils.http.Http;
 import okhttp3.*;
 import org.json.JSONObject;
 
@@ -53,7 +53,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import static com.rethinkdb.RethinkDB.r;
 import static net.kodehawa.mantarobot.commands.OptsCmd.optsCmd;
 import static net.kodehawa.mantarobot.utils.commands.EmoteReference.BLUE_SMALL_MARKER;
 
@@ -62,7 +61,7 @@ public class Utils {
     public static final Map<Long, AtomicInteger> ratelimitedUsers = new ConcurrentHashMap<>();
     private static Set<String> loggedUsers = ConcurrentHashMap.newKeySet();
 
-    public static final OkHttpClient httpClient = new OkHttpClient();
+    public static final OkHttpClient httpClient = Http.CLIENT;
     private static final Pattern pattern = Pattern.compile("\\d+?[a-zA-Z]");
     public static final Pattern mentionPattern = Pattern.compile("<(#|@|@&)?.[0-9]{17,21}>");
     private static final Config config = MantaroData.config().get();
@@ -299,6 +298,36 @@ public class Utils {
         }
     }
 
+    /**
+     * Same than above, but the response is shared with identical requests done at the same time, and kept for the given time.
+     * Don't use it for anything that returns something random.
+     *
+     * @param url       The URL to get the object from.
+     * @param cacheTime For how long to keep the response.
+     * @param unit      The unit of cacheTime.
+     * @return The object as a parsed string.
+     */
+    public static String wgetOkHttp(String url, long cacheTime, TimeUnit unit) {
+        try {
+            Request req = new Request.Builder()
+                    .url(url)
+                    .header("User-Agent", MantaroInfo.USER_AGENT)
+                    .build();
+
+            Http.Result r = Http.fetch(req, cacheTime, unit);
+            if(!r.isSuccessful()) {
+                if(r.getCode() != 404) {
+                    log.warn(getFetchDataFailureResponse(url, "HTTP"));
+                }
+                return null;
+            }
+            return r.string();
+        } catch(Exception e) {
+            log.warn(getFetchDataFailureResponse(url, "HTTP"), e);
+            return null;
+        }
+    }
+
     public static String urlEncodeUTF8(Map<?, ?> map) {
         StringBuilder sb = new StringBuilder();
         for(Map.Entry<?, ?> entry : map.entrySet()) {
@@ -603,10 +632,6 @@ public class Utils {
                 (seconds == 0 ? "" : seconds + " second" + (seconds == 1 ? "" : "s"))).replaceAll(", (\\d{1,2} \\S+)$", " and $1");
     }
 
-    public static Connection newDbConnection() {
-        return r.connection().hostname(config.dbHost).port(config.dbPort).db(config.dbDb).user(config.dbUser, config.dbPassword).connect();
-    }
-
     public static boolean handleDefaultRatelimit(RateLimiter rateLimiter, User u, GuildMessageReceivedEvent event, I18nContext context) {
         if(context == null) {
             //en_US
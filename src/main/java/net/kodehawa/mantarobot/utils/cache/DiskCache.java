@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.utils.cache;
+
+import com.google.common.hash.Hashing;
+import io.prometheus.client.Counter;
+import lombok.extern.slf4j.Slf4j;
+import net.kodehawa.mantarobot.MantaroInfo;
+import net.kodehawa.mantarobot.data.MantaroData;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import static net.kodehawa.mantarobot.utils.Utils.httpClient;
+
+/**
+ * Downloads files into a directory, keeping it under {@link net.kodehawa.mantarobot.data.Config#urlCacheSize} by deleting the least recently
+ * used ones.
+ * <p>
+ * Files are named after the hash of their URL, so the directory itself is the index: it's read back on startup, using the modification
+ * time (which gets updated on every hit) as the last use. Concurrent requests for the same URL share a single download.
+ * There's a single instance per directory, see {@link #of(File)}.
+ */
+@Slf4j
+public class DiskCache {
+    private static final Pattern NAME = Pattern.compile("[0-9a-f]{64}");
+    private static final Map<File, DiskCache> caches = new ConcurrentHashMap<>();
+
+    private static final Counter lookups = Counter.build()
+            .name("url_cache_lookups").help("URL cache lookups, by result")
+            .labelNames("result")
+            .register();
+    private static final Counter evictions = Counter.build()
+            .name("url_cache_evictions").help("Files deleted from the URL cache to stay under its size")
+            .register();
+
+    private final File dir;
+    private final long maxSize;
+    //File name -> size, in access order. Guarded by this.
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75F, true);
+    private final Map<String, CompletableFuture<File>> downloads = new ConcurrentHashMap<>();
+    private long size;
+
+    private DiskCache(File dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+
+        if(dir.isFile())
+            dir.delete();
+        dir.mkdirs();
+
+        File[] files = dir.listFiles();
+        if(files == null)
+            return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        synchronized(this) {
+            for(File file : files) {
+                //Leftovers of interrupted downloads, or files saved before the names were hashed.
+                if(!file.isFile() || !NAME.matcher(file.getName()).matches()) {
+                    file.delete();
+                    continue;
+                }
+
+                long length = file.length();
+                index.put(file.getName(), length);
+                size += length;
+            }
+
+            evict(null);
+        }
+
+        log.info("Loaded {} cached files ({} KB) from {}", index.size(), size / 1024, dir);
+    }
+
+    public static DiskCache of(File dir) {
+        return caches.computeIfAbsent(dir.getAbsoluteFile(), d -> new DiskCache(d, MantaroData.config().get().urlCacheSize * 1024L * 1024L));
+    }
+
+    /**
+     * Gets the file downloaded from the specified URL, downloading it first if it isn't on the disk.
+     * The file might be deleted at any point after this returns, if it becomes the least recently used one.
+     *
+     * @param url The URL to download.
+     * @return The downloaded file.
+     * @throws IOException If the download failed, or returned an error code.
+     */
+    public File get(String url) throws IOException {
+        String name = Hashing.sha256().hashString(url, StandardCharsets.UTF_8).toString();
+        File file = new File(dir, name);
+
+        boolean cached;
+        synchronized(this) {
+            cached = index.get(name) != null;
+        }
+
+        if(cached) {
+            lookups.labels("hit").inc();
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> running = downloads.putIfAbsent(name, future);
+        if(running != null) {
+            lookups.labels("coalesced").inc();
+            return await(running);
+        }
+
+        lookups.labels("miss").inc();
+        try {
+            long length = download(url, file);
+            synchronized(this) {
+                Long previous = index.put(name, length);
+                size += length - (previous == null ? 0 : previous);
+                evict(name);
+            }
+
+            future.complete(file);
+            return file;
+        } catch(IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(name, future);
+        }
+    }
+
+    //Written to a temporary file first, so a file with the final name is always complete.
+    private long download(String url, File file) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("User-Agent", MantaroInfo.USER_AGENT)
+                .build();
+
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try(Response response = httpClient.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if(!response.isSuccessful() || body == null)
+                throw new IOException("Got code " + response.code() + " while downloading " + url);
+
+            try(InputStream is = body.byteStream()) {
+                Files.copy(is, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return file.length();
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    //Must be called holding the lock. Doesn't evict the specified file, as it's about to be returned.
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+        while(size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if(entry.getKey().equals(keep))
+                continue;
+
+            iterator.remove();
+            size -= entry.getValue();
+            evictions.inc();
+            if(!new File(dir, entry.getKey()).delete())
+                log.warn("Couldn't delete evicted file {} from {}", entry.getKey(), dir);
+        }
+    }
+
+    private static File await(CompletableFuture<File> running) throws IOException {
+        try {
+            return running.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a download");
+        } catch(ExecutionException e) {
+            throw new IOException("Download failed", e.getCause());
+        }
+    }
+}
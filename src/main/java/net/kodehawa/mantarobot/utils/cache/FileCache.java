@@ -20,30 +20,32 @@ package net.kodehawa.mantarobot.utils.cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import lombok.SneakyThrows;
 
-import java.io.*;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.ExecutionException;
 
+/**
+ * Keeps files memory-mapped, so reading them doesn't copy them into the heap.
+ * A mapping stays valid even if its file gets deleted (on anything but Windows), so cached files can be evicted from the disk at any time.
+ */
 public class FileCache {
-    private final LoadingCache<File, byte[]> cache;
+    private final LoadingCache<File, ByteBuffer> cache;
 
     public FileCache(int maxSize, int concurrencyLevel) {
         cache = CacheBuilder.newBuilder()
                 .maximumSize(maxSize)
                 .concurrencyLevel(concurrencyLevel)
-                .build(new CacheLoader<File, byte[]>() {
-                    @SneakyThrows
+                .build(new CacheLoader<File, ByteBuffer>() {
                     @Override
-                    public byte[] load(File key) throws Exception {
+                    public ByteBuffer load(File key) throws Exception {
                         if(!key.isFile()) throw new IllegalArgumentException(key + ": not a file");
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        FileInputStream fis = new FileInputStream(key);
-                        byte[] buffer = new byte[1024];
-                        int read;
-                        while((read = fis.read(buffer)) != -1) baos.write(buffer, 0, read);
-                        fis.close();
-                        return baos.toByteArray();
+                        try(FileChannel channel = FileChannel.open(key.toPath(), StandardOpenOption.READ)) {
+                            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        }
                     }
                 });
     }
@@ -52,19 +54,56 @@ public class FileCache {
         this(maxSize, 10);
     }
 
-    public byte[] get(File file) {
-        return get(file, true);
-    }
-
-    private byte[] get(File file, boolean copy) {
+    /**
+     * @param file The file to read.
+     * @return A read-only view of the contents of the file, with its own position.
+     */
+    public ByteBuffer get(File file) {
         try {
-            return copy ? cache.get(file).clone() : cache.get(file);
+            return cache.get(file).asReadOnlyBuffer();
         } catch(ExecutionException e) {
             throw new RuntimeException(e.getCause());
         }
     }
 
     public InputStream input(File file) {
-        return new ByteArrayInputStream(get(file, false));
+        return new ByteBufferInputStream(get(file));
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if(len == 0)
+                return 0;
+            if(!buffer.hasRemaining())
+                return -1;
+
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
     }
 }
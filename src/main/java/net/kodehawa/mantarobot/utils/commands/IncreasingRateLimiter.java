@@ -17,25 +17,55 @@
 
 package net.kodehawa.mantarobot.utils.commands;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.User;
-import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.db.entities.DBUser;
+import net.kodehawa.mantarobot.utils.Prometheus;
 import org.apache.commons.io.IOUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisNoScriptException;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Redis-backed ratelimiter whose cooldown grows the more a key keeps trying while it's ratelimited.
+ * <p>
+ * In hybrid mode (the default), the last answer redis gave for every key is kept locally. While it says the key is ratelimited,
+ * calls get rejected without asking redis, and the rejections are sent to it later, in one pipeline, so the spam penalties still apply.
+ * Redis only gets asked when the key might be able to go through.
+ */
+@Slf4j
 public class IncreasingRateLimiter {
     private static final String SCRIPT;
+    private static final String SPAM_SCRIPT;
+    //How long to wait before sending the locally rejected calls to redis. They're batched during this time.
+    private static final long SPAM_FLUSH_DELAY = 250;
+    private static final ScheduledExecutorService spamFlusher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("IncreasingRateLimiter-Flusher Thread-%d").setDaemon(true).build()
+    );
+    private static final Counter calls = Counter.build()
+            .name("increasing_ratelimiter_calls").help("Ratelimiter calls, by whether they were answered locally or by redis")
+            .labelNames("source")
+            .register();
 
     private final JedisPool pool;
     private final String prefix;
@@ -45,18 +75,24 @@ public class IncreasingRateLimiter {
     private final int cooldownIncrease;
     private final int maxCooldown;
     private String scriptSha;
+    private String spamScriptSha;
     private boolean randomIncrement;
     private boolean premiumAware;
+    private final Cache<String, LocalState> localStates;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
 
     static {
         try {
             SCRIPT = IOUtils.toString(IncreasingRateLimiter.class.getResourceAsStream("/ratelimiter.lua"), StandardCharsets.UTF_8);
+            SPAM_SCRIPT = IOUtils.toString(IncreasingRateLimiter.class.getResourceAsStream("/ratelimiter_spam.lua"), StandardCharsets.UTF_8);
         } catch(IOException e) {
             throw new ExceptionInInitializerError(e);
         }
+
+        Prometheus.THREAD_POOL_COLLECTOR.add("increasing-ratelimiter-flusher", spamFlusher);
     }
 
-    private IncreasingRateLimiter(JedisPool pool, String prefix, int limit, int cooldown, int spamBeforeCooldownIncrease, int cooldownIncrease, int maxCooldown, boolean randomIncrement, boolean premiumAware) {
+    private IncreasingRateLimiter(JedisPool pool, String prefix, int limit, int cooldown, int spamBeforeCooldownIncrease, int cooldownIncrease, int maxCooldown, boolean randomIncrement, boolean premiumAware, boolean hybrid) {
         this.pool = pool;
         this.prefix = prefix;
         this.limit = limit;
@@ -66,17 +102,48 @@ public class IncreasingRateLimiter {
         this.maxCooldown = maxCooldown;
         this.randomIncrement = randomIncrement;
         this.premiumAware = premiumAware;
+        //A local state is useless once its reset time passed, and the reset can't be further away than the max cooldown.
+        this.localStates = hybrid ? CacheBuilder.newBuilder()
+                .maximumSize(100000)
+                .expireAfterWrite(Math.max(cooldown, maxCooldown), TimeUnit.MILLISECONDS)
+                .build() : null;
+    }
+
+    private RateLimit limit0(String key, String userId) {
+        if(localStates == null) {
+            return limitRedis(key, userId);
+        }
+
+        long now = Instant.now().toEpochMilli();
+        LocalState state = localStates.getIfPresent(key);
+        if(state != null) {
+            synchronized(state) {
+                if(state.limited && state.reset > now) {
+                    calls.labels("local").inc();
+                    int spam = state.spam + state.pendingSpam;
+                    state.pendingSpam++;
+                    scheduleFlush();
+
+                    return new RateLimit(now, 0, state.reset - now, spam);
+                }
+            }
+        }
+
+        RateLimit rateLimit = limitRedis(key, userId);
+        update(key, rateLimit);
+        return rateLimit;
     }
 
     @SuppressWarnings("unchecked")
-    private RateLimit limit0(String key) {
+    private RateLimit limitRedis(String key, String userId) {
+        calls.labels("redis").inc();
         try(Jedis j = pool.getResource()) {
             if(scriptSha == null) {
                 scriptSha = j.scriptLoad(SCRIPT);
             }
             long start = Instant.now().toEpochMilli();
             List<Long> result;
-            boolean premiumAwareness = premiumAware && MantaroData.db().getUser(key).isPremium();
+            boolean premiumAwareness = premiumAware && RateLimiter.isPremium(userId);
             try {
                 int cd = cooldown + (randomIncrement ? ThreadLocalRandom.current().nextInt(cooldown / 4) : 0);
                 result = (List<Long>)j.evalsha(scriptSha,
@@ -93,7 +160,7 @@ public class IncreasingRateLimiter {
             } catch(JedisNoScriptException e) {
                 //script not in cache. force load it and try again.
                 scriptSha = j.scriptLoad(SCRIPT);
-                return limit0(key);
+                return limitRedis(key, userId);
             }
 
             return new RateLimit(
@@ -106,10 +173,23 @@ public class IncreasingRateLimiter {
     }
 
     public RateLimit limit(String key) {
-        return limit0(prefix + key);
+        return limit0(prefix + key, key);
     }
 
     public long getRemaniningCooldown(User user) {
+        String key = prefix + user.getId();
+        if(localStates != null) {
+            LocalState state = localStates.getIfPresent(key);
+            //Locally rejected calls might have increased the cooldown on redis, so only trust states without pending ones.
+            if(state != null) {
+                synchronized(state) {
+                    if(state.limited && state.pendingSpam == 0 && state.reset > System.currentTimeMillis()) {
+                        return state.reset - System.currentTimeMillis();
+                    }
+                }
+            }
+        }
+
         try(Jedis j = pool.getResource()) {
             String resetAt = j.hget(prefix + user.getId(), "reset");
             if(resetAt == null) {
@@ -120,6 +200,108 @@ public class IncreasingRateLimiter {
         }
     }
 
+    //Remembers what redis answered for a key.
+    private void update(String key, RateLimit rateLimit) {
+        LocalState state;
+        try {
+            state = localStates.get(key, LocalState::new);
+        } catch(ExecutionException e) {
+            //Can't happen, creating a LocalState doesn't throw.
+            throw new IllegalStateException(e);
+        }
+
+        synchronized(state) {
+            boolean accepted = rateLimit.getTriesLeft() > 0;
+            //triesLeft is counted before this call, so an accepted call with one try left used the last one.
+            state.limited = !accepted || rateLimit.getTriesLeft() <= 1;
+            state.reset = rateLimit.getCooldownReset();
+            state.spam = accepted ? 0 : rateLimit.getSpamAttempts() + 1;
+        }
+
+        //Refreshes the write time.
+        localStates.put(key, state);
+    }
+
+    private void scheduleFlush() {
+        if(flushScheduled.compareAndSet(false, true)) {
+            spamFlusher.schedule(this::flushSpam, SPAM_FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //Sends every locally rejected call to redis, one script call per key, all of them in a single pipeline.
+    @SuppressWarnings("unchecked")
+    private void flushSpam() {
+        flushScheduled.set(false);
+
+        List<String> keys = new ArrayList<>();
+        List<LocalState> states = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for(Map.Entry<String, LocalState> entry : localStates.asMap().entrySet()) {
+            LocalState state = entry.getValue();
+            synchronized(state) {
+                if(state.pendingSpam > 0) {
+                    keys.add(entry.getKey());
+                    states.add(state);
+                    counts.add(state.pendingSpam);
+                    state.pendingSpam = 0;
+                }
+            }
+        }
+
+        if(keys.isEmpty())
+            return;
+
+        long now = Instant.now().toEpochMilli();
+        try(Jedis j = pool.getResource()) {
+            if(spamScriptSha == null) {
+                spamScriptSha = j.scriptLoad(SPAM_SCRIPT);
+            }
+
+            Pipeline pipeline = j.pipelined();
+            List<Response<Object>> responses = new ArrayList<>(keys.size());
+            for(int i = 0; i < keys.size(); i++) {
+                responses.add(pipeline.evalsha(spamScriptSha,
+                        Collections.singletonList(keys.get(i)),
+                        Arrays.asList(
+                                String.valueOf(limit),
+                                String.valueOf(now),
+                                String.valueOf(cooldown),
+                                String.valueOf(spamBeforeCooldownIncrease),
+                                String.valueOf(cooldownIncrease),
+                                String.valueOf(maxCooldown),
+                                String.valueOf(counts.get(i))
+                        )
+                ));
+            }
+            pipeline.sync();
+
+            for(int i = 0; i < responses.size(); i++) {
+                List<Long> result = (List<Long>) responses.get(i).get();
+                LocalState state = states.get(i);
+                synchronized(state) {
+                    //Picks up the penalties. Calls rejected while we were flushing are still pending, so don't count them twice.
+                    state.reset = result.get(1);
+                    state.spam = result.get(2).intValue();
+                }
+            }
+        } catch(Exception e) {
+            //Might have been flushed from redis' script cache. Loading it again is cheap, so just do it on the next flush.
+            spamScriptSha = null;
+
+            //The penalties are lost, but retrying would only pile more work on a redis that's already having trouble.
+            log.warn("Unable to send {} locally ratelimited keys to redis", keys.size(), e);
+        }
+    }
+
+    private static class LocalState {
+        //Whether the next call would be rejected, as long as the reset time didn't pass.
+        boolean limited;
+        long reset;
+        //Spam attempts redis knows about, and the ones that were rejected locally and haven't been sent yet.
+        int spam;
+        int pendingSpam;
+    }
+
     public static class Builder {
         private JedisPool pool;
         private String prefix = "";
@@ -130,6 +312,7 @@ public class IncreasingRateLimiter {
         private int maxCooldown;
         private boolean randomIncrement = true;
         private boolean premiumAware = false;
+        private boolean hybrid = true;
 
         public Builder pool(JedisPool pool) {
             this.pool = pool;
@@ -141,6 +324,15 @@ public class IncreasingRateLimiter {
             return this;
         }
 
+        /**
+         * Whether calls for keys that are known to be ratelimited should be rejected without asking redis. Defaults to true.
+         * Turn it off if something else can lift ratelimits on redis.
+         */
+        public Builder hybrid(boolean hybrid) {
+            this.hybrid = hybrid;
+            return this;
+        }
+
         public Builder randomIncrement(boolean incr) {
             this.randomIncrement = incr;
             return this;
@@ -205,7 +397,7 @@ public class IncreasingRateLimiter {
             if(cooldown < 0) {
                 throw new IllegalStateException("Cooldown must be set");
             }
-            return new IncreasingRateLimiter(pool, prefix, limit, cooldown, spamTolerance, cooldownPenaltyIncrease, maxCooldown, randomIncrement, premiumAware);
+            return new IncreasingRateLimiter(pool, prefix, limit, cooldown, spamTolerance, cooldownPenaltyIncrease, maxCooldown, randomIncrement, premiumAware, hybrid);
         }
     }
 }
@@ -17,17 +17,14 @@
 
 package net.kodehawa.mantarobot.utils.commands;
 
-import lombok.Getter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
 import net.kodehawa.mantarobot.data.MantaroData;
-import net.kodehawa.mantarobot.utils.Prometheus;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class defines the x ratelimit that will be taken into account when x user inputs a command.
@@ -37,30 +34,33 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * This class normally does the work of making abusable commands not-so abusable, like ~>loot. Also sorts daily or timely timeouts for other commands like daily and rep.
  * <p>
+ * Every key keeps the times at which its last (up to max) uses expire, so nothing has to be scheduled to lift a ratelimit:
+ * a use counts until its expiry time passes. Keys get dropped once their last use expired.
+ * <p>
  * Made by natanbc, modified by Kodehawa.
  *
  * @since 01-06-2017
  */
 public class RateLimiter {
-    private static final ScheduledExecutorService ses = Executors.newScheduledThreadPool(1);
-    private final long max;
+    //Shared by every premium-aware limiter, so we don't hit the db for it on every command.
+    private static final Cache<String, Boolean> premiumCache = CacheBuilder.newBuilder()
+            .maximumSize(50000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
+    private final int max;
     private final long timeout;
-    @Getter
-    private final ConcurrentHashMap<String, Pair<AtomicInteger, Long>> usersRateLimited = new ConcurrentHashMap<>();
+    //Written every time a use gets accepted, so an entry expires exactly when the last use it holds does.
+    private final Cache<String, Uses> usersRateLimited;
     private boolean isPremiumAware = false;
 
-    static {
-        Prometheus.THREAD_POOL_COLLECTOR.add("rate-limiter", ses);
-    }
-
     /**
      * Default constructor normally used in Currency commands to ratelimit all people.
      *
      * @param timeout How much time until the ratelimit gets lifted
      */
     public RateLimiter(TimeUnit timeUnit, int timeout) {
-        this.max = 1;
-        this.timeout = timeUnit.toMillis(timeout);
+        this(timeUnit, 1, timeout);
     }
 
     /**
@@ -70,9 +70,8 @@ public class RateLimiter {
      * @param timeout How much time until the ratelimit gets lifted
      */
     public RateLimiter(TimeUnit timeUnit, int timeout, boolean isPremiumAware) {
-        this.max = 1;
+        this(timeUnit, 1, timeout);
         this.isPremiumAware = isPremiumAware;
-        this.timeout = timeUnit.toMillis(timeout);
     }
 
     /**
@@ -83,42 +82,41 @@ public class RateLimiter {
     public RateLimiter(TimeUnit timeUnit, int max, int timeout) {
         this.max = max;
         this.timeout = timeUnit.toMillis(timeout);
+        this.usersRateLimited = CacheBuilder.newBuilder()
+                .expireAfterWrite(this.timeout, TimeUnit.MILLISECONDS)
+                .build();
     }
 
     //Basically where you get b1nzy'd.
     public boolean process(String key) {
-        boolean isPremium = isPremiumAware && MantaroData.db().getUser(key).isPremium();
-        Pair<AtomicInteger, Long> p = usersRateLimited.get(key);
-
-        //Put the user on the RL map if they aren't here already, but we already let him pass.
-        if(p == null) {
-            usersRateLimited.put(key, p = new Pair<>());
-            p.first = new AtomicInteger();
-        }
-
-        AtomicInteger a = p.first;
-        long i = a.get();
-        if(i >= max) return false;
-
-        a.incrementAndGet();
+        Uses uses = uses(key);
         long now = System.currentTimeMillis();
 
-        Long tryAgain = p.second;
-        if(tryAgain == null || tryAgain < now) {
-            p.second = now + (isPremium ? (long) (timeout * 0.75) : timeout);
+        synchronized(uses) {
+            //The oldest use is the next one to expire: if it hasn't, all of them are still active.
+            if(uses.expiries[uses.next] > now)
+                return false;
+
+            //Only look up premium status for the uses that can actually go through.
+            long duration = isPremiumAware && isPremium(key) ? (long) (timeout * 0.75) : timeout;
+            uses.expiries[uses.next] = now + duration;
+            uses.next = (uses.next + 1) % max;
         }
 
-        ses.schedule(a::decrementAndGet, isPremium ? (long) (timeout * 0.75) : timeout, TimeUnit.MILLISECONDS);
+        //Refreshes the write time.
+        usersRateLimited.put(key, uses);
         return true;
     }
 
     //Method overload.
     public long tryAgainIn(String key) {
-        Pair<AtomicInteger, Long> p = usersRateLimited.get(key);
-        if(p == null || p.second == null)
+        Uses uses = usersRateLimited.getIfPresent(key);
+        if(uses == null)
             return 0;
 
-        return Math.max(p.second - System.currentTimeMillis(), 0);
+        synchronized(uses) {
+            return Math.max(uses.expiries[uses.next] - System.currentTimeMillis(), 0);
+        }
     }
 
     public long tryAgainIn(Member key) {
@@ -137,8 +135,31 @@ public class RateLimiter {
         return process(member.getUser());
     }
 
-    private static class Pair<F, S> {
-        F first;
-        S second;
+    private Uses uses(String key) {
+        try {
+            return usersRateLimited.get(key, () -> new Uses(max));
+        } catch(ExecutionException e) {
+            //Can't happen, creating Uses doesn't throw.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Also used by IncreasingRateLimiter.
+    static boolean isPremium(String key) {
+        try {
+            return premiumCache.get(key, () -> MantaroData.db().getUser(key).isPremium());
+        } catch(ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    //Ring of expiry times for the last max uses. next points to the oldest one.
+    private static class Uses {
+        final long[] expiries;
+        int next;
+
+        Uses(int max) {
+            this.expiries = new long[max];
+        }
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2016-2019 David Alejandro Rubio Escares / Kodehawa
+ *
+ * Mantaro is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * Mantaro is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Mantaro.  If not, see http://www.gnu.org/licenses/
+ *
+ */
+
+package net.kodehawa.mantarobot.utils.http;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import net.kodehawa.mantarobot.data.Config;
+import net.kodehawa.mantarobot.data.MantaroData;
+import net.kodehawa.mantarobot.utils.Prometheus;
+import okhttp3.*;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * The HTTP client shared by everything on this node (JDA brings its own).
+ * <p>
+ * Every request made through {@link #CLIENT} counts against a limit of {@link Config#httpMaxRequestsPerHost} concurrent requests per host,
+ * and gets its latency and result recorded, labeled by host.
+ * On top of that, {@link #fetch(Request)} makes identical GETs that are in flight at the same time share a single request, and
+ * {@link #fetch(Request, long, TimeUnit)} also keeps the successful responses in memory for the given time.
+ * Neither should be used for endpoints that return something random on every call.
+ */
+public class Http {
+    private static final Config config = MantaroData.config().get();
+    //Upper bound of the cache time, the actual time is checked when reading.
+    private static final long MAX_CACHE_TIME = TimeUnit.HOURS.toMillis(1);
+
+    private static final Histogram requestLatency = Histogram.build()
+            .name("http_request_latency").help("Time taken by outgoing HTTP requests, in seconds")
+            .labelNames("host")
+            .register();
+    private static final Counter requests = Counter.build()
+            .name("http_requests").help("Outgoing HTTP requests, by host and result")
+            .labelNames("host", "result")
+            .register();
+    private static final Counter fetches = Counter.build()
+            .name("http_fetches").help("Shared fetches, by where the response came from")
+            .labelNames("source")
+            .register();
+
+    private static final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private static final Map<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+    private static final Cache<String, CachedResult> cache = CacheBuilder.newBuilder()
+            .maximumWeight(config.httpCacheSize * 1024L * 1024L)
+            .weigher((String key, CachedResult cached) -> key.length() + cached.result.body.length)
+            .expireAfterWrite(MAX_CACHE_TIME, TimeUnit.MILLISECONDS)
+            .build();
+
+    public static final OkHttpClient CLIENT;
+
+    static {
+        ExecutorService dispatcherPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 1, TimeUnit.MINUTES, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("Http-Dispatcher Thread-%d").setDaemon(true).build());
+        Prometheus.THREAD_POOL_COLLECTOR.add("http-dispatcher", dispatcherPool);
+
+        Dispatcher dispatcher = new Dispatcher(dispatcherPool);
+        dispatcher.setMaxRequestsPerHost(config.httpMaxRequestsPerHost);
+
+        CLIENT = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(config.httpMaxRequestsPerHost * 4, 5, TimeUnit.MINUTES))
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .callTimeout(1, TimeUnit.MINUTES)
+                .addInterceptor(Http::intercept)
+                .build();
+    }
+
+    /**
+     * Executes a GET, sharing the response with every identical (same url and headers) GET executed while it's in flight.
+     *
+     * @param request The request to execute. Must be a GET.
+     * @return The response.
+     * @throws IOException If the request failed. Responses with an error code don't throw.
+     */
+    public static Result fetch(@Nonnull Request request) throws IOException {
+        return fetch(request, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same as {@link #fetch(Request)}, but successful responses are also kept in memory for the given time (up to an hour) and
+     * returned to identical GETs done meanwhile.
+     *
+     * @param request   The request to execute. Must be a GET.
+     * @param cacheTime For how long to keep the response. Zero means it won't be kept.
+     * @param unit      The unit of cacheTime.
+     * @return The response.
+     * @throws IOException If the request failed. Responses with an error code don't throw.
+     */
+    public static Result fetch(@Nonnull Request request, long cacheTime, @Nonnull TimeUnit unit) throws IOException {
+        if(!request.method().equals("GET"))
+            throw new IllegalArgumentException("Only GETs can be shared, got " + request.method());
+
+        String key = request.url() + "\n" + request.headers();
+        if(cacheTime > 0) {
+            CachedResult cached = cache.getIfPresent(key);
+            if(cached != null && cached.expiresAt > System.currentTimeMillis()) {
+                fetches.labels("cache").inc();
+                return cached.result;
+            }
+        }
+
+        CompletableFuture<Result> future = new CompletableFuture<>();
+        CompletableFuture<Result> running = inFlight.putIfAbsent(key, future);
+        if(running != null) {
+            fetches.labels("coalesced").inc();
+            return await(running);
+        }
+
+        fetches.labels("network").inc();
+        try(Response response = CLIENT.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            Result result = new Result(response.code(), body == null ? new byte[0] : body.bytes());
+            if(cacheTime > 0 && result.isSuccessful()) {
+                cache.put(key, new CachedResult(result, System.currentTimeMillis() + Math.min(unit.toMillis(cacheTime), MAX_CACHE_TIME)));
+            }
+
+            future.complete(result);
+            return result;
+        } catch(IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static Result await(CompletableFuture<Result> running) throws IOException {
+        try {
+            return running.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shared request");
+        } catch(ExecutionException e) {
+            //Wrapped, as the original exception is being thrown on other threads too.
+            throw new IOException("Shared request failed", e.getCause());
+        }
+    }
+
+    private static Response intercept(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        String host = request.url().host();
+        Semaphore permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(config.httpMaxRequestsPerHost));
+
+        try {
+            if(!permits.tryAcquire(30, TimeUnit.SECONDS)) {
+                requests.labels(host, "rejected").inc();
+                throw new IOException("Too many concurrent requests to " + host);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to request " + host);
+        }
+
+        Histogram.Timer timer = requestLatency.labels(host).startTimer();
+        try {
+            Response response = chain.proceed(request);
+            requests.labels(host, response.isSuccessful() ? "success" : "http_" + response.code() / 100 + "xx").inc();
+            return response;
+        } catch(IOException e) {
+            requests.labels(host, "io_error").inc();
+            throw e;
+        } finally {
+            timer.observeDuration();
+            permits.release();
+        }
+    }
+
+    /**
+     * A fully read response. As it can be shared between callers, the body must not be modified.
+     */
+    public static class Result {
+        private final int code;
+        private final byte[] body;
+
+        public Result(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public boolean isSuccessful() {
+            return code / 100 == 2;
+        }
+
+        public String string() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class CachedResult {
+        private final Result result;
+        private final long expiresAt;
+
+        private CachedResult(Result result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
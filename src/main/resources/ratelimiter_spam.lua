@@ -0,0 +1,44 @@
+--[[
+Records calls that were rejected locally, without asking redis, applying the same penalties ratelimiter.lua
+would have applied to them. Does nothing if the key isn't ratelimited anymore.
+
+KEYS[1] - ratelimit key (redis hash)
+
+ARGV[1] - ratelimit limit
+ARGV[2] - current time
+ARGV[3] - initial cooldown
+ARGV[4] - maximum number of calls that can be done after limit is hit before cooldown is increased
+ARGV[5] - increase in cooldown for each call after limit is hit
+ARGV[6] - max cooldown time
+ARGV[7] - number of rejected calls to record
+]]
+
+local count = tonumber(redis.call("HGET", KEYS[1], "count") or 0)
+local reset = tonumber(redis.call("HGET", KEYS[1], "reset") or 0)
+local spam = tonumber(redis.call("HGET", KEYS[1], "spam") or 0)
+
+local limit = tonumber(ARGV[1])
+local now = tonumber(ARGV[2])
+local initialCooldown = tonumber(ARGV[3])
+local allowedSpam = tonumber(ARGV[4])
+local incr = math.max(0, tonumber(ARGV[5]))
+local maxCooldown = math.max(initialCooldown, tonumber(ARGV[6]))
+local calls = tonumber(ARGV[7])
+
+if count < limit or reset < now then
+    return {count, reset, spam}
+end
+
+for _ = 1, calls do
+    if spam + 1 > allowedSpam then
+        reset = math.min(reset + (incr * (spam - allowedSpam)), now + maxCooldown)
+    end
+    spam = spam + 1
+end
+
+redis.call("HMSET", KEYS[1], "count", count, "reset", reset, "spam", spam)
+if spam > allowedSpam + 2 then
+    redis.call("PEXPIRE", KEYS[1], reset)
+end
+
+return {count, reset, spam}